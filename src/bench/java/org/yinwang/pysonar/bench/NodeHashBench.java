@@ -0,0 +1,118 @@
+package org.yinwang.pysonar.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.yinwang.pysonar.ast.Name;
+import org.yinwang.pysonar.ast.Node;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Hashing and looking up nodes the way the analysis does, against the string
+ * key Node.hashCode used to build, which {@link StringKeyed} keeps. Run with
+ * -prof gc to see the allocation.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class NodeHashBench {
+
+    private static final int FILES = 50;
+    private static final int NODES_PER_FILE = 200;
+
+    private Node[] nodes;
+    private Node[] probes;      // equal to nodes, but other instances
+    private Map<Node, Node> map;
+    private Map<StringKeyed, Node> stringMap;
+
+
+    // a node hashed and compared the way Node used to be
+    private static final class StringKeyed {
+        final Node node;
+
+        StringKeyed(Node node) {
+            this.node = node;
+        }
+
+        @Override
+        public int hashCode() {
+            return (node.file + ":" + node.start + ":" + node.end).hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof StringKeyed)) {
+                return false;
+            }
+            Node other = ((StringKeyed) o).node;
+            return node.start == other.start && node.end == other.end && node.file.equals(other.file);
+        }
+    }
+
+
+    @Setup
+    public void setup() {
+        int n = FILES * NODES_PER_FILE;
+        nodes = new Node[n];
+        probes = new Node[n];
+        map = new HashMap<>();
+        stringMap = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            String file = "/home/user/project/package/module" + (i / NODES_PER_FILE) + ".py";
+            int start = (i % NODES_PER_FILE) * 17;
+            nodes[i] = new Name("x", file, start, start + 1, 1, start);
+            probes[i] = new Name("x", new String(file), start, start + 1, 1, start);
+            map.put(nodes[i], nodes[i]);
+            stringMap.put(new StringKeyed(nodes[i]), nodes[i]);
+        }
+    }
+
+
+    @Benchmark
+    public void stringHash(Blackhole bh) {
+        for (Node node : nodes) {
+            bh.consume((node.file + ":" + node.start + ":" + node.end).hashCode());
+        }
+    }
+
+
+    // hashCode itself only reads a field, the work is done once per node, here
+    @Benchmark
+    public void identify(Blackhole bh) {
+        for (Node probe : probes) {
+            probe.identify();
+            bh.consume(probe.hashCode());
+        }
+    }
+
+
+    @Benchmark
+    public void lookup(Blackhole bh) {
+        for (Node probe : probes) {
+            bh.consume(map.get(probe));
+        }
+    }
+
+
+    @Benchmark
+    public void stringKeyLookup(Blackhole bh) {
+        for (Node probe : probes) {
+            bh.consume(stringMap.get(new StringKeyed(probe)));
+        }
+    }
+}
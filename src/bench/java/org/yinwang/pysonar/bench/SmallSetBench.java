@@ -0,0 +1,75 @@
+package org.yinwang.pysonar.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.yinwang.pysonar.ast.Name;
+import org.yinwang.pysonar.ast.Node;
+import org.yinwang.pysonar.hash.ProbingHashSet;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * The small sets the analysis keeps by the million: binding sets (mostly
+ * one element) and the references of a binding, keyed by nodes. Run with
+ * -prof gc to compare allocation.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SmallSetBench {
+
+    @Param({"1", "4", "10", "64"})
+    public int size;
+
+    private Node[] keys;
+
+
+    @Setup
+    public void setup() {
+        keys = new Node[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = new Name("x" + i, "/project/module.py", i * 10, i * 10 + 2, 1, i * 10);
+        }
+    }
+
+
+    private void fill(Set<Node> set, Blackhole bh) {
+        for (Node k : keys) {
+            set.add(k);
+        }
+        for (Node k : keys) {
+            bh.consume(set.contains(k));
+        }
+        for (Node k : set) {
+            bh.consume(k);
+        }
+    }
+
+
+    @Benchmark
+    public void linkedHashSet(Blackhole bh) {
+        fill(new LinkedHashSet<>(1), bh);
+    }
+
+
+    @Benchmark
+    public void probingHashSet(Blackhole bh) {
+        fill(new ProbingHashSet<>(1), bh);
+    }
+}
@@ -8,6 +8,7 @@ import sun.net.www.protocol.file.FileURLConnection;
 
 import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileWriter;
 import java.io.IOException;
@@ -67,7 +68,7 @@ public class $ {
     public static String getTempDir()
     {
         String systemTemp = getSystemTempDir();
-        return makePathString(systemTemp, "pysonar2-" + Analyzer.self.sid);
+        return makePathString(systemTemp, "pysonar2-" + Analyzer.current().sid);
     }
 
     public static String getSystemTempDir() {
@@ -267,25 +268,52 @@ public class $ {
      */
     @NotNull
     public static String getFileHash(@NotNull String path) {
-        byte[] bytes = getBytesFromFile(path);
-        return $.getContentHash(path.getBytes()) + "." + getContentHash(bytes);
+        return getContentHash(path.getBytes()) + "." + getStreamHash(path);
     }
 
 
     @NotNull
     public static String getContentHash(byte[] fileContents) {
-        MessageDigest algorithm;
+        MessageDigest algorithm = newDigest();
+        algorithm.update(fileContents);
+        return toHex(algorithm.digest());
+    }
+
+
+    /**
+     * Same as {@link #getContentHash} of the file's bytes, but digests the
+     * file in chunks instead of reading it whole. An unreadable file hashes
+     * as what could be read of it.
+     */
+    @NotNull
+    public static String getStreamHash(@NotNull String path) {
+        MessageDigest algorithm = newDigest();
+        byte[] buffer = new byte[8192];
+        try (InputStream in = new FileInputStream(path)) {
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                algorithm.update(buffer, 0, n);
+            }
+        } catch (IOException e) {
+            msg("Failed to hash: " + path);
+        }
+        return toHex(algorithm.digest());
+    }
+
 
+    @NotNull
+    private static MessageDigest newDigest() {
         try {
-            algorithm = MessageDigest.getInstance("SHA-1");
+            return MessageDigest.getInstance("SHA-1");
         } catch (Exception e) {
-            $.die("Failed to get SHA, shouldn't happen");
-            return "";
+            die("Failed to get SHA, shouldn't happen");
+            return null;
         }
+    }
 
-        algorithm.reset();
-        algorithm.update(fileContents);
-        byte messageDigest[] = algorithm.digest();
+
+    @NotNull
+    private static String toHex(@NotNull byte[] messageDigest) {
         StringBuilder sb = new StringBuilder();
         for (byte aMessageDigest : messageDigest) {
             sb.append(String.format("%02x", 0xFF & aMessageDigest));
@@ -338,14 +366,16 @@ public class $ {
 
 
     public static void msg(String m) {
-        if (Analyzer.self != null && !Analyzer.self.hasOption("quiet")) {
+        Analyzer analyzer = Analyzer.current();
+        if (analyzer != null && !analyzer.hasOption("quiet")) {
             System.out.println(m);
         }
     }
 
 
     public static void msg_(String m) {
-        if (Analyzer.self != null && !Analyzer.self.hasOption("quiet")) {
+        Analyzer analyzer = Analyzer.current();
+        if (analyzer != null && !analyzer.hasOption("quiet")) {
             System.out.print(m);
         }
     }
@@ -522,8 +552,9 @@ public class $ {
 
 
     public static String projRelPath(String file) {
-        if (file.startsWith(Analyzer.self.projectDir)) {
-            return file.substring(Analyzer.self.projectDir.length() + 1);
+        String projectDir = Analyzer.current().projectDir;
+        if (file.startsWith(projectDir)) {
+            return file.substring(projectDir.length() + 1);
         } else {
             return file;
         }
@@ -531,10 +562,11 @@ public class $ {
 
 
     public static String projAbsPath(String file) {
-        if (file.startsWith("/") || file.startsWith(Analyzer.self.projectDir)) {
+        String projectDir = Analyzer.current().projectDir;
+        if (file.startsWith("/") || file.startsWith(projectDir)) {
             return file;
         } else {
-            return makePathString(Analyzer.self.projectDir, file);
+            return makePathString(projectDir, file);
         }
     }
 
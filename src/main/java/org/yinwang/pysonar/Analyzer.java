@@ -2,13 +2,17 @@ package org.yinwang.pysonar;
 
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.yinwang.pysonar.ast.FileIds;
+import org.yinwang.pysonar.ast.Module;
 import org.yinwang.pysonar.ast.Name;
 import org.yinwang.pysonar.ast.Node;
 import org.yinwang.pysonar.ast.Url;
+import org.yinwang.pysonar.parser.PythonParser;
 import org.yinwang.pysonar.types.ClassType;
 import org.yinwang.pysonar.types.FunType;
 import org.yinwang.pysonar.types.ModuleType;
 import org.yinwang.pysonar.types.Type;
+import org.yinwang.pysonar.types.Types;
 import org.yinwang.pysonar.types.UnionType;
 import org.yinwang.pysonar.visitor.TypeInferencer;
 
@@ -16,25 +20,33 @@ import java.io.File;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedHashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
 
 
 public class Analyzer {
 
-    // global static instance of the analyzer itself
-    public static Analyzer self;
-    public TypeInferencer inferencer = new TypeInferencer();
+    private static final String UNUSED_VARIABLE = "Unused variable: ";
+
+    // the analysis each thread works for, for code too far from the visitor to be handed it
+    private static final ThreadLocal<Analyzer> current = new ThreadLocal<>();
+    public TypeInferencer inferencer = new TypeInferencer(this);
     public String sid = $.newSessionId();
     public State moduleTable = new State(null, State.StateType.GLOBAL);
     public List<String> loadedFiles = new ArrayList<>();
     public State globaltable = new State(null, State.StateType.GLOBAL);
     public List<Binding> allBindings = new ArrayList<>();
-    private Map<Node, List<Binding>> references = new LinkedHashMap<>();
+    // the ids of the files this analysis's nodes are in, see Node.fileId
+    public final FileIds fileIds = new FileIds();
+    private ReferenceIndex references = new ReferenceIndex();
     public Set<Name> resolved = new HashSet<>();
     public Set<Name> unresolved = new HashSet<>();
     public Map<String, List<Diagnostic>> semanticErrors = new HashMap<>();
@@ -44,10 +56,18 @@ public class Analyzer {
     public List<String> path = new ArrayList<>();
     private Set<FunType> uncalled = new HashSet<>();
     private Set<Object> importStack = new HashSet<>();
+    private Map<String, Set<String>> importers = new HashMap<>();    // by loadModule, for update
+    private Set<String> declarationsOnly = new HashSet<>();
+    private ModuleResolver resolver = new ModuleResolver();
+    private SourceFilter sourceFilter;
+    private LibrarySummaries summaries;
+    // this analysis's attribute tables of the builtin types all analyses share
+    private final State[] sharedTypeTables = new State[Types.SHARED_TYPES];
 
     private AstCache astCache;
+    private DialectDetector dialects = new DialectDetector();
     public String cacheDir;
-    public Set<String> failedToParse = new HashSet<>();
+    public Set<String> failedToParse = Collections.synchronizedSet(new HashSet<>());
     public Stats stats = new Stats();
     public Builtins builtins;
     private Progress loadingProgress = null;
@@ -65,22 +85,117 @@ public class Analyzer {
 
 
     public Analyzer(Map<String, Object> options) {
-        self = this;
+        bind();
         if (options != null) {
             this.options = options;
         } else {
             this.options = new HashMap<>();
         }
         this.stats.putInt("startTime", System.currentTimeMillis());
-        this.builtins = new Builtins();
+        this.builtins = new Builtins(this);
         this.builtins.init();
         this.cacheDir = createCacheDir();
-        this.astCache = new AstCache();
+        ParserPool parsers = new ParserPool(getIntOption("parsers", Runtime.getRuntime().availableProcessors()),
+                this::createParser);
+        this.astCache = new AstCache(this, parsers, createAstCodec(), getIntOption("ast-cache-nodes", 1000000),
+                cacheDir);
+        if (options.get("cache-dir") != null) {
+            this.astCache.setPersistent(getIntOption("cache-size", 1024) * 1024L * 1024L);
+        }
+        // "--include <globs>" and "--exclude <globs>", comma separated, pick the project files to analyze
+        this.sourceFilter = new SourceFilter(getListOption("include"), getListOption("exclude"));
+        // "--library-summaries <dir>" keeps what was learned about library modules there across runs
+        if (options.get("library-summaries") != null) {
+            this.summaries = new LibrarySummaries(this, options.get("library-summaries").toString());
+        }
         addPythonPath();
         copyModels();
     }
 
 
+    /**
+     * The attribute tables of the types in {@link Types}, which belong to
+     * each analysis because Builtins fills them in, see {@link Type#getTable}.
+     */
+    @NotNull
+    public State[] getSharedTypeTables() {
+        return sharedTypeTables;
+    }
+
+
+    /**
+     * Returns the analyzer bound to the calling thread, the one that last
+     * created, ran or closed an analysis on it.
+     */
+    public static Analyzer current() {
+        return current.get();
+    }
+
+
+    /**
+     * Makes this the analyzer of the calling thread. The entry points do it
+     * themselves, so separate analyses can run on separate threads.
+     */
+    public void bind() {
+        current.set(this);
+    }
+
+
+    /**
+     * Releases the calling thread's binding if it is to this analyzer, so
+     * that a thread outliving the analysis doesn't keep it reachable.
+     */
+    public void unbind() {
+        if (current.get() == this) {
+            current.remove();
+        }
+    }
+
+
+    /**
+     * Wraps {@code task} to run bound to this analyzer on whichever thread
+     * runs it, giving the thread its previous binding back afterwards.
+     */
+    @NotNull
+    public Runnable bound(@NotNull Runnable task) {
+        return () -> {
+            Analyzer previous = current.get();
+            current.set(this);
+            try {
+                task.run();
+            } finally {
+                if (previous == null) {
+                    current.remove();
+                } else {
+                    current.set(previous);
+                }
+            }
+        };
+    }
+
+
+    /**
+     * A fork-join pool whose workers are bound to this analyzer while they
+     * live, so that tasks on it can report through {@link $#msg}.
+     */
+    @NotNull
+    public ForkJoinPool newForkJoinPool(int threads) {
+        return new ForkJoinPool(Math.max(1, threads), pool -> new ForkJoinWorkerThread(pool) {
+            @Override
+            protected void onStart() {
+                super.onStart();
+                bind();
+            }
+
+            @Override
+            protected void onTermination(Throwable exception) {
+                unbind();
+                super.onTermination(exception);
+            }
+        }, null, false);
+    }
+
+
     public boolean hasOption(String option) {
         Object op = options.get(option);
         if (op != null && op.equals(true)) {
@@ -96,8 +211,45 @@ public class Analyzer {
     }
 
 
+    // numeric options arrive as strings from the command line
+    public int getIntOption(String option, int defaultValue) {
+        Object op = options.get(option);
+        if (op instanceof Number) {
+            return ((Number) op).intValue();
+        } else if (op instanceof String) {
+            try {
+                return Integer.parseInt((String) op);
+            } catch (NumberFormatException e) {
+                $.msg("Ignoring non-numeric value for option " + option + ": " + op);
+            }
+        }
+        return defaultValue;
+    }
+
+
+    // a list, or a string of comma separated items
+    @NotNull
+    public List<String> getListOption(String option) {
+        Object op = options.get(option);
+        List<String> items = new ArrayList<>();
+        if (op instanceof Collection) {
+            for (Object item : (Collection<?>) op) {
+                items.add(item.toString());
+            }
+        } else if (op instanceof String) {
+            for (String item : ((String) op).split(",")) {
+                if (!item.trim().isEmpty()) {
+                    items.add(item.trim());
+                }
+            }
+        }
+        return items;
+    }
+
+
     // main entry to the analyzer
     public void analyze(String path) {
+        bind();
         String upath = $.unifyPath(path);
         File f = new File(upath);
         projectDir = f.isDirectory() ? f.getPath() : f.getParent();
@@ -162,7 +314,7 @@ public class Analyzer {
         if (cwd != null) {
             loadPath.add(cwd);
         }
-        if (projectDir != null && (new File(projectDir).isDirectory())) {
+        if (projectDir != null && resolver.isDirectory(projectDir)) {
             loadPath.add(projectDir);
         }
         loadPath.addAll(path);
@@ -222,15 +374,8 @@ public class Analyzer {
 
     public void putRef(@NotNull Node node, @NotNull Collection<Binding> bs) {
         if (!(node instanceof Url)) {
-            List<Binding> bindings = references.get(node);
-            if (bindings == null) {
-                bindings = new ArrayList<>(1);
-                references.put(node, bindings);
-            }
             for (Binding b : bs) {
-                if (!bindings.contains(b)) {
-                    bindings.add(b);
-                }
+                references.add(node, b);
                 b.addRef(node);
             }
         }
@@ -244,8 +389,19 @@ public class Analyzer {
     }
 
 
+    /**
+     * The references as a read-only map, in the order they were found, built
+     * again only after they change. Use {@link #getReferenceIndex} to look
+     * up single nodes or positions.
+     */
     @NotNull
     public Map<Node, List<Binding>> getReferences() {
+        return references.asMap();
+    }
+
+
+    @NotNull
+    public ReferenceIndex getReferenceIndex() {
         return references;
     }
 
@@ -306,7 +462,10 @@ public class Analyzer {
         setCWD(f.getParent());
 
         pushImportStack(path);
-        Type type = parseAndResolve(path);
+        Type type = loadSummary(path);
+        if (type == null) {
+            type = parseAndResolve(path);
+        }
         popImportStack(path);
 
         // restore old CWD
@@ -315,6 +474,20 @@ public class Analyzer {
     }
 
 
+    // the stub of a library module analyzed on an earlier run, if it has a summary
+    @Nullable
+    private Type loadSummary(String file) {
+        if (summaries == null || !summaries.isLibrary(file)) {
+            return null;
+        }
+        Type type = summaries.load(file);
+        if (type != null) {
+            loadedFiles.add(file);
+        }
+        return type;
+    }
+
+
     @Nullable
     private Type parseAndResolve(String file) {
         loadingProgress.tick();
@@ -324,6 +497,10 @@ public class Analyzer {
             failedToParse.add(file);
             return null;
         } else {
+            if (isOversized(file, ast)) {
+                $.msg("\nOnly indexing the declarations of " + file + ", it is over the size limit");
+                declarationsOnly.add(file);
+            }
             Type type = inferencer.visit(ast, moduleTable);
             loadedFiles.add(file);
             return type;
@@ -331,8 +508,50 @@ public class Analyzer {
     }
 
 
+    // "--max-file-size <KB>" and "--max-ast-nodes <n>" limit the files that are fully analyzed
+    private boolean isOversized(String file, @NotNull Node ast) {
+        int maxNodes = getIntOption("max-ast-nodes", 0);
+        if (maxNodes > 0 && ast instanceof Module && ((Module) ast).nodeCount > maxNodes) {
+            return true;
+        }
+        return isOverSizeLimit(file);
+    }
+
+
+    // the size comes from the discovery walk when the file was found by it
+    private boolean isOverSizeLimit(String file) {
+        int maxKB = getIntOption("max-file-size", 0);
+        return maxKB > 0 && astCache.getFileSize(file) > maxKB * 1024L;
+    }
+
+
+    // files over the size limit are only declared, their big trees aren't worth
+    // pushing smaller ones out of the memory cache for, so they are parsed in turn
+    private void parseAhead(@NotNull List<String> files) {
+        List<String> ahead = new ArrayList<>(files.size());
+        for (String file : files) {
+            if (!isOverSizeLimit(file)) {
+                ahead.add(file);
+            }
+        }
+        astCache.parseAhead(ahead);
+    }
+
+
+    /**
+     * Whether only the top-level definitions of {@code file} are indexed,
+     * because it is too big to infer, see
+     * {@link org.yinwang.pysonar.visitor.TypeInferencer#declare}.
+     */
+    public boolean isDeclarationsOnly(String file) {
+        return declarationsOnly.contains(file);
+    }
+
+
+    // "--cache-dir <dir>" keeps the AST cache there across runs, otherwise it lives and dies with the session
     private String createCacheDir() {
-        String dir = $.getTempFile("ast_cache");
+        Object persistentDir = options.get("cache-dir");
+        String dir = persistentDir != null ? $.unifyPath(persistentDir.toString()) : $.getTempFile("ast_cache");
         File f = new File(dir);
         $.msg("AST cache is at: " + dir);
 
@@ -345,6 +564,27 @@ public class Analyzer {
     }
 
 
+    // "--parser java" parses in the JVM instead of in python and python3
+    @NotNull
+    private ParserBackend createParser(int id) {
+        if ("java".equals(options.get("parser"))) {
+            return new PythonParser();
+        } else {
+            return new Parser(id, dialects, this);
+        }
+    }
+
+
+    // "--ast-codec java" keeps the Java serialization format for the AST cache
+    private AstCodec createAstCodec() {
+        if ("java".equals(options.get("ast-codec"))) {
+            return new SerializedAstCodec();
+        } else {
+            return new BinaryAstCodec();
+        }
+    }
+
+
     /**
      * Returns the syntax tree for {@code file}. <p>
      */
@@ -354,6 +594,16 @@ public class Analyzer {
     }
 
 
+    /**
+     * The hash a cached syntax tree or library summary of {@code file} is
+     * stored under, which changes with its contents.
+     */
+    @NotNull
+    public String getFileHash(String file) {
+        return astCache.getFileHash(file);
+    }
+
+
     @Nullable
     public ModuleType getBuiltinModule(@NotNull String qname) {
         return builtins.get(qname);
@@ -383,23 +633,13 @@ public class Analyzer {
      * @param headName first module name segment
      */
     public String locateModule(String headName) {
-        List<String> loadPath = getLoadPath();
-
-        for (String p : loadPath) {
-            File startDir = new File(p, headName);
-            File initFile = new File($.joinPath(startDir, "__init__.py").getPath());
-
-            if (initFile.exists()) {
-                return p;
-            }
+        return resolver.locate(getLoadPath(), headName);
+    }
 
-            File startFile = new File(startDir + Globals.FILE_SUFFIX);
-            if (startFile.exists()) {
-                return p;
-            }
-        }
 
-        return null;
+    @NotNull
+    public ModuleResolver getModuleResolver() {
+        return resolver;
     }
 
 
@@ -414,7 +654,7 @@ public class Analyzer {
         Type mt = getBuiltinModule(qname);
         if (mt != null) {
             state.insert(name.get(0).id,
-                    new Url(Builtins.LIBRARY_URL + mt.table.path + ".html"),
+                    new Url(Builtins.LIBRARY_URL + mt.getPath() + ".html"),
                     mt, Binding.Kind.SCOPE);
             return mt;
         }
@@ -434,7 +674,8 @@ public class Analyzer {
             path = new File(path, name.get(i).id);
             File initFile = new File($.joinPath(path, "__init__.py").getPath());
 
-            if (initFile.exists()) {
+            if (resolver.exists(path.getPath(), initFile.getName())) {
+                recordImport(name.get(i).file, initFile.getPath());
                 Type mod = loadFile(initFile.getPath());
                 if (mod == null) {
                     return null;
@@ -443,16 +684,17 @@ public class Analyzer {
                 Binding binding = Binding.createFileBinding(name.get(i).id, initFile.getPath(), mod);
 
                 if (prev != null) {
-                    prev.table.update(name.get(i).id, binding);
+                    prev.getTable().update(name.get(i).id, binding);
                 } else {
                     state.update(name.get(i).id, binding);
                 }
 
-                Analyzer.self.putRef(name.get(i), binding);
+                putRef(name.get(i), binding);
                 prev = mod;
             } else if (i == name.size() - 1) {
                 File startFile = new File(path + Globals.FILE_SUFFIX);
-                if (startFile.exists()) {
+                if (resolver.exists(startFile.getParent(), startFile.getName())) {
+                    recordImport(name.get(i).file, startFile.getPath());
                     Type mod = loadFile(startFile.getPath());
                     if (mod == null) {
                         return null;
@@ -461,12 +703,12 @@ public class Analyzer {
                     Binding binding = Binding.createFileBinding(name.get(i).id, startFile.getPath(), mod);
 
                     if (prev != null) {
-                        prev.table.update(name.get(i).id, binding);
+                        prev.getTable().update(name.get(i).id, binding);
                     } else {
                         state.update(name.get(i).id, binding);
                     }
 
-                    Analyzer.self.putRef(name.get(i), binding);
+                    putRef(name.get(i), binding);
                     prev = mod;
                 } else {
                     return null;
@@ -477,64 +719,198 @@ public class Analyzer {
     }
 
 
+    // remembers that importer depends on imported, also when the import is circular and fails
+    private void recordImport(@Nullable String importer, @NotNull String imported) {
+        imported = $.unifyPath(imported);
+        if (importer != null && !importer.equals(imported)) {
+            importers.computeIfAbsent(imported, k -> new HashSet<>()).add(importer);
+        }
+    }
+
+
     /**
      * Load all Python source files recursively if the given fullname is a
      * directory; otherwise just load a file.  Looks at file extension to
-     * determine whether to load a given file.
+     * determine whether to load a given file.  The files are found in one
+     * walk, see {@link SourceManifest}, queued for batched parsing in the
+     * background, then loaded in the walk's order.
      */
     public void loadFileRecursive(String fullname) {
-        int count = countFileRecursive(fullname);
+        bind();
+        int threads = getIntOption("parsers", Runtime.getRuntime().availableProcessors());
+        SourceManifest manifest = SourceManifest.scan(fullname, threads, sourceFilter);
         if (loadingProgress == null) {
-            loadingProgress = new Progress(count, 50);
+            loadingProgress = new Progress(this, manifest.size(), 50);
+        }
+
+        List<String> files = manifest.getPaths();
+        astCache.addManifest(manifest);
+        parseAhead(files);
+        for (String file : files) {
+            loadFile(file);
+        }
+    }
+
+
+    public void finish() {
+        bind();
+        $.msg("\nFinished loading files. " + nCalled + " functions were called.");
+        $.msg("Analyzing uncalled functions");
+        applyUncalled();
+        if (summaries != null) {
+            summaries.saveAll();
+        }
+        markUnused(allBindings);
+
+        $.msg(getAnalysisSummary());
+        // "--incremental" keeps the analyzer open for update, its owner closes it
+        if (!hasOption("incremental")) {
+            release();
+        }
+    }
+
+
+    /**
+     * Brings a finished analysis up to date after {@code changedFiles} were
+     * edited, added or deleted. The changed files and the files that import
+     * them, directly or through other files, are inferred again. Everything
+     * they contributed is dropped first: module table entries, bindings,
+     * references and problems. The other files are left alone, though their
+     * functions may keep argument types learned from the old code. The
+     * analyzer must have been created with the "incremental" option.
+     */
+    public void update(@NotNull Set<String> changedFiles) {
+        bind();
+        Set<String> changed = new HashSet<>();
+        for (String file : changedFiles) {
+            changed.add($.unifyPath(file));
         }
 
-        File file_or_dir = new File(fullname);
+        // everything that imports a changed file, transitively
+        Set<String> affected = new LinkedHashSet<>(changed);
+        List<String> queue = new ArrayList<>(changed);
+        while (!queue.isEmpty()) {
+            Set<String> deps = importers.get(queue.remove(queue.size() - 1));
+            if (deps != null) {
+                for (String importer : deps) {
+                    if (affected.add(importer)) {
+                        queue.add(importer);
+                    }
+                }
+            }
+        }
 
-        if (file_or_dir.isDirectory()) {
-            for (File file : file_or_dir.listFiles()) {
-                loadFileRecursive(file.getPath());
+        List<String> reload = new ArrayList<>();
+        for (String file : affected) {
+            boolean wasLoaded = loadedFiles.contains(file);
+            boolean isNew = changed.contains(file) && projectDir != null && file.startsWith(projectDir + File.separator)
+                    && file.endsWith(Globals.FILE_SUFFIX)
+                    && sourceFilter.accepts(file.substring(projectDir.length() + 1).replace(File.separatorChar, '/'));
+            if ((wasLoaded || isNew) && new File(file).canRead()) {
+                reload.add(file);
             }
-        } else {
-            if (file_or_dir.getPath().endsWith(Globals.FILE_SUFFIX)) {
-                loadFile(file_or_dir.getPath());
+        }
+
+        $.msg("Updating " + changed.size() + " changed files, " + reload.size() + " files to reanalyze");
+        // inference marks up the trees, so unchanged ones are also reread, from the disk cache
+        astCache.invalidate(affected);
+        resolver.invalidate(changed);
+        Set<String> touched = forget(affected);
+
+        loadingProgress = new Progress(this, reload.size(), 50);
+        parseAhead(reload);
+        for (String file : reload) {
+            loadFile(file);
+        }
+        applyUncalled();
+
+        touched.addAll(affected);
+        List<Binding> recheck = new ArrayList<>();
+        for (Binding b : allBindings) {
+            if (touched.contains(b.getFile())) {
+                recheck.add(b);
             }
         }
+        markUnused(recheck);
     }
 
 
-    // count number of .py files
-    public int countFileRecursive(String fullname) {
-        File file_or_dir = new File(fullname);
-        int sum = 0;
+    /**
+     * Drops what {@code files} contributed to the analysis. Returns the other
+     * files that had bindings referenced from them, whose unused variable
+     * problems are now out of date and have been removed.
+     */
+    @NotNull
+    private Set<String> forget(@NotNull Set<String> files) {
+        for (String file : files) {
+            moduleTable.remove($.moduleQname(file));
+        }
+        loadedFiles.removeAll(files);
+        failedToParse.removeAll(files);
+        declarationsOnly.removeAll(files);
+        for (Set<String> deps : importers.values()) {
+            deps.removeAll(files);
+        }
+
+        // attributes of the files' functions and classes point to the docs, so go by qualified name
+        List<String> qnames = new ArrayList<>();
+        for (String file : files) {
+            qnames.add($.moduleQname(file));
+        }
 
-        if (file_or_dir.isDirectory()) {
-            for (File file : file_or_dir.listFiles()) {
-                sum += countFileRecursive(file.getPath());
+        Set<Binding> dropped = Collections.newSetFromMap(new IdentityHashMap<>());
+        Set<String> touched = new HashSet<>();
+        List<Binding> kept = new ArrayList<>();
+        for (Binding b : allBindings) {
+            if (files.contains(b.getFile()) || (b.getFile() == null && inModules(b.qname, qnames))) {
+                dropped.add(b);
+            } else {
+                if (b.refs.removeIf(node -> files.contains(node.file)) && b.getFile() != null) {
+                    touched.add(b.getFile());
+                }
+                kept.add(b);
             }
-        } else {
-            if (file_or_dir.getPath().endsWith(Globals.FILE_SUFFIX)) {
-                sum += 1;
+        }
+        allBindings = kept;
+
+        references.remove(files, dropped);
+
+        resolved.removeIf(name -> files.contains(name.file));
+        unresolved.removeIf(name -> files.contains(name.file));
+        uncalled.removeIf(fun -> fun.func != null && files.contains(fun.func.file));
+
+        for (String file : files) {
+            semanticErrors.remove(file);
+        }
+        for (String file : touched) {
+            List<Diagnostic> errs = semanticErrors.get(file);
+            if (errs != null) {
+                errs.removeIf(d -> d.msg.startsWith(UNUSED_VARIABLE));
             }
         }
-        return sum;
+        return touched;
     }
 
 
-    public void finish() {
-        $.msg("\nFinished loading files. " + nCalled + " functions were called.");
-        $.msg("Analyzing uncalled functions");
-        applyUncalled();
+    private static boolean inModules(@Nullable String qname, @NotNull List<String> modules) {
+        if (qname != null) {
+            for (String module : modules) {
+                if (qname.equals(module) || qname.startsWith(module + ".")) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
 
-        // mark unused variables
-        for (List<Binding> bset : $.correlateBindings(allBindings)) {
+    private void markUnused(@NotNull List<Binding> bindings) {
+        for (List<Binding> bset : $.correlateBindings(bindings)) {
             if (unusedBindingSet(bset)) {
                 Binding first = bset.get(0);
-                putProblem(first.node, "Unused variable: " + first.name);
+                putProblem(first.node, UNUSED_VARIABLE + first.name);
             }
         }
-
-        $.msg(getAnalysisSummary());
-        close();
     }
 
     private boolean unusedBindingSet(List<Binding> bindings) {
@@ -553,8 +929,21 @@ public class Analyzer {
                 && binding.refs.isEmpty());
     }
 
+    /**
+     * Shuts the parsers down and unbinds the calling thread. The results stay
+     * readable, from a thread that binds the analyzer again.
+     */
     public void close()
     {
+        release();
+        unbind();
+    }
+
+
+    // what finish does once the files are analyzed; the caller stays bound to read the results
+    private void release()
+    {
+        bind();
         astCache.close();
         $.sleep(10);
         if (!$.deleteDirectory($.getTempDir()))
@@ -576,7 +965,7 @@ public class Analyzer {
 
 
     public void applyUncalled() {
-        Progress progress = new Progress(uncalled.size(), 50);
+        Progress progress = new Progress(this, uncalled.size(), 50);
 
         while (!uncalled.isEmpty()) {
             List<FunType> uncalledDup = new ArrayList<>(uncalled);
@@ -609,13 +998,19 @@ public class Analyzer {
 
         sb.append("\n- number of definitions: " + nDef);
         sb.append("\n- number of cross references: " + nXRef);
-        sb.append("\n- number of references: " + getReferences().size());
+        sb.append("\n- number of references: " + references.size());
 
         long nResolved = resolved.size();
         long nUnresolved = unresolved.size();
         sb.append("\n- resolved names: " + nResolved);
         sb.append("\n- unresolved names: " + nUnresolved);
         sb.append("\n- name resolve rate: " + $.percent(nResolved, nResolved + nUnresolved));
+
+        astCache.recordStats(stats);
+        sb.append("\n- AST cache hits: " + stats.getInt("astCacheHits"));
+        sb.append("\n- AST cache misses: " + stats.getInt("astCacheMisses"));
+        sb.append("\n- AST cache evictions: " + stats.getInt("astCacheEvictions"));
+        sb.append("\n- AST load time: " + $.formatTime(stats.getInt("astLoadTime")));
         sb.append("\n" + $.getGCStats());
 
         return sb.toString();
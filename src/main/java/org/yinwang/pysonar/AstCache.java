@@ -5,12 +5,32 @@ import org.jetbrains.annotations.Nullable;
 import org.yinwang.pysonar.ast.Module;
 import org.yinwang.pysonar.ast.Node;
 
-import java.io.*;
-import java.util.HashMap;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
 
 /**
  * Provides a factory for python source ASTs.  Maintains configurable on-disk and
@@ -20,12 +40,81 @@ public class AstCache {
 
     private static final Logger LOG = Logger.getLogger(AstCache.class.getCanonicalName());
 
+    // bump whenever Parser starts producing different trees for the same source
+    private static final int PARSER_VERSION = 1;
+    private static final String VERSION_FILE = "VERSION";
+    private static final String FINGERPRINT_FILE = "FINGERPRINTS";
+    // the cache keeps to a directory of its own, the user's directory may hold other files
+    private static final String CACHE_SUBDIR = "pysonar-ast";
+    // files per parse-ahead request; small enough that every worker gets some early on
+    private static final int BATCH_SIZE = 32;
+    // batches per parser that parse-ahead may run ahead of the files asked for
+    private static final int BATCHES_AHEAD = 2;
+
+    @NotNull
+    private Cache<String, Node> cache;
+    @NotNull
+    private Set<String> failed = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    @NotNull
+    private AtomicLong loadTime = new AtomicLong();
+    // files being parsed ahead; a finished tree moves to the memory cache
+    @NotNull
+    private Map<String, CompletableFuture<Node>> pending = new ConcurrentHashMap<>();
+    // files waiting for parse-ahead, in order; also the lock of the parse-ahead state
+    @NotNull
+    private final Set<String> queued = new LinkedHashSet<>();
+    // files handed to parse-ahead that nobody has asked for yet
+    @NotNull
+    private final Set<String> unclaimed = new HashSet<>();
+    private final int maxAhead;
+    @NotNull
+    private ParserPool parsers;
+    @NotNull
+    private ExecutorService parseAhead;
     @NotNull
-    private Map<String, Node> cache = new HashMap<>();
+    private AstCodec codec;
     @NotNull
-    private Parser parser = new Parser();
+    private FingerprintIndex fingerprints = new FingerprintIndex();
+    // attributes found by the discovery walk, trusted until a file is invalidated
+    @NotNull
+    private Map<String, SourceManifest.Entry> scanned = new ConcurrentHashMap<>();
+    @NotNull
+    private String cacheDir;
+    private boolean persistent = false;
+    private long maxDiskBytes;
+    // what the entries on disk take, counted by evict and kept up by serialize; a close estimate
+    // under concurrent writes, which the next eviction corrects
+    @NotNull
+    private final AtomicLong diskBytes = new AtomicLong();
 
-    public AstCache() {
+
+    /**
+     * @param analyzer the analysis the parse-ahead threads report to
+     * @param parsers  the backend workers that files missing from the cache go to
+     * @param maxNodes how many AST nodes the memory cache may hold before it
+     *                 evicts modules; evicted modules are reloaded from disk
+     * @param cacheDir the directory of the on-disk cache, which keeps its
+     *                 entries in a subdirectory of it and touches nothing else
+     */
+    public AstCache(@NotNull Analyzer analyzer, @NotNull ParserPool parsers, @NotNull AstCodec codec, long maxNodes,
+                    @NotNull String cacheDir)
+    {
+        this.parsers = parsers;
+        this.cacheDir = $.makePathString(cacheDir, CACHE_SUBDIR);
+        new File(this.cacheDir).mkdirs();
+        this.codec = codec;
+        cache = CacheBuilder.newBuilder()
+                .maximumWeight(maxNodes)
+                .weigher((String path, Node ast) -> ast instanceof Module ? ((Module) ast).nodeCount : 1)
+                .softValues()
+                .recordStats()
+                .build();
+        maxAhead = parsers.size() * BATCH_SIZE * BATCHES_AHEAD;
+        parseAhead = Executors.newFixedThreadPool(parsers.size(), r -> {
+            Thread t = new Thread(analyzer.bound(r), "pysonar-parser");
+            t.setDaemon(true);
+            return t;
+        });
     }
 
 
@@ -33,7 +122,42 @@ public class AstCache {
      * Clears the memory cache.
      */
     public void clear() {
-        cache.clear();
+        cache.invalidateAll();
+        failed.clear();
+    }
+
+
+    /**
+     * Forgets the in-memory trees of {@code paths}. Disk cache entries are
+     * keyed by content, so a changed file misses them and an unchanged one
+     * is read back as a fresh tree.
+     */
+    public void invalidate(@NotNull Collection<String> paths) {
+        synchronized (queued) {
+            for (String path : paths) {
+                // a parse still running for the old content finds its future gone and drops the tree
+                pending.remove(path);
+                queued.remove(path);
+                unclaimed.remove(path);
+                cache.invalidate(path);
+                scanned.remove(path);
+                failed.remove(path);
+            }
+        }
+        submitMore();
+    }
+
+
+    /**
+     * Copies the memory cache's hit, miss, eviction and load time counters
+     * into {@code stats}.
+     */
+    public void recordStats(@NotNull Stats stats) {
+        CacheStats cacheStats = cache.stats();
+        stats.putInt("astCacheHits", cacheStats.hitCount());
+        stats.putInt("astCacheMisses", cacheStats.missCount());
+        stats.putInt("astCacheEvictions", cacheStats.evictionCount());
+        stats.putInt("astLoadTime", TimeUnit.NANOSECONDS.toMillis(loadTime.get()));
     }
 
 
@@ -44,7 +168,7 @@ public class AstCache {
      */
     public boolean clearDiskCache() {
         try {
-            $.deleteDirectory(new File(Analyzer.self.cacheDir));
+            $.deleteDirectory(new File(cacheDir));
             return true;
         } catch (Exception x) {
             LOG.log(Level.SEVERE, "Failed to clear disk cache: " + x);
@@ -53,9 +177,195 @@ public class AstCache {
     }
 
 
+    /**
+     * Keeps the on-disk cache across runs instead of clearing it on close.
+     * Entries written by a different parser or format version are dropped, and
+     * the least recently used entries are evicted whenever the cache grows
+     * larger than {@code maxBytes}, on open, on writes and on close.
+     */
+    public void setPersistent(long maxBytes) {
+        persistent = true;
+        maxDiskBytes = maxBytes;
+
+        File versionFile = new File(cacheDir, VERSION_FILE);
+        String version = getCacheVersion();
+        String found = $.readFile(versionFile.getPath());
+        if (!version.equals(found)) {
+            if (found != null) {
+                $.msg("AST cache is from another version, clearing it");
+            }
+            $.deleteDirectory(new File(cacheDir));
+            new File(cacheDir).mkdirs();
+            $.writeFile(versionFile.getPath(), version);
+        }
+        fingerprints.load(new File(cacheDir, FINGERPRINT_FILE));
+        evict();
+    }
+
+
+    // the parser backend, the Python side, the Java side and the codec all determine what an entry holds
+    @NotNull
+    private String getCacheVersion() {
+        String script = $.readResource(Parser.dumpPythonResource);
+        return PARSER_VERSION + ":" + parsers.getName() + ":" + codec.getName() + ":" +
+                $.getContentHash(script.getBytes(StandardCharsets.UTF_8));
+    }
+
+
+    /**
+     * Deletes the least recently used entries until the disk cache fits in
+     * nine tenths of its size limit, so that the writes right after don't
+     * evict again. Hits refresh an entry's modification time, which serves
+     * as its last use.
+     */
+    private synchronized void evict() {
+        String suffix = "." + codec.getName();
+        File[] entries = new File(cacheDir).listFiles(f -> f.getName().endsWith(suffix));
+        if (entries == null) {
+            return;
+        }
+
+        long total = 0;
+        for (File f : entries) {
+            total += f.length();
+        }
+        if (total <= maxDiskBytes) {
+            diskBytes.set(total);
+            return;
+        }
+
+        long target = maxDiskBytes / 10 * 9;
+        Arrays.sort(entries, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        int evicted = 0;
+        for (File f : entries) {
+            if (total <= target) {
+                break;
+            }
+            long size = f.length();
+            if (f.delete()) {
+                total -= size;
+                evicted++;
+            }
+        }
+        diskBytes.set(total);
+        $.msg("Evicted " + evicted + " entries from the AST cache");
+    }
+
+
     public void close() {
-        parser.close();
-        clearDiskCache();
+        parseAhead.shutdownNow();
+        parsers.close();
+        if (persistent) {
+            fingerprints.save(new File(cacheDir, FINGERPRINT_FILE));
+            evict();
+        } else {
+            clearDiskCache();
+        }
+    }
+
+
+    /**
+     * Takes the sizes and modification times of the files in {@code manifest}
+     * for their fingerprints, instead of reading them from the file system
+     * again.
+     */
+    public void addManifest(@NotNull SourceManifest manifest) {
+        for (SourceManifest.Entry e : manifest.getEntries()) {
+            if (e.size >= 0) {
+                scanned.put(e.path, e);
+            }
+        }
+    }
+
+
+    /**
+     * Queues {@code paths} to be parsed in the background by the parser pool,
+     * in the given order, so that {@link #getAST} finds them ready. Files go
+     * to the parsers in batches of {@link #BATCH_SIZE}, and each is ready as
+     * soon as its own tree comes back. Finished trees go to the memory cache,
+     * and parsing stops {@link #BATCHES_AHEAD} batches per parser ahead of
+     * the files asked for, so that they aren't evicted before they are used.
+     */
+    public void parseAhead(@NotNull Collection<String> paths) {
+        synchronized (queued) {
+            for (String path : paths) {
+                if (!cache.asMap().containsKey(path) && !pending.containsKey(path)) {
+                    queued.add(path);
+                }
+            }
+        }
+        submitMore();
+    }
+
+
+    // hands queued files to the parsers while parse-ahead is within its limit
+    private void submitMore() {
+        synchronized (queued) {
+            Iterator<String> it = queued.iterator();
+            while (it.hasNext() && unclaimed.size() < maxAhead) {
+                Map<String, CompletableFuture<Node>> batch = new LinkedHashMap<>();
+                while (it.hasNext() && batch.size() < BATCH_SIZE) {
+                    String path = it.next();
+                    it.remove();
+                    CompletableFuture<Node> future = new CompletableFuture<>();
+                    pending.put(path, future);
+                    unclaimed.add(path);
+                    batch.put(path, future);
+                }
+                submitBatch(batch);
+            }
+        }
+    }
+
+
+    private void submitBatch(@NotNull Map<String, CompletableFuture<Node>> batch) {
+        parseAhead.submit(() -> {
+            try {
+                loadAll(batch);
+            } catch (Exception e) {
+                for (Map.Entry<String, CompletableFuture<Node>> entry : batch.entrySet()) {
+                    synchronized (queued) {
+                        pending.remove(entry.getKey(), entry.getValue());
+                    }
+                    entry.getValue().completeExceptionally(e);
+                }
+            }
+            // a backend that skipped a file must not leave getAST waiting for it
+            for (Map.Entry<String, CompletableFuture<Node>> entry : batch.entrySet()) {
+                if (!entry.getValue().isDone()) {
+                    finishAhead(entry.getKey(), entry.getValue(), null);
+                }
+            }
+        });
+    }
+
+
+    // moves a tree parsed ahead into the memory cache, unless its file was invalidated meanwhile
+    private void finishAhead(@NotNull String path, @NotNull CompletableFuture<Node> future, @Nullable Node node) {
+        synchronized (queued) {
+            if (pending.get(path) == future) {
+                if (node != null) {
+                    cache.put(path, node);
+                } else {
+                    failed.add(path);
+                }
+                pending.remove(path);
+            }
+        }
+        future.complete(node);
+    }
+
+
+    // a file asked for no longer counts against the parse-ahead limit, nor needs parsing ahead
+    private void claim(@NotNull String path) {
+        boolean more;
+        synchronized (queued) {
+            queued.remove(path);
+            more = unclaimed.remove(path);
+        }
+        if (more) {
+            submitMore();
+        }
     }
 
 
@@ -68,66 +378,140 @@ public class AstCache {
      */
     @Nullable
     public Node getAST(@NotNull String path) {
-        // Cache stores null value if the parse failed.
-        if (cache.containsKey(path)) {
-            return cache.get(path);
+        claim(path);
+        // failed parses are remembered apart, the cache holds no nulls
+        if (failed.contains(path)) {
+            return null;
+        }
+
+        // a finished tree is put in the cache before its future is dropped
+        CompletableFuture<Node> ahead = pending.get(path);
+        if (ahead == null) {
+            Node cached = cache.getIfPresent(path);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        Node node = null;
+        long startTime = System.nanoTime();
+        try {
+            node = ahead != null ? ahead.get() : load(path);
+        } catch (Exception e) {
+            LOG.log(Level.WARNING, "parse ahead failed for " + path + ": " + e);
         }
+        loadTime.addAndGet(System.nanoTime() - startTime);
 
+        if (node == null) {
+            failed.add(path);
+        } else {
+            cache.put(path, node);
+        }
+        return node;
+    }
+
+
+    // the batch counterpart of load, completing each future as its tree arrives
+    private void loadAll(@NotNull Map<String, CompletableFuture<Node>> batch) {
+        List<String> misses = new ArrayList<>();
+        for (Map.Entry<String, CompletableFuture<Node>> e : batch.entrySet()) {
+            Node node = getSerializedModule(e.getKey());
+            if (node != null) {
+                LOG.log(Level.FINE, "reusing " + e.getKey());
+                finishAhead(e.getKey(), e.getValue(), node);
+            } else {
+                misses.add(e.getKey());
+            }
+        }
+
+        if (!misses.isEmpty()) {
+            LOG.log(Level.FINE, "parsing " + misses.size() + " files");
+            parsers.parseFiles(misses, (path, node) -> {
+                if (node != null) {
+                    serialize(node);
+                }
+                finishAhead(path, batch.get(path), node);
+            });
+        }
+    }
+
+
+    // called from the parse-ahead threads as well as the analyzer thread
+    @Nullable
+    private Node load(@NotNull String path) {
         // Might be cached on disk but not in memory.
         Node node = getSerializedModule(path);
         if (node != null) {
             LOG.log(Level.FINE, "reusing " + path);
-            cache.put(path, node);
             return node;
         }
 
-        node = null;
-        try {
-            LOG.log(Level.FINE, "parsing " + path);
-            node = parser.parseFile(path);
-        } finally {
-            cache.put(path, node);  // may be null
-        }
-
+        LOG.log(Level.FINE, "parsing " + path);
+        node = parsers.parseFile(path);
         if (node != null) {
             serialize(node);
         }
-
         return node;
     }
 
 
     /**
-     * Each source file's AST is saved in an object file named for the MD5
-     * checksum of the source file.  All that is needed is the MD5, but the
-     * file's base name is included for ease of debugging.
+     * Each source file's AST is saved in a file named for the SHA-1 of the
+     * source file's path and content, with the codec's name as extension.
+     * The content hash is taken from the fingerprint index, so an unchanged
+     * file is not read to find its entry, nor looked at again if it was found
+     * by the discovery walk.
      */
     @NotNull
     public String getCachePath(@NotNull String sourcePath) {
-        return $.makePathString(Analyzer.self.cacheDir, $.getFileHash(sourcePath));
+        return $.makePathString(cacheDir, getFileHash(sourcePath) + "." + codec.getName());
+    }
+
+
+    /**
+     * The size of {@code sourcePath} in bytes, from the discovery walk if it
+     * found the file, or 0 if the file can't be read.
+     */
+    public long getFileSize(@NotNull String sourcePath) {
+        SourceManifest.Entry e = scanned.get(sourcePath);
+        return e != null ? e.size : new File(sourcePath).length();
+    }
+
+
+    /**
+     * The hash of {@code sourcePath} and its contents, from the fingerprint
+     * index when the file looks unchanged.
+     */
+    @NotNull
+    public String getFileHash(@NotNull String sourcePath) {
+        SourceManifest.Entry e = scanned.get(sourcePath);
+        return e != null ? fingerprints.getFileHash(sourcePath, e.size, e.mtime, e.inode)
+                         : fingerprints.getFileHash(sourcePath);
     }
 
 
     // package-private for testing
     void serialize(@NotNull Node ast) {
+        if (!(ast instanceof Module)) {
+            return;
+        }
+
+        // write aside and rename, so a reader never sees a half-written entry
         String path = getCachePath(ast.file);
-        ObjectOutputStream oos = null;
-        FileOutputStream fos = null;
+        File entry = new File(path);
+        File tmp = new File(path + "." + Thread.currentThread().getId() + ".tmp");
         try {
-            fos = new FileOutputStream(path);
-            oos = new ObjectOutputStream(fos);
-            oos.writeObject(ast);
+            long replaced = entry.length();
+            codec.write((Module) ast, tmp);
+            long written = tmp.length();
+            if (!tmp.renameTo(entry)) {
+                tmp.delete();
+            } else if (persistent && diskBytes.addAndGet(written - replaced) > maxDiskBytes) {
+                evict();
+            }
         } catch (Exception e) {
+            tmp.delete();
             $.msg("Failed to serialize: " + path);
-        } finally {
-            try {
-                if (oos != null) {
-                    oos.close();
-                } else if (fos != null) {
-                    fos.close();
-                }
-            } catch (Exception e) {
-            }
         }
     }
 
@@ -142,7 +526,11 @@ public class AstCache {
         if (!cached.canRead()) {
             return null;
         }
-        return deserialize(sourcePath);
+        Module module = deserialize(sourcePath);
+        if (module != null && persistent) {
+            cached.setLastModified(System.currentTimeMillis());
+        }
+        return module;
     }
 
 
@@ -150,24 +538,11 @@ public class AstCache {
     @Nullable
     Module deserialize(@NotNull String sourcePath) {
         String cachePath = getCachePath(sourcePath);
-        FileInputStream fis = null;
-        ObjectInputStream ois = null;
         try {
-            fis = new FileInputStream(cachePath);
-            ois = new ObjectInputStream(fis);
-            return (Module) ois.readObject();
+            return codec.read(new File(cachePath));
         } catch (Exception e) {
+            LOG.log(Level.FINE, "Failed to read cached AST " + cachePath + ": " + e);
             return null;
-        } finally {
-            try {
-                if (ois != null) {
-                    ois.close();
-                } else if (fis != null) {
-                    fis.close();
-                }
-            } catch (Exception e) {
-
-            }
         }
     }
 }
@@ -0,0 +1,26 @@
+package org.yinwang.pysonar;
+
+import org.jetbrains.annotations.NotNull;
+import org.yinwang.pysonar.ast.Module;
+
+import java.io.File;
+import java.io.IOException;
+
+
+/**
+ * On-disk format of the AST cache. The name of a codec is used as the
+ * extension of its cache files, so entries written in different formats
+ * never get mixed up.
+ */
+public interface AstCodec {
+
+    @NotNull
+    String getName();
+
+
+    void write(@NotNull Module ast, @NotNull File file) throws IOException;
+
+
+    @NotNull
+    Module read(@NotNull File file) throws IOException;
+}
@@ -0,0 +1,860 @@
+package org.yinwang.pysonar;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.yinwang.pysonar.ast.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Compact binary AST format. A file is laid out as
+ *
+ * <pre>
+ *   magic, format version
+ *   string table: count, then (length, UTF-8 bytes) for each string
+ *   root node
+ * </pre>
+ *
+ * A node is its {@link NodeType} tag (ordinal + 1, 0 for null), its file as a
+ * string table index, its start, length, line and column, followed by the
+ * fields of its kind in constructor order. The converter shares some nodes
+ * between parents (the target of an augmented assignment, for one), so a node
+ * seen before is written as the {@code SHARED} tag and its preorder index.
+ * Lists are their size + 1 (0 for null) followed by the elements. All integers
+ * are zigzag varints, so the usual small offsets take one or two bytes, and
+ * every string, including the file name repeated by each node, is stored once.
+ */
+public class BinaryAstCodec implements AstCodec {
+
+    private static final int MAGIC = 0x50594153;     // "PYAS"
+
+    // bump whenever the layout or the ast classes change
+    public static final int VERSION = 3;
+
+    private static final NodeType[] NODE_TYPES = NodeType.values();
+    private static final int SHARED = NODE_TYPES.length + 1;
+    private static final NameType[] NAME_TYPES = NameType.values();
+    private static final Op[] OPS = Op.values();
+
+
+    @NotNull
+    @Override
+    public String getName() {
+        return "ast" + VERSION;
+    }
+
+
+    @Override
+    public void write(@NotNull Module ast, @NotNull File file) throws IOException {
+        Encoder encoder = new Encoder();
+        encoder.writeNode(ast);
+
+        try (OutputStream out = new FileOutputStream(file)) {
+            Encoder header = new Encoder();
+            header.out.write(ByteBuffer.allocate(4).putInt(MAGIC).array());
+            header.writeInt(VERSION);
+            header.writeInt(encoder.strings.size());
+            for (String s : encoder.strings.keySet()) {
+                byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+                header.writeInt(bytes.length);
+                header.out.write(bytes);
+            }
+            header.out.writeTo(out);
+            encoder.out.writeTo(out);
+        }
+    }
+
+
+    @NotNull
+    @Override
+    public Module read(@NotNull File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Not an AST cache file: " + file);
+            }
+
+            Decoder decoder = new Decoder(buffer);
+            int version = decoder.readInt();
+            if (version != VERSION) {
+                throw new IOException("AST cache format " + version + " is not " + VERSION + ": " + file);
+            }
+
+            decoder.readStrings();
+            Node root = decoder.readNode();
+            if (!(root instanceof Module)) {
+                throw new IOException("AST cache file does not hold a module: " + file);
+            }
+            ((Module) root).nodeCount = decoder.read.size();
+            return (Module) root;
+        } catch (BufferUnderflowException | ClassCastException | IndexOutOfBoundsException e) {
+            throw new IOException("Corrupt AST cache file: " + file, e);
+        }
+    }
+
+
+    private static class Encoder {
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Map<String, Integer> strings = new LinkedHashMap<>();
+        Map<Node, Integer> written = new IdentityHashMap<>();
+
+
+        void writeInt(int n) {
+            int v = (n << 1) ^ (n >> 31);
+            while ((v & ~0x7f) != 0) {
+                out.write((v & 0x7f) | 0x80);
+                v >>>= 7;
+            }
+            out.write(v);
+        }
+
+
+        void writeBoolean(boolean b) {
+            out.write(b ? 1 : 0);
+        }
+
+
+        void writeDouble(double d) {
+            long bits = Double.doubleToRawLongBits(d);
+            for (int i = 56; i >= 0; i -= 8) {
+                out.write((int) (bits >>> i));
+            }
+        }
+
+
+        // index into the string table, 0 for null
+        void writeString(@Nullable String s) {
+            if (s == null) {
+                writeInt(0);
+                return;
+            }
+            Integer index = strings.get(s);
+            if (index == null) {
+                index = strings.size();
+                strings.put(s, index);
+            }
+            writeInt(index + 1);
+        }
+
+
+        void writeList(@Nullable List<? extends Node> nodes) throws IOException {
+            if (nodes == null) {
+                writeInt(0);
+            } else {
+                writeInt(nodes.size() + 1);
+                for (Node n : nodes) {
+                    writeNode(n);
+                }
+            }
+        }
+
+
+        void writeNode(@Nullable Node node) throws IOException {
+            if (node == null) {
+                writeInt(0);
+                return;
+            }
+            if (node.nodeType == null) {
+                throw new IOException("Node without a type can't be encoded: " + node);
+            }
+
+            Integer index = written.get(node);
+            if (index != null) {
+                writeInt(SHARED);
+                writeInt(index);
+                return;
+            }
+            written.put(node, written.size());
+
+            writeInt(node.nodeType.ordinal() + 1);
+            writeString(node.file);
+            writeInt(node.start);
+            writeInt(node.end - node.start);
+            writeInt(node.line);
+            writeInt(node.col);
+
+            switch (node.nodeType) {
+                case ALIAS: {
+                    Alias n = (Alias) node;
+                    writeList(n.name);
+                    writeNode(n.asname);
+                    break;
+                }
+                case ASSERT: {
+                    Assert n = (Assert) node;
+                    writeNode(n.test);
+                    writeNode(n.msg);
+                    break;
+                }
+                case ASSIGN: {
+                    Assign n = (Assign) node;
+                    writeNode(n.target);
+                    writeNode(n.value);
+                    break;
+                }
+                case ATTRIBUTE: {
+                    Attribute n = (Attribute) node;
+                    writeNode(n.target);
+                    writeNode(n.attr);
+                    break;
+                }
+                case AWAIT:
+                    writeNode(((Await) node).value);
+                    break;
+                case BINOP: {
+                    BinOp n = (BinOp) node;
+                    writeInt(n.op.ordinal());
+                    writeNode(n.left);
+                    writeNode(n.right);
+                    break;
+                }
+                case BLOCK:
+                    writeList(((Block) node).seq);
+                    break;
+                case BREAK:
+                case CONTINUE:
+                case DUMMY:
+                case ELLIPSIS:
+                case PASS:
+                case UNSUPPORTED:
+                    break;
+                case BYTES:
+                    writeString(((Bytes) node).value.toString());
+                    break;
+                case CALL: {
+                    Call n = (Call) node;
+                    writeNode(n.func);
+                    writeList(n.args);
+                    writeList(n.keywords);
+                    writeNode(n.kwargs);
+                    writeNode(n.starargs);
+                    break;
+                }
+                case CLASSDEF: {
+                    ClassDef n = (ClassDef) node;
+                    writeNode(n.name);
+                    writeList(n.bases);
+                    writeNode(n.body);
+                    break;
+                }
+                case COMPREHENSION: {
+                    Comprehension n = (Comprehension) node;
+                    writeNode(n.target);
+                    writeNode(n.iter);
+                    writeList(n.ifs);
+                    break;
+                }
+                case DELETE:
+                    writeList(((Delete) node).targets);
+                    break;
+                case DICT: {
+                    Dict n = (Dict) node;
+                    writeList(n.keys);
+                    writeList(n.values);
+                    break;
+                }
+                case DICTCOMP: {
+                    DictComp n = (DictComp) node;
+                    writeNode(n.key);
+                    writeNode(n.value);
+                    writeList(n.generators);
+                    break;
+                }
+                case EXEC: {
+                    Exec n = (Exec) node;
+                    writeNode(n.body);
+                    writeNode(n.globals);
+                    writeNode(n.locals);
+                    break;
+                }
+                case EXPR:
+                    writeNode(((Expr) node).value);
+                    break;
+                case EXTSLICE:
+                    writeList(((ExtSlice) node).dims);
+                    break;
+                case FOR: {
+                    For n = (For) node;
+                    writeNode(n.target);
+                    writeNode(n.iter);
+                    writeNode(n.body);
+                    writeNode(n.orelse);
+                    writeBoolean(n.isAsync);
+                    break;
+                }
+                case FUNCTIONDEF: {
+                    FunctionDef n = (FunctionDef) node;
+                    writeNode(n.name);
+                    writeList(n.args);
+                    writeNode(n.body);
+                    writeList(n.defaults);
+                    writeNode(n.vararg);
+                    writeNode(n.kwarg);
+                    writeList(n.decorators);
+                    writeBoolean(n.isAsync);
+                    writeBoolean(n.isLamba);
+                    break;
+                }
+                case GENERATOREXP: {
+                    GeneratorExp n = (GeneratorExp) node;
+                    writeNode(n.elt);
+                    writeList(n.generators);
+                    break;
+                }
+                case GLOBAL:
+                    writeList(((Global) node).names);
+                    break;
+                case HANDLER: {
+                    Handler n = (Handler) node;
+                    writeList(n.exceptions);
+                    writeNode(n.binder);
+                    writeNode(n.body);
+                    break;
+                }
+                case IF: {
+                    If n = (If) node;
+                    writeNode(n.test);
+                    writeNode(n.body);
+                    writeNode(n.orelse);
+                    break;
+                }
+                case IFEXP: {
+                    IfExp n = (IfExp) node;
+                    writeNode(n.test);
+                    writeNode(n.body);
+                    writeNode(n.orelse);
+                    break;
+                }
+                case IMPORT:
+                    writeList(((Import) node).names);
+                    break;
+                case IMPORTFROM: {
+                    ImportFrom n = (ImportFrom) node;
+                    writeList(n.module);
+                    writeList(n.names);
+                    writeInt(n.level);
+                    break;
+                }
+                case INDEX:
+                    writeNode(((Index) node).value);
+                    break;
+                case KEYWORD: {
+                    Keyword n = (Keyword) node;
+                    writeString(n.arg);
+                    writeNode(n.value);
+                    break;
+                }
+                case LISTCOMP: {
+                    ListComp n = (ListComp) node;
+                    writeNode(n.elt);
+                    writeList(n.generators);
+                    break;
+                }
+                case MODULE: {
+                    Module n = (Module) node;
+                    writeNode(n.body);
+                    writeInt(n.pythonVersion);
+                    // line lengths, which are short varints
+                    writeInt(n.lineStarts == null ? 0 : n.lineStarts.length + 1);
+                    if (n.lineStarts != null) {
+                        int prev = 0;
+                        for (int start : n.lineStarts) {
+                            writeInt(start - prev);
+                            prev = start;
+                        }
+                    }
+                    break;
+                }
+                case NAME: {
+                    Name n = (Name) node;
+                    writeString(n.id);
+                    writeInt(n.type == null ? -1 : n.type.ordinal());
+                    break;
+                }
+                case PRINT: {
+                    Print n = (Print) node;
+                    writeNode(n.dest);
+                    writeList(n.values);
+                    break;
+                }
+                case PYCOMPLEX: {
+                    PyComplex n = (PyComplex) node;
+                    writeDouble(n.real);
+                    writeDouble(n.imag);
+                    break;
+                }
+                case PYFLOAT:
+                    writeDouble(((PyFloat) node).value);
+                    break;
+                case PYINT:
+                    writeString(((PyInt) node).value.toString());
+                    break;
+                case PYLIST:
+                case PYSET:
+                case TUPLE:
+                    writeList(((Sequence) node).elts);
+                    break;
+                case RAISE: {
+                    Raise n = (Raise) node;
+                    writeNode(n.exceptionType);
+                    writeNode(n.inst);
+                    writeNode(n.traceback);
+                    break;
+                }
+                case REPR:
+                    writeNode(((Repr) node).value);
+                    break;
+                case RETURN:
+                    writeNode(((Return) node).value);
+                    break;
+                case SETCOMP: {
+                    SetComp n = (SetComp) node;
+                    writeNode(n.elt);
+                    writeList(n.generators);
+                    break;
+                }
+                case SLICE: {
+                    Slice n = (Slice) node;
+                    writeNode(n.lower);
+                    writeNode(n.step);
+                    writeNode(n.upper);
+                    break;
+                }
+                case STARRED:
+                    writeNode(((Starred) node).value);
+                    break;
+                case STR:
+                    writeString(((Str) node).value);
+                    break;
+                case SUBSCRIPT: {
+                    Subscript n = (Subscript) node;
+                    writeNode(n.value);
+                    writeNode(n.slice);
+                    break;
+                }
+                case TRY: {
+                    Try n = (Try) node;
+                    writeList(n.handlers);
+                    writeNode(n.body);
+                    writeNode(n.orelse);
+                    writeNode(n.finalbody);
+                    break;
+                }
+                case UNARYOP: {
+                    UnaryOp n = (UnaryOp) node;
+                    writeInt(n.op.ordinal());
+                    writeNode(n.operand);
+                    break;
+                }
+                case WHILE: {
+                    While n = (While) node;
+                    writeNode(n.test);
+                    writeNode(n.body);
+                    writeNode(n.orelse);
+                    break;
+                }
+                case WITH: {
+                    With n = (With) node;
+                    writeList(n.items);
+                    writeNode(n.body);
+                    writeBoolean(n.isAsync);
+                    break;
+                }
+                case WITHITEM: {
+                    Withitem n = (Withitem) node;
+                    writeNode(n.context_expr);
+                    writeNode(n.optional_vars);
+                    break;
+                }
+                case YIELD:
+                    writeNode(((Yield) node).value);
+                    break;
+                case YIELDFROM:
+                    writeNode(((YieldFrom) node).value);
+                    break;
+                default:
+                    throw new IOException("Node type can't be encoded: " + node.nodeType);
+            }
+        }
+    }
+
+
+    private static class Decoder {
+
+        ByteBuffer in;
+        String[] strings;
+        List<Node> read = new ArrayList<>();
+
+
+        Decoder(ByteBuffer in) {
+            this.in = in;
+        }
+
+
+        int readInt() {
+            int v = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = in.get();
+                v |= (b & 0x7f) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return (v >>> 1) ^ -(v & 1);
+        }
+
+
+        boolean readBoolean() {
+            return in.get() != 0;
+        }
+
+
+        double readDouble() {
+            return in.getDouble();
+        }
+
+
+        @Nullable
+        String readString() {
+            int index = readInt();
+            return index == 0 ? null : strings[index - 1];
+        }
+
+
+        void readStrings() {
+            strings = new String[readInt()];
+            for (int i = 0; i < strings.length; i++) {
+                byte[] bytes = new byte[readInt()];
+                in.get(bytes);
+                strings[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+        }
+
+
+        // a node of another type than the field holds fails here, as a corrupt entry
+        @Nullable
+        <T extends Node> List<T> readList(@NotNull Class<T> type) throws IOException {
+            int size = readInt() - 1;
+            if (size < 0) {
+                return null;
+            }
+            List<T> nodes = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                nodes.add(type.cast(readNode()));
+            }
+            return nodes;
+        }
+
+
+        @Nullable
+        Node readNode() throws IOException {
+            int tag = readInt();
+            if (tag == 0) {
+                return null;
+            }
+            if (tag == SHARED) {
+                return read.get(readInt());
+            }
+            if (tag > NODE_TYPES.length) {
+                throw new IOException("Unknown node tag: " + tag);
+            }
+
+            // reserve the preorder index before the children take theirs
+            int index = read.size();
+            read.add(null);
+            Node node = readFields(NODE_TYPES[tag - 1]);
+            read.set(index, node);
+            return node;
+        }
+
+
+        @NotNull
+        Node readFields(NodeType nodeType) throws IOException {
+            String file = readString();
+            int start = readInt();
+            int end = start + readInt();
+            int line = readInt();
+            int col = readInt();
+
+            switch (nodeType) {
+                case ALIAS: {
+                    List<Name> names = readList(Name.class);
+                    Name asname = (Name) readNode();
+                    return new Alias(names, asname, file, start, end, line, col);
+                }
+                case ASSERT: {
+                    Node test = readNode();
+                    Node msg = readNode();
+                    return new Assert(test, msg, file, start, end, line, col);
+                }
+                case ASSIGN: {
+                    Node target = readNode();
+                    Node value = readNode();
+                    return new Assign(target, value, file, start, end, line, col);
+                }
+                case ATTRIBUTE: {
+                    Node target = readNode();
+                    Name attr = (Name) readNode();
+                    return new Attribute(target, attr, file, start, end, line, col);
+                }
+                case AWAIT:
+                    return new Await(readNode(), file, start, end, line, col);
+                case BINOP: {
+                    Op op = OPS[readInt()];
+                    Node left = readNode();
+                    Node right = readNode();
+                    return new BinOp(op, left, right, file, start, end, line, col);
+                }
+                case BLOCK:
+                    return new Block(readList(Node.class), file, start, end, line, col);
+                case BREAK:
+                    return new Break(file, start, end, line, col);
+                case BYTES:
+                    return new Bytes(readString(), file, start, end, line, col);
+                case CALL: {
+                    Node func = readNode();
+                    List<Node> args = readList(Node.class);
+                    List<Keyword> keywords = readList(Keyword.class);
+                    Node kwargs = readNode();
+                    Node starargs = readNode();
+                    return new Call(func, args, keywords, kwargs, starargs, file, start, end, line, col);
+                }
+                case CLASSDEF: {
+                    Name name = (Name) readNode();
+                    List<Node> bases = readList(Node.class);
+                    Node body = readNode();
+                    return new ClassDef(name, bases, body, file, start, end, line, col);
+                }
+                case COMPREHENSION: {
+                    Node target = readNode();
+                    Node iter = readNode();
+                    List<Node> ifs = readList(Node.class);
+                    return new Comprehension(target, iter, ifs, file, start, end, line, col);
+                }
+                case CONTINUE:
+                    return new Continue(file, start, end, line, col);
+                case DELETE:
+                    return new Delete(readList(Node.class), file, start, end, line, col);
+                case DICT: {
+                    List<Node> keys = readList(Node.class);
+                    List<Node> values = readList(Node.class);
+                    return new Dict(keys, values, file, start, end, line, col);
+                }
+                case DICTCOMP: {
+                    Node key = readNode();
+                    Node value = readNode();
+                    List<Comprehension> generators = readList(Comprehension.class);
+                    return new DictComp(key, value, generators, file, start, end, line, col);
+                }
+                case DUMMY:
+                    return new Dummy(file, start, end, line, col);
+                case ELLIPSIS:
+                    return new Ellipsis(file, start, end, line, col);
+                case EXEC: {
+                    Node body = readNode();
+                    Node globals = readNode();
+                    Node locals = readNode();
+                    return new Exec(body, globals, locals, file, start, end, line, col);
+                }
+                case EXPR:
+                    return new Expr(readNode(), file, start, end, line, col);
+                case EXTSLICE:
+                    return new ExtSlice(readList(Node.class), file, start, end, line, col);
+                case FOR: {
+                    Node target = readNode();
+                    Node iter = readNode();
+                    Block body = (Block) readNode();
+                    Block orelse = (Block) readNode();
+                    boolean isAsync = readBoolean();
+                    return new For(target, iter, body, orelse, isAsync, file, start, end, line, col);
+                }
+                case FUNCTIONDEF: {
+                    // the generated name of a lambda is stored, so pass it in rather than generate another
+                    Name name = (Name) readNode();
+                    List<Node> args = readList(Node.class);
+                    Node body = readNode();
+                    List<Node> defaults = readList(Node.class);
+                    Name vararg = (Name) readNode();
+                    Name kwarg = (Name) readNode();
+                    List<Node> decorators = readList(Node.class);
+                    boolean isAsync = readBoolean();
+                    FunctionDef f = new FunctionDef(name, args, body, defaults, vararg, kwarg, decorators,
+                            file, isAsync, start, end, line, col);
+                    f.isLamba = readBoolean();
+                    return f;
+                }
+                case GENERATOREXP: {
+                    Node elt = readNode();
+                    List<Comprehension> generators = readList(Comprehension.class);
+                    return new GeneratorExp(elt, generators, file, start, end, line, col);
+                }
+                case GLOBAL:
+                    return new Global(readList(Name.class), file, start, end, line, col);
+                case HANDLER: {
+                    List<Node> exceptions = readList(Node.class);
+                    Node binder = readNode();
+                    Block body = (Block) readNode();
+                    return new Handler(exceptions, binder, body, file, start, end, line, col);
+                }
+                case IF: {
+                    Node test = readNode();
+                    Node body = readNode();
+                    Node orelse = readNode();
+                    return new If(test, body, orelse, file, start, end, line, col);
+                }
+                case IFEXP: {
+                    Node test = readNode();
+                    Node body = readNode();
+                    Node orelse = readNode();
+                    return new IfExp(test, body, orelse, file, start, end, line, col);
+                }
+                case IMPORT:
+                    return new Import(readList(Alias.class), file, start, end, line, col);
+                case IMPORTFROM: {
+                    List<Name> module = readList(Name.class);
+                    List<Alias> names = readList(Alias.class);
+                    int level = readInt();
+                    return new ImportFrom(module, names, level, file, start, end, line, col);
+                }
+                case INDEX:
+                    return new Index(readNode(), file, start, end, line, col);
+                case KEYWORD: {
+                    String arg = readString();
+                    Node value = readNode();
+                    return new Keyword(arg, value, file, start, end, line, col);
+                }
+                case LISTCOMP: {
+                    Node elt = readNode();
+                    List<Comprehension> generators = readList(Comprehension.class);
+                    return new ListComp(elt, generators, file, start, end, line, col);
+                }
+                case MODULE: {
+                    Module module = new Module((Block) readNode(), file, start, end, line, col);
+                    module.pythonVersion = readInt();
+                    int lines = readInt() - 1;
+                    if (lines >= 0) {
+                        module.lineStarts = new int[lines];
+                        int prev = 0;
+                        for (int i = 0; i < lines; i++) {
+                            prev += readInt();
+                            module.lineStarts[i] = prev;
+                        }
+                    }
+                    return module;
+                }
+                case NAME: {
+                    Name name = new Name(readString(), file, start, end, line, col);
+                    int type = readInt();
+                    name.type = type < 0 ? null : NAME_TYPES[type];
+                    return name;
+                }
+                case PASS:
+                    return new Pass(file, start, end, line, col);
+                case PRINT: {
+                    Node dest = readNode();
+                    List<Node> values = readList(Node.class);
+                    return new Print(dest, values, file, start, end, line, col);
+                }
+                case PYCOMPLEX: {
+                    double real = readDouble();
+                    double imag = readDouble();
+                    return new PyComplex(real, imag, file, start, end, line, col);
+                }
+                case PYFLOAT:
+                    return new PyFloat(Double.toString(readDouble()), file, start, end, line, col);
+                case PYINT:
+                    return new PyInt(readString(), file, start, end, line, col);
+                case PYLIST:
+                    return new PyList(readList(Node.class), file, start, end, line, col);
+                case PYSET:
+                    return new PySet(readList(Node.class), file, start, end, line, col);
+                case RAISE: {
+                    Node exceptionType = readNode();
+                    Node inst = readNode();
+                    Node traceback = readNode();
+                    return new Raise(exceptionType, inst, traceback, file, start, end, line, col);
+                }
+                case REPR:
+                    return new Repr(readNode(), file, start, end, line, col);
+                case RETURN:
+                    return new Return(readNode(), file, start, end, line, col);
+                case SETCOMP: {
+                    Node elt = readNode();
+                    List<Comprehension> generators = readList(Comprehension.class);
+                    return new SetComp(elt, generators, file, start, end, line, col);
+                }
+                case SLICE: {
+                    Node lower = readNode();
+                    Node step = readNode();
+                    Node upper = readNode();
+                    return new Slice(lower, step, upper, file, start, end, line, col);
+                }
+                case STARRED:
+                    return new Starred(readNode(), file, start, end, line, col);
+                case STR:
+                    return new Str(readString(), file, start, end, line, col);
+                case SUBSCRIPT: {
+                    Node value = readNode();
+                    Node slice = readNode();
+                    return new Subscript(value, slice, file, start, end, line, col);
+                }
+                case TRY: {
+                    List<Handler> handlers = readList(Handler.class);
+                    Block body = (Block) readNode();
+                    Block orelse = (Block) readNode();
+                    Block finalbody = (Block) readNode();
+                    return new Try(handlers, body, orelse, finalbody, file, start, end, line, col);
+                }
+                case TUPLE:
+                    return new Tuple(readList(Node.class), file, start, end, line, col);
+                case UNARYOP: {
+                    Op op = OPS[readInt()];
+                    Node operand = readNode();
+                    return new UnaryOp(op, operand, file, start, end, line, col);
+                }
+                case UNSUPPORTED:
+                    return new Unsupported(file, start, end, line, col);
+                case WHILE: {
+                    Node test = readNode();
+                    Node body = readNode();
+                    Node orelse = readNode();
+                    return new While(test, body, orelse, file, start, end, line, col);
+                }
+                case WITH: {
+                    List<Withitem> items = readList(Withitem.class);
+                    Block body = (Block) readNode();
+                    boolean isAsync = readBoolean();
+                    return new With(items, body, file, isAsync, start, end, line, col);
+                }
+                case WITHITEM: {
+                    Node contextExpr = readNode();
+                    Node optionalVars = readNode();
+                    return new Withitem(contextExpr, optionalVars, file, start, end, line, col);
+                }
+                case YIELD:
+                    return new Yield(readNode(), file, start, end, line, col);
+                case YIELDFROM:
+                    return new YieldFrom(readNode(), file, start, end, line, col);
+                default:
+                    throw new IOException("Node type can't be decoded: " + nodeType);
+            }
+        }
+    }
+}
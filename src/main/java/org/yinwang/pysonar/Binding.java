@@ -3,11 +3,11 @@ package org.yinwang.pysonar;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.yinwang.pysonar.ast.*;
+import org.yinwang.pysonar.hash.ProbingHashSet;
 import org.yinwang.pysonar.types.ModuleType;
 import org.yinwang.pysonar.types.Type;
 import org.yinwang.pysonar.types.UnionType;
 
-import java.util.LinkedHashSet;
 import java.util.Set;
 
 
@@ -39,7 +39,7 @@ public class Binding implements Comparable<Object> {
     public Type type;       // inferred type
     public Kind kind;        // name usage context
 
-    public Set<Node> refs = new LinkedHashSet<>(1);
+    public Set<Node> refs = new ProbingHashSet<>(1);
 
     // fields from Def
     public int start = -1;
@@ -55,7 +55,7 @@ public class Binding implements Comparable<Object> {
 
     public Binding(@NotNull String id, @NotNull Node node, @NotNull Type type, @NotNull Kind kind) {
         this.name = id;
-        this.qname = type.table.path;
+        this.qname = type.getPath();
         this.type = type;
         this.kind = kind;
         this.node = node;
@@ -75,7 +75,7 @@ public class Binding implements Comparable<Object> {
         }
 
         initLocationInfo(node);
-        Analyzer.self.registerBinding(this);
+        Analyzer.current().registerBinding(this);
     }
 
 
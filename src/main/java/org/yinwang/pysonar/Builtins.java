@@ -118,7 +118,7 @@ public class Builtins {
 
     @Nullable
     ModuleType newModule(String name) {
-        return new ModuleType(name, null, Analyzer.self.globaltable);
+        return new ModuleType(name, null, analyzer.globaltable);
     }
 
 
@@ -212,8 +212,8 @@ public class Builtins {
         protected void createModuleType() {
             if (module == null) {
                 module = newModule(name);
-                table = module.table;
-                Analyzer.self.moduleTable.insert(name, liburl(), module, MODULE);
+                table = module.getTable();
+                analyzer.moduleTable.insert(name, liburl(), module, MODULE);
             }
         }
 
@@ -238,19 +238,19 @@ public class Builtins {
 
         @Nullable
         protected void addMethod(ClassType cls, String name, Type type) {
-            cls.table.insert(name, liburl(cls.name + "." + name), newFunc(type), METHOD);
+            cls.getTable().insert(name, liburl(cls.name + "." + name), newFunc(type), METHOD);
         }
 
         @Nullable
         protected void addMethod(ClassType cls, String name) {
-            cls.table.insert(name, liburl(cls.name + "." + name), newFunc(), METHOD);
+            cls.getTable().insert(name, liburl(cls.name + "." + name), newFunc(), METHOD);
         }
 
 
         protected void addFunction(ModuleType module, String name, Type type) {
             Url url = this.module == module ? liburl(module.qname + "." + name) :
-                newLibUrl(module.table.path, module.table.path + "." + name);
-            module.table.insert(name, url, newFunc(type), FUNCTION);
+                newLibUrl(module.getPath(), module.getPath() + "." + name);
+            module.getTable().insert(name, url, newFunc(type), FUNCTION);
         }
 
 
@@ -305,7 +305,7 @@ public class Builtins {
 
 
         protected void addAttr(ClassType cls, String name, Type type) {
-            addAttr(cls.table, name, type);
+            addAttr(cls.getTable(), name, type);
         }
 
         // don't use this unless you're sure it's OK to share the type object
@@ -361,14 +361,19 @@ public class Builtins {
     private Map<String, NativeModule> modules = new HashMap<>();
 
 
-    public Builtins() {
+    @NotNull
+    private final Analyzer analyzer;
+
+
+    public Builtins(@NotNull Analyzer analyzer) {
+        this.analyzer = analyzer;
         buildTypes();
     }
 
 
     private void buildTypes() {
         new BuiltinsModule();
-        State bt = Builtin.table;
+        State bt = Builtin.getTable();
 
         objectType = newClass("object", bt);
         BaseType = newClass("type", bt, objectType);
@@ -467,7 +472,7 @@ public class Builtins {
             return null;
         }
         for (int i = 1; i < mods.length; i++) {
-            type = type.table.lookupType(mods[i]);
+            type = type.getTable().lookupType(mods[i]);
             if (!(type instanceof ModuleType)) {
                 return null;
             }
@@ -490,15 +495,15 @@ public class Builtins {
                 "__repr__", "__setattr__", "__sizeof__", "__str__", "__subclasshook__"
         };
         for (String m : obj_methods) {
-            objectType.table.insert(m, newLibUrl("stdtypes"), newFunc(), METHOD);
+            objectType.getTable().insert(m, newLibUrl("stdtypes"), newFunc(), METHOD);
         }
-        objectType.table.insert("__doc__", newLibUrl("stdtypes"), Types.StrInstance, CLASS);
-        objectType.table.insert("__class__", newLibUrl("stdtypes"), Types.UNKNOWN, CLASS);
+        objectType.getTable().insert("__doc__", newLibUrl("stdtypes"), Types.StrInstance, CLASS);
+        objectType.getTable().insert("__class__", newLibUrl("stdtypes"), Types.UNKNOWN, CLASS);
     }
 
 
     void buildTupleType() {
-        State bt = BaseTuple.table;
+        State bt = BaseTuple.getTable();
         String[] tuple_methods = {
                 "__add__", "__contains__", "__eq__", "__ge__", "__getnewargs__",
                 "__gt__", "__iter__", "__le__", "__len__", "__lt__", "__mul__",
@@ -520,36 +525,36 @@ public class Builtins {
                 "read", "remove", "reverse", "tofile", "tolist", "typecode", "write"
         };
         for (String m : array_methods_none) {
-            BaseArray.table.insert(m, newLibUrl("array"), newFunc(Types.NoneInstance), METHOD);
+            BaseArray.getTable().insert(m, newLibUrl("array"), newFunc(Types.NoneInstance), METHOD);
         }
         String[] array_methods_num = {"count", "itemsize",};
         for (String m : array_methods_num) {
-            BaseArray.table.insert(m, newLibUrl("array"), newFunc(Types.IntInstance), METHOD);
+            BaseArray.getTable().insert(m, newLibUrl("array"), newFunc(Types.IntInstance), METHOD);
         }
         String[] array_methods_str = {"tostring", "tounicode",};
         for (String m : array_methods_str) {
-            BaseArray.table.insert(m, newLibUrl("array"), newFunc(Types.StrInstance), METHOD);
+            BaseArray.getTable().insert(m, newLibUrl("array"), newFunc(Types.StrInstance), METHOD);
         }
     }
 
 
     void buildListType() {
-        BaseList.table.insert("__getslice__", newDataModelUrl("object.__getslice__"),
+        BaseList.getTable().insert("__getslice__", newDataModelUrl("object.__getslice__"),
                 newFunc(BaseListInst), METHOD);
-        BaseList.table.insert("__getitem__", newDataModelUrl("object.__getitem__"),
+        BaseList.getTable().insert("__getitem__", newDataModelUrl("object.__getitem__"),
                 newFunc(BaseList), METHOD);
-        BaseList.table.insert("__iter__", newDataModelUrl("object.__iter__"),
+        BaseList.getTable().insert("__iter__", newDataModelUrl("object.__iter__"),
                 newFunc(BaseList), METHOD);
 
         String[] list_methods_none = {
                 "append", "extend", "index", "insert", "pop", "remove", "reverse", "sort"
         };
         for (String m : list_methods_none) {
-            BaseList.table.insert(m, newLibUrl("stdtypes"), newFunc(Types.NoneInstance), METHOD);
+            BaseList.getTable().insert(m, newLibUrl("stdtypes"), newFunc(Types.NoneInstance), METHOD);
         }
         String[] list_methods_num = {"count"};
         for (String m : list_methods_num) {
-            BaseList.table.insert(m, newLibUrl("stdtypes"), newFunc(Types.IntInstance), METHOD);
+            BaseList.getTable().insert(m, newLibUrl("stdtypes"), newFunc(Types.IntInstance), METHOD);
         }
     }
 
@@ -561,7 +566,7 @@ public class Builtins {
 
 
     void buildNumTypes() {
-        State bft = Types.FloatInstance.table;
+        State bft = Types.FloatInstance.getTable();
         String[] float_methods_num = {
                 "__abs__", "__add__", "__coerce__", "__div__", "__divmod__",
                 "__eq__", "__float__", "__floordiv__", "__format__",
@@ -576,7 +581,7 @@ public class Builtins {
         for (String m : float_methods_num) {
             bft.insert(m, numUrl(), newFunc(Types.FloatInstance), METHOD);
         }
-        State bnt = Types.IntInstance.table;
+        State bnt = Types.IntInstance.getTable();
         String[] num_methods_num = {
                 "__abs__", "__add__", "__and__",
                 "__class__", "__cmp__", "__coerce__", "__delattr__", "__div__",
@@ -599,7 +604,7 @@ public class Builtins {
         bnt.insert("hex", numUrl(), newFunc(Types.StrInstance), METHOD);
         bnt.insert("conjugate", numUrl(), newFunc(Types.ComplexInstance), METHOD);
 
-        State bct = Types.ComplexInstance.table;
+        State bct = Types.ComplexInstance.getTable();
         String[] complex_methods = {
                 "__abs__", "__add__", "__div__", "__divmod__",
                 "__float__", "__floordiv__", "__format__", "__getformat__", "__int__",
@@ -625,11 +630,11 @@ public class Builtins {
 
 
     void buildStrType() {
-        Types.StrInstance.table.insert("__getslice__", newDataModelUrl("object.__getslice__"),
+        Types.StrInstance.getTable().insert("__getslice__", newDataModelUrl("object.__getslice__"),
                                        newFunc(Types.StrInstance), METHOD);
-        Types.StrInstance.table.insert("__getitem__", newDataModelUrl("object.__getitem__"),
+        Types.StrInstance.getTable().insert("__getitem__", newDataModelUrl("object.__getitem__"),
                                        newFunc(Types.StrInstance), METHOD);
-        Types.StrInstance.table.insert("__iter__", newDataModelUrl("object.__iter__"),
+        Types.StrInstance.getTable().insert("__iter__", newDataModelUrl("object.__iter__"),
                                        newFunc(Types.StrInstance), METHOD);
 
         String[] str_methods_str = {
@@ -639,7 +644,7 @@ public class Builtins {
                 "strip", "swapcase", "title", "translate", "upper", "zfill"
         };
         for (String m : str_methods_str) {
-            Types.StrInstance.table.insert(m, newLibUrl("stdtypes", "str." + m),
+            Types.StrInstance.getTable().insert(m, newLibUrl("stdtypes", "str." + m),
                                            newFunc(Types.StrInstance), METHOD);
         }
 
@@ -648,16 +653,16 @@ public class Builtins {
                 "istitle", "isupper", "find", "startswith", "endswith"
         };
         for (String m : str_methods_num) {
-            Types.StrInstance.table.insert(m, newLibUrl("stdtypes", "str." + m),
+            Types.StrInstance.getTable().insert(m, newLibUrl("stdtypes", "str." + m),
                                            newFunc(Types.IntInstance), METHOD);
         }
 
         String[] str_methods_list = {"split", "splitlines"};
         for (String m : str_methods_list) {
-            Types.StrInstance.table.insert(m, newLibUrl("stdtypes", "str." + m),
+            Types.StrInstance.getTable().insert(m, newLibUrl("stdtypes", "str." + m),
                                            newFunc(newList(Types.StrInstance)), METHOD);
         }
-        Types.StrInstance.table.insert("partition", newLibUrl("stdtypes", "str.partition"),
+        Types.StrInstance.getTable().insert("partition", newLibUrl("stdtypes", "str.partition"),
                                        newFunc(newTuple(Types.StrInstance)), METHOD);
     }
 
@@ -665,16 +670,16 @@ public class Builtins {
     void buildModuleType() {
         String[] attrs = {"__doc__", "__file__", "__name__", "__package__"};
         for (String m : attrs) {
-            BaseModule.table.insert(m, newTutUrl("modules.html"), Types.StrInstance, ATTRIBUTE);
+            BaseModule.getTable().insert(m, newTutUrl("modules.html"), Types.StrInstance, ATTRIBUTE);
         }
-        BaseModule.table.insert("__dict__", newLibUrl("stdtypes", "modules"),
+        BaseModule.getTable().insert("__dict__", newLibUrl("stdtypes", "modules"),
                                 newDict(Types.StrInstance, Types.UNKNOWN), ATTRIBUTE);
     }
 
 
     void buildDictType() {
         String url = "datastructures.html#dictionaries";
-        State bt = Types.BaseDict.table;
+        State bt = Types.BaseDict.getTable();
 
         bt.insert("__getitem__", newTutUrl(url), newFunc(), METHOD);
         bt.insert("__iter__", newTutUrl(url), newFunc(), METHOD);
@@ -702,7 +707,7 @@ public class Builtins {
 
 
     void buildFileType() {
-        State table = BaseFile.table;
+        State table = BaseFile.getTable();
 
         table.insert("__enter__", newLibUrl("stdtypes", "contextmanager.__enter__"), newFunc(), METHOD);
         table.insert("__exit__", newLibUrl("stdtypes", "contextmanager.__exit__"), newFunc(), METHOD);
@@ -743,7 +748,7 @@ public class Builtins {
 
 
     void buildFunctionType() {
-        State t = BaseFunction.table;
+        State t = BaseFunction.getTable();
 
         for (String s : list("func_doc", "__doc__", "func_name", "__name__", "__module__")) {
             t.insert(s, new Url(DATAMODEL_URL), Types.StrInstance, ATTRIBUTE);
@@ -766,7 +771,7 @@ public class Builtins {
     // XXX:  finish wiring this up.  ClassType needs to inherit from it somehow,
     // so we can remove the per-instance attributes from NClassDef.
     void buildClassType() {
-        State t = BaseClass.table;
+        State t = BaseClass.getTable();
 
         for (String s : list("__name__", "__doc__", "__module__")) {
             t.insert(s, new Url(DATAMODEL_URL), Types.StrInstance, ATTRIBUTE);
@@ -780,7 +785,7 @@ public class Builtins {
         public BuiltinsModule() {
             super("__builtin__");
             Builtin = module = newModule(name);
-            table = module.table;
+            table = module.getTable();
         }
 
 
@@ -792,8 +797,8 @@ public class Builtins {
 
         @Override
         public void initBindings() {
-            Analyzer.self.moduleTable.insert(name, liburl(), module, MODULE);
-            table.addSuper(BaseModule.table);
+            analyzer.moduleTable.insert(name, liburl(), module, MODULE);
+            table.addSuper(BaseModule.getTable());
 
             addClass("object", newLibUrl("functions", "object"), Types.ObjectClass);
             addFunction("type", newLibUrl("functions", "type"), Types.TypeClass);
@@ -855,7 +860,7 @@ public class Builtins {
 
             for (String f : builtin_exception_types) {
                 addClass(f, newLibUrl("exceptions", f),
-                        newClass(f, Analyzer.self.globaltable, objectType));
+                        newClass(f, analyzer.globaltable, objectType));
             }
             BaseException = (ClassType) table.lookupType("BaseException");
 
@@ -865,8 +870,8 @@ public class Builtins {
             addFunction("open", newTutUrl("inputoutput.html#reading-and-writing-files"), BaseFileInst);
             addFunction("__import__", newLibUrl("functions", "__import__"), newModule("<?>"));
 
-            Analyzer.self.globaltable.insert("__builtins__", liburl(), module, ATTRIBUTE);
-            Analyzer.self.globaltable.putAll(table);
+            analyzer.globaltable.insert("__builtins__", liburl(), module, ATTRIBUTE);
+            analyzer.globaltable.putAll(table);
         }
     }
 
@@ -1082,58 +1087,58 @@ public class Builtins {
         @Override
         public void initBindings() {
             ClassType callable = newClass("Callable", table, objectType);
-            callable.table.insert("__call__", abcUrl(), newFunc(), METHOD);
+            callable.getTable().insert("__call__", abcUrl(), newFunc(), METHOD);
             addClass(callable);
 
             ClassType iterableType = newClass("Iterable", table, objectType);
             // TODO should this jump to url like https://docs.python.org/2.7/library/stdtypes.html#iterator.__iter__ ?
-            iterableType.table.insert("__next__", abcUrl(), newFunc(), METHOD);
-            iterableType.table.insert("__iter__", abcUrl(), newFunc(), METHOD);
+            iterableType.getTable().insert("__next__", abcUrl(), newFunc(), METHOD);
+            iterableType.getTable().insert("__iter__", abcUrl(), newFunc(), METHOD);
             addClass(iterableType);
 
             ClassType Hashable = newClass("Hashable", table, objectType);
-            Hashable.table.insert("__hash__", abcUrl(), newFunc(Types.IntInstance), METHOD);
+            Hashable.getTable().insert("__hash__", abcUrl(), newFunc(Types.IntInstance), METHOD);
             addClass(Hashable);
 
             ClassType Sized = newClass("Sized", table, objectType);
-            Sized.table.insert("__len__", abcUrl(), newFunc(Types.IntInstance), METHOD);
+            Sized.getTable().insert("__len__", abcUrl(), newFunc(Types.IntInstance), METHOD);
             addClass(Sized);
 
             ClassType containerType = newClass("Container", table, objectType);
-            containerType.table.insert("__contains__", abcUrl(), newFunc(Types.IntInstance), METHOD);
+            containerType.getTable().insert("__contains__", abcUrl(), newFunc(Types.IntInstance), METHOD);
             addClass(containerType);
 
             ClassType iteratorType = newClass("Iterator", table, iterableType);
             addClass(iteratorType);
 
             ClassType sequenceType = newClass("Sequence", table, Sized, iterableType, containerType);
-            sequenceType.table.insert("__getitem__", abcUrl(), newFunc(), METHOD);
-            sequenceType.table.insert("reversed", abcUrl(), newFunc(sequenceType), METHOD);
-            sequenceType.table.insert("index", abcUrl(), newFunc(Types.IntInstance), METHOD);
-            sequenceType.table.insert("count", abcUrl(), newFunc(Types.IntInstance), METHOD);
+            sequenceType.getTable().insert("__getitem__", abcUrl(), newFunc(), METHOD);
+            sequenceType.getTable().insert("reversed", abcUrl(), newFunc(sequenceType), METHOD);
+            sequenceType.getTable().insert("index", abcUrl(), newFunc(Types.IntInstance), METHOD);
+            sequenceType.getTable().insert("count", abcUrl(), newFunc(Types.IntInstance), METHOD);
             addClass(sequenceType);
 
             ClassType mutableSequence = newClass("MutableSequence", table, sequenceType);
-            mutableSequence.table.insert("__setitem__", abcUrl(), newFunc(), METHOD);
-            mutableSequence.table.insert("__delitem__", abcUrl(), newFunc(), METHOD);
+            mutableSequence.getTable().insert("__setitem__", abcUrl(), newFunc(), METHOD);
+            mutableSequence.getTable().insert("__delitem__", abcUrl(), newFunc(), METHOD);
             addClass(mutableSequence);
 
             ClassType setType = newClass("Set", table, Sized, iterableType, containerType);
-            setType.table.insert("__getitem__", abcUrl(), newFunc(), METHOD);
+            setType.getTable().insert("__getitem__", abcUrl(), newFunc(), METHOD);
             addClass(setType);
 
             ClassType mutableSet = newClass("MutableSet", table, setType);
-            mutableSet.table.insert("add", abcUrl(), newFunc(), METHOD);
-            mutableSet.table.insert("discard", abcUrl(), newFunc(), METHOD);
+            mutableSet.getTable().insert("add", abcUrl(), newFunc(), METHOD);
+            mutableSet.getTable().insert("discard", abcUrl(), newFunc(), METHOD);
             addClass(mutableSet);
 
             ClassType mapping = newClass("Mapping", table, Sized, iterableType, containerType);
-            mapping.table.insert("__getitem__", abcUrl(), newFunc(), METHOD);
+            mapping.getTable().insert("__getitem__", abcUrl(), newFunc(), METHOD);
             addClass(mapping);
 
             ClassType mutableMapping = newClass("MutableMapping", table, mapping);
-            mutableMapping.table.insert("__setitem__", abcUrl(), newFunc(), METHOD);
-            mutableMapping.table.insert("__delitem__", abcUrl(), newFunc(), METHOD);
+            mutableMapping.getTable().insert("__setitem__", abcUrl(), newFunc(), METHOD);
+            mutableMapping.getTable().insert("__delitem__", abcUrl(), newFunc(), METHOD);
             addClass(mutableMapping);
 
             ClassType MappingView = newClass("MappingView", table, Sized);
@@ -1152,25 +1157,25 @@ public class Builtins {
             for (String n : list("append", "appendLeft", "clear",
                     "extend", "extendLeft", "rotate"))
             {
-                deque.table.insert(n, dequeUrl(), newFunc(Types.NoneInstance), METHOD);
+                deque.getTable().insert(n, dequeUrl(), newFunc(Types.NoneInstance), METHOD);
             }
             for (String u : list("__getitem__", "__iter__",
                     "pop", "popleft", "remove"))
             {
-                deque.table.insert(u, dequeUrl(), newFunc(), METHOD);
+                deque.getTable().insert(u, dequeUrl(), newFunc(), METHOD);
             }
             addClass(deque);
 
             ClassType defaultdict = newClass("defaultdict", table, objectType);
-            defaultdict.table.insert("__missing__", liburl("defaultdict-objects"),
+            defaultdict.getTable().insert("__missing__", liburl("defaultdict-objects"),
                     newFunc(), METHOD);
-            defaultdict.table.insert("default_factory", liburl("defaultdict-objects"),
+            defaultdict.getTable().insert("default_factory", liburl("defaultdict-objects"),
                     newFunc(), METHOD);
             addClass(defaultdict);
 
             String argh = "namedtuple-factory-function-for-tuples-with-named-fields";
             ClassType namedtuple = newClass("(namedtuple)", table, BaseTuple);
-            namedtuple.table.insert("_fields", liburl(argh),
+            namedtuple.getTable().insert("_fields", liburl(argh),
                                     new ListType(Types.StrInstance), ATTRIBUTE);
             addFunction("namedtuple", namedtuple);
         }
@@ -1915,7 +1920,7 @@ public class Builtins {
         }
         private void initOsPathModule() {
             ModuleType m = newModule("path");
-            State ospath = m.table;
+            State ospath = m.getTable();
             ospath.setPath("os.path");  // make sure global qnames are correct
 
             update("path", newLibUrl("os.path.html#module-os.path"), m, MODULE);
@@ -2049,7 +2054,7 @@ public class Builtins {
             for (String s : list("pw_nam", "pw_passwd", "pw_uid", "pw_gid",
                     "pw_gecos", "pw_dir", "pw_shell"))
             {
-                struct_pwd.table.insert(s, liburl(), Types.IntInstance, ATTRIBUTE);
+                struct_pwd.getTable().insert(s, liburl(), Types.IntInstance, ATTRIBUTE);
             }
             addAttr("struct_pwd", liburl(), struct_pwd);
 
@@ -2278,7 +2283,7 @@ public class Builtins {
 
         @Override
         public void initBindings() {
-            table.putAll(Types.StrInstance.table);
+            table.putAll(Types.StrInstance.getTable());
         }
     }
 
@@ -2300,7 +2305,7 @@ public class Builtins {
 
             BaseStruct = newClass("Struct", table, objectType);
             addClass(BaseStruct);
-            State t = BaseStruct.table;
+            State t = BaseStruct.getTable();
 
             addMethod(BaseStruct, "pack", Types.StrInstance);
             addMethod(BaseStruct, "pack_into");
@@ -2435,7 +2440,7 @@ public class Builtins {
                     "tm_mon", "tm_wday", "tm_yday", "tm_year",
             };
             for (String s : struct_time_attrs) {
-                addAttr(struct_time.table, s, Types.IntInstance);
+                addAttr(struct_time.getTable(), s, Types.IntInstance);
             }
 
             addNumAttrs("accept2dyear", "altzone", "daylight", "timezone");
@@ -0,0 +1,102 @@
+package org.yinwang.pysonar;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+
+/**
+ * Guesses whether a source file is Python 2 or Python 3, so that {@link Parser}
+ * can hand it to the matching interpreter first. The evidence, in order:
+ * a shebang naming a version, syntax only one of the versions accepts, the
+ * version that last parsed a file in the same directory and the version that
+ * parsed most files so far. Without any of these it's Python 2, which is what
+ * Parser always tried first.
+ * <p>
+ * A wrong guess costs the round trip to the other interpreter, same as before.
+ * One detector is shared by all workers of a {@link ParserPool}.
+ */
+public class DialectDetector {
+
+    public static final int PYTHON2 = 2;
+    public static final int PYTHON3 = 3;
+
+    private static final Pattern SHEBANG_PY3 = Pattern.compile("\\A#!.*python3");
+    private static final Pattern SHEBANG_PY2 = Pattern.compile("\\A#!.*python2");
+
+    // cheap lexical hints, strings and comments included; a false hit only costs a round trip
+    private static final Pattern PY3_SYNTAX = Pattern.compile(
+            "^\\s*(async\\s+def|nonlocal)\\s" +
+                    "|\\b([fF][rR]?|[rR][fF])['\"]" +
+                    "|\\bawait\\s" +
+                    "|\\byield\\s+from\\b" +
+                    "|\\)\\s*->" +
+                    "|\\bprint\\(.*\\b(end|sep|file)\\s*=",
+            Pattern.MULTILINE);
+    private static final Pattern PY2_SYNTAX = Pattern.compile(
+            "^\\s*print\\s+[^\\s(=.,)\\[]" +
+                    "|^\\s*exec\\s+[\\w\"']" +
+                    "|^\\s*except\\s+[\\w.]+\\s*,\\s*\\w+\\s*:" +
+                    "|^\\s*raise\\s+[\\w.]+\\s*,",
+            Pattern.MULTILINE);
+
+    @NotNull
+    private final Map<String, Integer> directories = new ConcurrentHashMap<>();
+    @NotNull
+    private final AtomicInteger python2Files = new AtomicInteger();
+    @NotNull
+    private final AtomicInteger python3Files = new AtomicInteger();
+
+
+    /**
+     * Returns {@link #PYTHON2} or {@link #PYTHON3}, whichever {@code filename}
+     * more likely is.
+     */
+    public int guess(@NotNull String filename, @Nullable String content) {
+        if (content != null) {
+            if (SHEBANG_PY3.matcher(content).find()) {
+                return PYTHON3;
+            }
+            if (SHEBANG_PY2.matcher(content).find()) {
+                return PYTHON2;
+            }
+
+            boolean py3 = PY3_SYNTAX.matcher(content).find();
+            boolean py2 = PY2_SYNTAX.matcher(content).find();
+            if (py3 != py2) {
+                return py3 ? PYTHON3 : PYTHON2;
+            }
+        }
+
+        Integer sameDirectory = directories.get(directoryOf(filename));
+        if (sameDirectory != null) {
+            return sameDirectory;
+        }
+        return python3Files.get() > python2Files.get() ? PYTHON3 : PYTHON2;
+    }
+
+
+    /**
+     * Records that {@code filename} parsed as {@code version}.
+     */
+    public void remember(@NotNull String filename, int version) {
+        directories.put(directoryOf(filename), version);
+        if (version == PYTHON3) {
+            python3Files.incrementAndGet();
+        } else {
+            python2Files.incrementAndGet();
+        }
+    }
+
+
+    @NotNull
+    private static String directoryOf(@NotNull String filename) {
+        String parent = new File(filename).getParent();
+        return parent == null ? "" : parent;
+    }
+}
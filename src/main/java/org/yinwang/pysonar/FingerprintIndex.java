@@ -0,0 +1,154 @@
+package org.yinwang.pysonar;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+
+/**
+ * Remembers the hash of each source file along with the size, modification
+ * time and inode the file had when it was hashed, so that a file is only read
+ * again after one of them changes.
+ */
+public class FingerprintIndex {
+
+    private static final Logger LOG = Logger.getLogger(FingerprintIndex.class.getCanonicalName());
+
+    // a file modified this recently may change again within the same mtime tick
+    private static final long RACY_MILLIS = 2000;
+
+
+    private static class Fingerprint {
+        final long size;
+        final long mtime;
+        @NotNull
+        final String inode;
+        @NotNull
+        final String hash;
+
+
+        Fingerprint(long size, long mtime, @NotNull String inode, @NotNull String hash) {
+            this.size = size;
+            this.mtime = mtime;
+            this.inode = inode;
+            this.hash = hash;
+        }
+
+
+        boolean matches(long size, long mtime, @NotNull String inode) {
+            return this.size == size && this.mtime == mtime && this.inode.equals(inode);
+        }
+    }
+
+
+    @NotNull
+    private final Map<String, Fingerprint> index = new ConcurrentHashMap<>();
+    private volatile boolean dirty = false;
+
+
+    /**
+     * Returns {@link $#getFileHash} of {@code path}, hashing the file only if
+     * it was not hashed before or looks different since.
+     */
+    @NotNull
+    public String getFileHash(@NotNull String path) {
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(Paths.get(path), BasicFileAttributes.class);
+        } catch (Exception e) {
+            return $.getFileHash(path);
+        }
+
+        return getFileHash(path, attrs.size(), attrs.lastModifiedTime().toMillis(), String.valueOf(attrs.fileKey()));
+    }
+
+
+    /**
+     * Like {@link #getFileHash(String)}, with the attributes of the file
+     * already known, such as from a {@link SourceManifest}.
+     */
+    @NotNull
+    public String getFileHash(@NotNull String path, long size, long mtime, @NotNull String inode) {
+        Fingerprint fp = index.get(path);
+        if (fp != null && fp.matches(size, mtime, inode)) {
+            return fp.hash;
+        }
+
+        String hash = $.getFileHash(path);
+        if (System.currentTimeMillis() - mtime > RACY_MILLIS) {
+            index.put(path, new Fingerprint(size, mtime, inode, hash));
+            dirty = true;
+        }
+        return hash;
+    }
+
+
+    /**
+     * Reads fingerprints saved by {@link #save}. A missing or damaged file
+     * leaves the index as it was.
+     */
+    public void load(@NotNull File file) {
+        if (!file.canRead()) {
+            return;
+        }
+        try (BufferedReader in = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)))
+        {
+            String line;
+            while ((line = in.readLine()) != null) {
+                // path goes last, so it may hold tabs
+                String[] fields = line.split("\t", 5);
+                if (fields.length == 5) {
+                    index.put(fields[4], new Fingerprint(Long.parseLong(fields[0]), Long.parseLong(fields[1]),
+                            fields[2], fields[3]));
+                }
+            }
+        } catch (Exception e) {
+            LOG.log(Level.FINE, "Failed to read fingerprints " + file + ": " + e);
+        }
+    }
+
+
+    /**
+     * Writes the index to {@code file} if it changed since it was loaded.
+     */
+    public void save(@NotNull File file) {
+        if (!dirty) {
+            return;
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        try (Writer out = new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8)))
+        {
+            for (Map.Entry<String, Fingerprint> e : index.entrySet()) {
+                Fingerprint fp = e.getValue();
+                out.write(fp.size + "\t" + fp.mtime + "\t" + fp.inode + "\t" + fp.hash + "\t" + e.getKey() + "\n");
+            }
+        } catch (IOException e) {
+            tmp.delete();
+            LOG.log(Level.FINE, "Failed to write fingerprints " + file + ": " + e);
+            return;
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+        } else {
+            dirty = false;
+        }
+    }
+}
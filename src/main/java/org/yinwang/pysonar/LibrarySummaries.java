@@ -0,0 +1,483 @@
+package org.yinwang.pysonar;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.yinwang.pysonar.ast.Dummy;
+import org.yinwang.pysonar.hash.ProbingHashSet;
+import org.yinwang.pysonar.types.ClassType;
+import org.yinwang.pysonar.types.DictType;
+import org.yinwang.pysonar.types.FunType;
+import org.yinwang.pysonar.types.InstanceType;
+import org.yinwang.pysonar.types.ListType;
+import org.yinwang.pysonar.types.ModuleType;
+import org.yinwang.pysonar.types.TupleType;
+import org.yinwang.pysonar.types.Type;
+import org.yinwang.pysonar.types.Types;
+import org.yinwang.pysonar.types.UnionType;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+
+/**
+ * What the analysis found out about library modules, the files outside the
+ * project, kept across runs so that a library is inferred once instead of on
+ * every run. A summary holds the bindings of a module's table and of the
+ * tables of the classes it defines, with their types reduced to what users of
+ * the module see: the arrows of functions, the bases and members of classes,
+ * containers of these, and the files and paths of types defined elsewhere.
+ * It is stored under the hash of its file, so an edited library is inferred
+ * again. Loading one gives a stub module whose functions answer calls with
+ * their saved return types, without parsing anything.
+ */
+public class LibrarySummaries {
+
+    private static final int VERSION = 1;
+    // types nested deeper are saved as unknown, which also ends cyclic ones
+    private static final int MAX_DEPTH = 6;
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static final Map<String, ClassType> primitives = new HashMap<>();
+
+    static {
+        for (ClassType c : new ClassType[]{Types.ObjectClass, Types.TypeClass, Types.BoolClass, Types.IntClass,
+                Types.LongClass, Types.StrClass, Types.FloatClass, Types.ComplexClass, Types.NoneClass})
+        {
+            primitives.put(c.name, c);
+        }
+    }
+
+    @NotNull
+    private final Analyzer analyzer;
+    @NotNull
+    private final String dir;
+    // the files whose summaries were loaded, which needn't be saved again
+    @NotNull
+    private final Set<String> stubs = new HashSet<>();
+
+
+    public LibrarySummaries(@NotNull Analyzer analyzer, @NotNull String dir) {
+        this.analyzer = analyzer;
+        this.dir = $.unifyPath(dir);
+        File f = new File(this.dir);
+        if (!f.exists() && !f.mkdirs()) {
+            $.die("Failed to create library summary directory: " + this.dir);
+        }
+    }
+
+
+    /**
+     * Whether {@code file} is library code, found on the load path outside
+     * the project directory.
+     */
+    public boolean isLibrary(@NotNull String file) {
+        return analyzer.projectDir != null && !file.startsWith(analyzer.projectDir + File.separator);
+    }
+
+
+    @NotNull
+    private File summaryFile(@NotNull String file) {
+        return new File(dir, analyzer.getFileHash(file) + ".json");
+    }
+
+
+    // ----------------------------------------------------------------
+    // saving
+    // ----------------------------------------------------------------
+
+    /**
+     * Saves the summary of every library module analyzed in full this run.
+     */
+    public void saveAll() {
+        int saved = 0;
+        for (String file : analyzer.loadedFiles) {
+            if (!stubs.contains(file) && isLibrary(file) && !analyzer.isDeclarationsOnly(file)) {
+                ModuleType mt = analyzer.getCachedModule(file);
+                if (mt != null && save(mt)) {
+                    saved++;
+                }
+            }
+        }
+        if (saved > 0) {
+            $.msg("Saved " + saved + " library summaries to " + dir);
+        }
+    }
+
+
+    private boolean save(@NotNull ModuleType mt) {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("version", VERSION);
+        summary.put("name", mt.name);
+        summary.put("qname", mt.qname);
+        summary.put("bindings", encodeTable(mt.getTable(), mt.file));
+
+        // write aside and rename, so a reader never sees a half-written summary
+        File target = summaryFile(mt.file);
+        File tmp = new File(target.getPath() + "." + Thread.currentThread().getId() + ".tmp");
+        try {
+            mapper.writeValue(tmp, summary);
+            if (!tmp.renameTo(target)) {
+                tmp.delete();
+                return false;
+            }
+            return true;
+        } catch (Exception e) {
+            tmp.delete();
+            $.msg("Failed to save library summary of " + mt.file + ": " + e);
+            return false;
+        }
+    }
+
+
+    @NotNull
+    private List<Object> encodeTable(@NotNull State table, @NotNull String file) {
+        List<Object> bindings = new ArrayList<>();
+        for (Map.Entry<String, Set<Binding>> e : table.entrySet()) {
+            for (Binding b : e.getValue()) {
+                Map<String, Object> json = new LinkedHashMap<>();
+                json.put("name", e.getKey());
+                json.put("kind", b.kind.name());
+                if (b.fileOrUrl != null && !b.fileOrUrl.equals(file)) {
+                    json.put("file", b.fileOrUrl);
+                }
+                json.put("start", b.start);
+                json.put("end", b.end);
+                json.put("line", b.line);
+                json.put("col", b.col);
+                json.put("type", encodeDefinition(b.type, table, file));
+                bindings.add(json);
+            }
+        }
+        return bindings;
+    }
+
+
+    // classes and functions defined in this table are saved whole, other types as they are seen
+    @NotNull
+    private Object encodeDefinition(@NotNull Type type, @NotNull State table, @NotNull String file) {
+        if (type instanceof ClassType && type.getTable().parent == table) {
+            ClassType c = (ClassType) type;
+            List<Object> bases = new ArrayList<>();
+            for (State sup : c.getTable().supers == null ? new ArrayList<State>() : c.getTable().supers) {
+                if (sup.type != null) {
+                    bases.add(encode(sup.type, 1));
+                }
+            }
+            Map<String, Object> json = node("class");
+            json.put("bases", bases);
+            json.put("members", encodeTable(c.getTable(), file));
+            json.put("instance", encodeTable(c.getInstance().getTable(), file));
+            return json;
+        } else if (type instanceof FunType && ((FunType) type).func != null && type.getTable().parent == table) {
+            return encodeArrows((FunType) type, 0);
+        } else {
+            return encode(type, 0);
+        }
+    }
+
+
+    @NotNull
+    private Object encode(@NotNull Type type, int depth) {
+        if (depth > MAX_DEPTH || type == Types.UNKNOWN || type == Types.CONT) {
+            return node("?");
+        } else if (type instanceof ModuleType) {
+            ModuleType mt = (ModuleType) type;
+            Map<String, Object> json = node("module");
+            if (mt.file != null) {
+                json.put("file", mt.file);
+            } else {
+                json.put("builtin", mt.qname);
+            }
+            return json;
+        } else if (type instanceof ClassType) {
+            if (primitives.get(((ClassType) type).name) == type) {
+                Map<String, Object> json = node("primitive");
+                json.put("name", ((ClassType) type).name);
+                return json;
+            }
+            return encodeRef(type);
+        } else if (type instanceof InstanceType) {
+            Type c = ((InstanceType) type).classType;
+            Map<String, Object> json = node("instance");
+            json.put("class", encode(c, depth + 1));
+            return json;
+        } else if (type instanceof FunType) {
+            FunType fun = (FunType) type;
+            return fun.func != null ? encodeRef(type) : encodeArrows(fun, depth);
+        } else if (type instanceof ListType) {
+            Map<String, Object> json = node("list");
+            json.put("elt", encode(((ListType) type).eltType, depth + 1));
+            return json;
+        } else if (type instanceof DictType) {
+            Map<String, Object> json = node("dict");
+            json.put("key", encode(((DictType) type).keyType, depth + 1));
+            json.put("value", encode(((DictType) type).valueType, depth + 1));
+            return json;
+        } else if (type instanceof TupleType) {
+            List<Object> elts = new ArrayList<>();
+            for (Type t : ((TupleType) type).eltTypes) {
+                elts.add(encode(t, depth + 1));
+            }
+            Map<String, Object> json = node("tuple");
+            json.put("elts", elts);
+            return json;
+        } else if (type instanceof UnionType) {
+            List<Object> types = new ArrayList<>();
+            for (Type t : ((UnionType) type).types) {
+                types.add(encode(t, depth + 1));
+            }
+            Map<String, Object> json = node("union");
+            json.put("types", types);
+            return json;
+        } else {
+            return node("?");
+        }
+    }
+
+
+    @NotNull
+    private Map<String, Object> encodeArrows(@NotNull FunType fun, int depth) {
+        List<Object> arrows = new ArrayList<>();
+        for (Map.Entry<Type, Type> e : fun.arrows.entrySet()) {
+            List<Object> arrow = new ArrayList<>(2);
+            arrow.add(encode(e.getKey(), depth + 1));
+            arrow.add(encode(e.getValue(), depth + 1));
+            arrows.add(arrow);
+        }
+        Map<String, Object> json = node("fun");
+        json.put("arrows", arrows);
+        return json;
+    }
+
+
+    // a class or function by the module that defines it and its path there
+    @NotNull
+    private Object encodeRef(@NotNull Type type) {
+        State s = type.getTable();
+        while (s != null && !(s.type instanceof ModuleType)) {
+            s = s.parent;
+        }
+        String path = type.getTable().path;
+        if (s == null || !path.startsWith(s.path + ".")) {
+            return node("?");
+        }
+
+        ModuleType mt = (ModuleType) s.type;
+        Map<String, Object> json = node("ref");
+        if (mt.file != null) {
+            json.put("file", mt.file);
+        } else {
+            json.put("builtin", mt.qname);
+        }
+        json.put("path", path.substring(s.path.length() + 1));
+        return json;
+    }
+
+
+    @NotNull
+    private static Map<String, Object> node(@NotNull String tag) {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("t", tag);
+        return json;
+    }
+
+
+    // ----------------------------------------------------------------
+    // loading
+    // ----------------------------------------------------------------
+
+    /**
+     * Builds the stub module of {@code file} from its summary and enters it
+     * in the module table, or returns null if there is no usable summary.
+     */
+    @Nullable
+    public ModuleType load(@NotNull String file) {
+        File f = summaryFile(file);
+        if (!f.canRead()) {
+            return null;
+        }
+
+        Map<?, ?> summary;
+        try {
+            summary = mapper.readValue(f, Map.class);
+        } catch (Exception e) {
+            $.msg("Failed to read library summary " + f + ": " + e);
+            return null;
+        }
+        // the qualified name depends on the load path as well as the file
+        if (!Integer.valueOf(VERSION).equals(summary.get("version")) ||
+                !Objects.equals($.moduleQname(file), summary.get("qname")))
+        {
+            return null;
+        }
+
+        ModuleType mt = new ModuleType((String) summary.get("name"), file, analyzer.globaltable);
+        analyzer.moduleTable.insert($.moduleQname(file), new Dummy(file, 0, 0, 0, 0), mt, Binding.Kind.MODULE);
+        stubs.add(file);
+
+        // classes and functions first, so that the types referring to them find them
+        List<Runnable> fill = new ArrayList<>();
+        declareTable(mt.getTable(), (List<?>) summary.get("bindings"), mt, fill);
+        for (Runnable r : fill) {
+            r.run();
+        }
+        return mt;
+    }
+
+
+    private void declareTable(@NotNull State table, @Nullable List<?> bindings, @NotNull ModuleType mt,
+                              @NotNull List<Runnable> fill)
+    {
+        if (bindings == null) {
+            return;
+        }
+        for (Object o : bindings) {
+            Map<?, ?> json = (Map<?, ?>) o;
+            String name = (String) json.get("name");
+            Map<?, ?> typeJson = (Map<?, ?>) json.get("type");
+            String tag = (String) typeJson.get("t");
+
+            Type type = Types.UNKNOWN;
+            if (tag.equals("class")) {
+                ClassType c = new ClassType(name, table);
+                declareTable(c.getTable(), (List<?>) typeJson.get("members"), mt, fill);
+                // a call makes a fresh instance, and its attributes can't come from __init__ without
+                // its body, so every instance finds them between itself and the class
+                declareTable(c.getInstanceAttrs(), (List<?>) typeJson.get("instance"), mt, fill);
+                fill.add(() -> {
+                    for (Object base : (List<?>) typeJson.get("bases")) {
+                        Type t = decode(base, mt);
+                        if (t instanceof ClassType) {
+                            c.addSuper(t);
+                        }
+                    }
+                });
+                type = c;
+            } else if (tag.equals("fun")) {
+                FunType fun = new FunType();
+                fun.getTable().setParent(table);
+                fun.getTable().setPath(table.extendPath(name));
+                fill.add(() -> addArrows(fun, typeJson, mt));
+                type = fun;
+            }
+
+            String file = json.get("file") != null ? (String) json.get("file") : mt.file;
+            Dummy node = new Dummy(file, (Integer) json.get("start"), (Integer) json.get("end"),
+                    (Integer) json.get("line"), (Integer) json.get("col"));
+            Binding b = new Binding(name, node, type, Binding.Kind.valueOf((String) json.get("kind")));
+            b.setQname(table.extendPath(name));
+            if (type == Types.UNKNOWN) {
+                fill.add(() -> {
+                    b.setType(decode(typeJson, mt));
+                    if (b.type instanceof ModuleType) {
+                        b.setQname(b.type.asModuleType().qname);
+                    }
+                });
+            }
+
+            Set<Binding> bs = table.lookupLocal(name);
+            if (bs == null) {
+                bs = new ProbingHashSet<>(1);
+                table.update(name, bs);
+            }
+            bs.add(b);
+        }
+    }
+
+
+    private void addArrows(@NotNull FunType fun, @NotNull Map<?, ?> json, @NotNull ModuleType mt) {
+        for (Object o : (List<?>) json.get("arrows")) {
+            List<?> arrow = (List<?>) o;
+            fun.addMapping(decode(arrow.get(0), mt), decode(arrow.get(1), mt));
+        }
+    }
+
+
+    @NotNull
+    private Type decode(@NotNull Object o, @NotNull ModuleType mt) {
+        Map<?, ?> json = (Map<?, ?>) o;
+        switch ((String) json.get("t")) {
+            case "primitive": {
+                ClassType c = primitives.get(json.get("name"));
+                return c != null ? c : Types.UNKNOWN;
+            }
+            case "instance": {
+                Type c = decode(json.get("class"), mt);
+                if (c instanceof ClassType) {
+                    return ((ClassType) c).getInstance();
+                }
+                return Types.UNKNOWN;
+            }
+            case "module":
+                return orUnknown(findModule(json, mt));
+            case "ref":
+                return orUnknown(lookupPath(findModule(json, mt), (String) json.get("path")));
+            case "fun": {
+                FunType fun = new FunType();
+                fun.inheritsBaseFunction = true;
+                addArrows(fun, json, mt);
+                return fun;
+            }
+            case "list":
+                return new ListType(decode(json.get("elt"), mt));
+            case "dict":
+                return new DictType(decode(json.get("key"), mt), decode(json.get("value"), mt));
+            case "tuple": {
+                List<Type> elts = new ArrayList<>();
+                for (Object elt : (List<?>) json.get("elts")) {
+                    elts.add(decode(elt, mt));
+                }
+                return new TupleType(elts);
+            }
+            case "union": {
+                List<Type> types = new ArrayList<>();
+                for (Object t : (List<?>) json.get("types")) {
+                    types.add(decode(t, mt));
+                }
+                return UnionType.newUnion(types);
+            }
+            default:
+                return Types.UNKNOWN;
+        }
+    }
+
+
+    // a module this one refers to, loaded from its own summary or analyzed
+    @Nullable
+    private Type findModule(@NotNull Map<?, ?> json, @NotNull ModuleType mt) {
+        String file = (String) json.get("file");
+        if (file == null) {
+            return analyzer.getBuiltinModule((String) json.get("builtin"));
+        } else if (file.equals(mt.file)) {
+            return mt;
+        } else {
+            return analyzer.loadFile(file);
+        }
+    }
+
+
+    @Nullable
+    private static Type lookupPath(@Nullable Type t, @NotNull String path) {
+        for (String attr : path.split("\\.")) {
+            if (t == null) {
+                return null;
+            }
+            t = t.getTable().lookupAttrType(attr);
+        }
+        return t;
+    }
+
+
+    @NotNull
+    private static Type orUnknown(@Nullable Type t) {
+        return t != null ? t : Types.UNKNOWN;
+    }
+}
@@ -0,0 +1,94 @@
+package org.yinwang.pysonar;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+
+/**
+ * The offsets at which the lines of a file start, for mapping character
+ * offsets to lines and columns by binary search. Lines are counted from 1
+ * and columns from 0, as Python does; a line ends after its '\n', so a CR
+ * before it stays on the line.
+ */
+public class LineIndex {
+
+    @NotNull
+    private final int[] starts;
+
+
+    /**
+     * Takes the offsets at which lines start, ascending, the first being 0.
+     */
+    public LineIndex(@NotNull int[] starts) {
+        this.starts = starts.length > 0 ? starts : new int[]{0};
+    }
+
+
+    public LineIndex(@NotNull String text) {
+        this(lineStarts(text));
+    }
+
+
+    @NotNull
+    private static int[] lineStarts(@NotNull String text) {
+        int[] found = new int[16];
+        int n = 0;
+        found[n++] = 0;
+        for (int i = text.indexOf('\n'); i >= 0; i = text.indexOf('\n', i + 1)) {
+            if (n == found.length) {
+                found = Arrays.copyOf(found, n * 2);
+            }
+            found[n++] = i + 1;
+        }
+        return Arrays.copyOf(found, n);
+    }
+
+
+    @NotNull
+    public int[] getStarts() {
+        return starts;
+    }
+
+
+    public int lineCount() {
+        return starts.length;
+    }
+
+
+    /**
+     * The line {@code offset} is on. Offsets before the text are on line 1,
+     * those past it on the last line.
+     */
+    public int lineOf(int offset) {
+        int lo = 0, hi = starts.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (starts[mid] <= offset) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo + 1;
+    }
+
+
+    public int colOf(int offset) {
+        return offset - lineStart(lineOf(offset));
+    }
+
+
+    public int lineStart(int line) {
+        return starts[Math.max(0, Math.min(line, starts.length) - 1)];
+    }
+
+
+    /**
+     * The offset of {@code col} on {@code line}, the inverse of lineOf and
+     * colOf. Lines past the end are taken as the last line.
+     */
+    public int offsetOf(int line, int col) {
+        return lineStart(line) + col;
+    }
+}
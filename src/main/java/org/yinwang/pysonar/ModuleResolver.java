@@ -0,0 +1,110 @@
+package org.yinwang.pysonar;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Answers the file system questions of import resolution from memory. Each
+ * directory is listed once, and whether a name exists in it is looked up in
+ * that listing instead of asking the file system. Which load path entry holds
+ * a top-level module is remembered for each load path. {@link Analyzer#update}
+ * invalidates what changed files may have made stale.
+ * <p>
+ * Safe to use from several threads.
+ */
+public class ModuleResolver {
+
+    private static final Set<String> NOT_A_DIRECTORY = Collections.unmodifiableSet(new HashSet<>());
+    private static final String NOT_FOUND = "\0";      // no path looks like this
+
+    @NotNull
+    private final Map<String, Set<String>> listings = new ConcurrentHashMap<>();
+    // load path -> top-level module name -> the entry holding it, or NOT_FOUND
+    @NotNull
+    private final Map<List<String>, Map<String, String>> located = new ConcurrentHashMap<>();
+
+
+    @NotNull
+    private Set<String> listing(@NotNull String dir) {
+        Set<String> names = listings.get(dir);
+        if (names == null) {
+            String[] found = new File(dir).list();
+            names = found == null ? NOT_A_DIRECTORY : new HashSet<>(Arrays.asList(found));
+            listings.put(dir, names);
+        }
+        return names;
+    }
+
+
+    /**
+     * Whether {@code dir} holds a file or directory called {@code name}.
+     */
+    public boolean exists(@NotNull String dir, @NotNull String name) {
+        return listing(dir).contains(name);
+    }
+
+
+    public boolean isDirectory(@NotNull String dir) {
+        return listing(dir) != NOT_A_DIRECTORY;
+    }
+
+
+    /**
+     * Finds the entry of {@code loadPath} that holds the package or module
+     * {@code headName}, the first one with either headName/__init__.py or
+     * headName.py. Returns null if there is none.
+     */
+    @Nullable
+    public String locate(@NotNull List<String> loadPath, @NotNull String headName) {
+        Map<String, String> byName = located.get(loadPath);
+        if (byName == null) {
+            byName = new ConcurrentHashMap<>();
+            Map<String, String> raced = located.putIfAbsent(loadPath, byName);
+            if (raced != null) {
+                byName = raced;
+            }
+        }
+
+        String root = byName.get(headName);
+        if (root == null) {
+            root = NOT_FOUND;
+            for (String p : loadPath) {
+                // only list headName if p has it, most entries don't
+                if ((exists(p, headName) && exists(new File(p, headName).getPath(), "__init__.py")) ||
+                        exists(p, headName + Globals.FILE_SUFFIX))
+                {
+                    root = p;
+                    break;
+                }
+            }
+            byName.put(headName, root);
+        }
+        return root.equals(NOT_FOUND) ? null : root;
+    }
+
+
+    /**
+     * Forgets the listings of the directories that {@code files}, having been
+     * added or removed, may have changed, which are all their ancestors, and
+     * every module location.
+     */
+    public void invalidate(@NotNull Collection<String> files) {
+        for (String file : files) {
+            for (File dir = new File(file).getParentFile(); dir != null; dir = dir.getParentFile()) {
+                listings.remove(dir.getPath());
+            }
+        }
+        located.clear();
+    }
+}
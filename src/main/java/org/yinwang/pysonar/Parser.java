@@ -5,40 +5,76 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.yinwang.pysonar.ast.*;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
-import java.io.OutputStreamWriter;
+import java.io.IOException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 
 
-public class Parser {
+/**
+ * The default {@link ParserBackend}: hands each file to dump_python.py running
+ * in Python 2, then in Python 3 if that fails, and converts the JSON it sends
+ * back.
+ */
+public class Parser implements ParserBackend {
 
     private static final String PYTHON2_EXE = "python";
     private static final String PYTHON3_EXE = "python3";
     private static final int TIMEOUT = 30000;
+    private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "pysonar-parser-timeout");
+        t.setDaemon(true);
+        return t;
+    });
 
     Process python2Process;
     Process python3Process;
     private static Gson gson = new GsonBuilder().setPrettyPrinting().create();
-    private static final String dumpPythonResource = "org/yinwang/pysonar/python/dump_python.py";
-    private String exchangeFile;
-    private String endMark;
+    private static JsonFactory jsonFactory = new JsonFactory().enable(JsonParser.Feature.ALLOW_NON_NUMERIC_NUMBERS);
+    static final String dumpPythonResource = "org/yinwang/pysonar/python/dump_python.py";
     private String jsonizer;
     private String parserLog;
     private String file;
     private String content;
+    private LineIndex lines;        // of the text the interpreter parsed
+    private int nodeCount;
+    @NotNull
+    private DialectDetector dialects;
+    @NotNull
+    private Analyzer analyzer;      // where parse failures are reported
+
+    public Parser(@NotNull Analyzer analyzer)
+    {
+        this(0, new DialectDetector(), analyzer);
+    }
+
 
-    public Parser()
+    // each worker of a ParserPool gets its own copy of the script and log,
+    // and they all share what they learn about which interpreter to try first
+    public Parser(int id, @NotNull DialectDetector dialects, @NotNull Analyzer analyzer)
     {
-        exchangeFile = $.getTempFile("json");
-        endMark = $.getTempFile("end");
-        jsonizer = $.getTempFile("dump_python");
-        parserLog = $.getTempFile("parser_log");
+        this.dialects = dialects;
+        this.analyzer = analyzer;
+        jsonizer = $.getTempFile("dump_python-" + id);
+        parserLog = $.getTempFile("parser_log-" + id);
 
         startPythonProcesses();
     }
@@ -85,6 +121,14 @@ public class Parser {
     }
 
 
+    @NotNull
+    @Override
+    public String getName() {
+        return "python";
+    }
+
+
+    @Override
     public void close() {
         if (python2Process != null)
         {
@@ -96,593 +140,651 @@ public class Parser {
             python3Process.destroy();
         }
 
-        if (!Analyzer.self.hasOption("debug")) {
-            new File(exchangeFile).delete();
-            new File(endMark).delete();
+        if (!analyzer.hasOption("debug")) {
             new File(jsonizer).delete();
             new File(parserLog).delete();
         }
     }
 
 
+    /**
+     * Builds the AST directly from the interpreter's JSON output with a pull parser.
+     * Every JSON object is turned into a node as soon as it is closed, so apart from
+     * the finished nodes only the fields of the objects on the current path are held.
+     * <p>
+     * The interpreter only sends offsets. The AST is preceded by an array of the
+     * offsets at which lines start, in the text as the interpreter decoded it, and
+     * the lines and columns of nodes are looked up in that.
+     */
     @Nullable
-    public Node convert(Object o) {
-        if (!(o instanceof Map)) {
-            return null;
+    public Node convert(@NotNull JsonParser json) throws IOException {
+        nodeCount = 0;
+        json.nextToken();
+        if (json.getCurrentToken() == JsonToken.START_ARRAY) {
+            lines = new LineIndex(readOffsets(json));
+            json.nextToken();
+        } else {
+            lines = new LineIndex(content == null ? "" : content);
         }
-
-        Map<String, Object> map = (Map<String, Object>) o;
-
-        String type = (String) map.get("type");
-        Double startDouble = (Double) map.get("start");
-        Double endDouble = (Double) map.get("end");
-        Double lineDouble = (Double) map.get("lineno");
-        Double colDouble = (Double) map.get("col_offset");
-
-        int start = startDouble == null ? 0 : startDouble.intValue();
-        int end = endDouble == null ? 1 : endDouble.intValue();
-        int line = lineDouble == null ? 1 : lineDouble.intValue();
-        int col = colDouble == null ? 1 : colDouble.intValue() + 1;
-
-
-        if (type.equals("Module")) {
-            Block b = convertBlock(map.get("body"));
-            return new Module(b, file, start, end, line, col);
+        Node root = node(readValue(json));
+        if (root instanceof Module) {
+            ((Module) root).nodeCount = nodeCount;
+            ((Module) root).lineStarts = lines.getStarts();
         }
+        return root;
+    }
 
-        if (type.equals("alias")) {         // lower case alias
-            String qname = (String) map.get("name");
-            List<Name> names = segmentQname(qname, start + "import ".length(), false);
-            Name asname = map.get("asname") == null ? null : new Name((String) map.get("asname"));
-            return new Alias(names, asname, file, start, end, line, col);
-        }
 
-        if (type.equals("Assert")) {
-            Node test = convert(map.get("test"));
-            Node msg = convert(map.get("msg"));
-            return new Assert(test, msg, file, start, end, line, col);
+    @NotNull
+    private static int[] readOffsets(@NotNull JsonParser json) throws IOException {
+        int[] offsets = new int[16];
+        int n = 0;
+        while (json.nextToken() == JsonToken.VALUE_NUMBER_INT) {
+            if (n == offsets.length) {
+                offsets = Arrays.copyOf(offsets, n * 2);
+            }
+            offsets[n++] = json.getIntValue();
         }
+        return Arrays.copyOf(offsets, n);
+    }
 
-        // assign could be x=y=z=1
-        // turn it into one or more Assign nodes
-        // z = 1; y = z; x = z
-        if (type.equals("Assign")) {
-            List<Node> targets = convertList(map.get("targets"));
-            Node value = convert(map.get("value"));
-            if (targets.size() == 1) {
-                return new Assign(targets.get(0), value, file, start, end, line, col);
-            } else {
-                List<Node> assignments = new ArrayList<>();
-                Node lastTarget = targets.get(targets.size() - 1);
-                assignments.add(new Assign(lastTarget, value, file, start, end, line, col));
 
-                for (int i = targets.size() - 2; i >= 0; i--) {
-                    Node nextAssign = new Assign(targets.get(i), lastTarget, file, start, end, line, col);
-                    assignments.add(nextAssign);
+    @Nullable
+    private Object readValue(@NotNull JsonParser json) throws IOException {
+        switch (json.getCurrentToken()) {
+            case START_OBJECT:
+                Map<String, Object> fields = new HashMap<>();
+                while (json.nextToken() == JsonToken.FIELD_NAME) {
+                    String key = json.getCurrentName();
+                    json.nextToken();
+                    fields.put(key, readValue(json));
                 }
-
-                return new Block(assignments, file, start, end, line, col);
-            }
-        }
-
-        if (type.equals("Attribute")) {
-            Node value = convert(map.get("value"));
-            Name attr = (Name) convert(map.get("attr_name"));
-            if (attr == null) {
-                attr = new Name((String) map.get("attr"));
-            }
-            return new Attribute(value, attr, file, start, end, line, col);
+                Object built = build(fields);
+                if (built instanceof Node) {
+                    nodeCount++;
+                }
+                return built;
+            case START_ARRAY:
+                List<Object> elements = new ArrayList<>();
+                while (json.nextToken() != JsonToken.END_ARRAY) {
+                    elements.add(readValue(json));
+                }
+                return elements;
+            case VALUE_STRING:
+                return json.getText();
+            case VALUE_NUMBER_INT:
+                return json.getNumberValue();
+            case VALUE_NUMBER_FLOAT:
+                return json.getDoubleValue();
+            case VALUE_TRUE:
+                return true;
+            case VALUE_FALSE:
+                return false;
+            default:
+                return null;
         }
+    }
 
-        if (type.equals("AugAssign")) {
-            Node target = convert(map.get("target"));
-            Node value = convert(map.get("value"));
-            Op op = convertOp(map.get("op"));
-            Node operation = new BinOp(op, target, value, file, target.start, value.end, value.line, value.col);
-            return new Assign(target, operation, file, start, end, line, col);
-        }
 
-        if (type.equals("BinOp")) {
-            Node left = convert(map.get("left"));
-            Node right = convert(map.get("right"));
-            Op op = convertOp(map.get("op"));
+    /**
+     * Turns the fields of one JSON object, whose children have already been built,
+     * into a node or an operator. Objects that are neither (arguments, withitem,
+     * expression contexts and node types we don't know) are returned as they are,
+     * and only reported if a node is actually expected in their place.
+     */
+    @NotNull
+    private Object build(@NotNull Map<String, Object> map) {
+        Object typeObj = map.get("type");
+        if (!(typeObj instanceof String)) {
+            return map;
+        }
+        String type = (String) typeObj;
+
+        int start = intValue(map.get("start"), 0);
+        int end = intValue(map.get("end"), 1);
+        int line = lines.lineOf(start);
+        int col = start - lines.lineStart(line) + 1;
+
+        switch (type) {
+            case "Module": {
+                Block b = block(map.get("body"));
+                return new Module(b, file, start, end, line, col);
+            }
 
-            // desugar complex operators
-            if (op == Op.NotEqual) {
-                Node eq = new BinOp(Op.Equal, left, right, file, start, end, line, col);
-                return new UnaryOp(Op.Not, eq, file, start, end, line, col);
+            case "alias": {         // lower case alias
+                String qname = (String) map.get("name");
+                List<Name> names = segmentQname(qname, start + "import ".length(), false);
+                Name asname = map.get("asname") == null ? null : new Name((String) map.get("asname"));
+                return new Alias(names, asname, file, start, end, line, col);
             }
 
-            if (op == Op.LtE) {
-                Node lt = new BinOp(Op.Lt, left, right, file, start, end, line, col);
-                Node eq = new BinOp(Op.Eq, left, right, file, start, end, line, col);
-                return new BinOp(Op.Or, lt, eq, file, start, end, line, col);
+            case "Assert": {
+                Node test = node(map.get("test"));
+                Node msg = node(map.get("msg"));
+                return new Assert(test, msg, file, start, end, line, col);
             }
 
-            if (op == Op.GtE) {
-                Node gt = new BinOp(Op.Gt, left, right, file, start, end, line, col);
-                Node eq = new BinOp(Op.Eq, left, right, file, start, end, line, col);
-                return new BinOp(Op.Or, gt, eq, file, start, end, line, col);
+            // assign could be x=y=z=1
+            // turn it into one or more Assign nodes
+            // z = 1; y = z; x = z
+            case "Assign": {
+                List<Node> targets = nodes(map.get("targets"));
+                Node value = node(map.get("value"));
+                if (targets.size() == 1) {
+                    return new Assign(targets.get(0), value, file, start, end, line, col);
+                } else {
+                    List<Node> assignments = new ArrayList<>();
+                    Node lastTarget = targets.get(targets.size() - 1);
+                    assignments.add(new Assign(lastTarget, value, file, start, end, line, col));
+
+                    for (int i = targets.size() - 2; i >= 0; i--) {
+                        Node nextAssign = new Assign(targets.get(i), lastTarget, file, start, end, line, col);
+                        assignments.add(nextAssign);
+                    }
+
+                    return new Block(assignments, file, start, end, line, col);
+                }
             }
 
-            if (op == Op.NotIn) {
-                Node in = new BinOp(Op.In, left, right, file, start, end, line, col);
-                return new UnaryOp(Op.Not, in, file, start, end, line, col);
+            case "Attribute": {
+                Node value = node(map.get("value"));
+                Name attr = (Name) node(map.get("attr_name"));
+                if (attr == null) {
+                    attr = new Name((String) map.get("attr"));
+                }
+                return new Attribute(value, attr, file, start, end, line, col);
             }
 
-            if (op == Op.NotEq) {
-                Node in = new BinOp(Op.Eq, left, right, file, start, end, line, col);
-                return new UnaryOp(Op.Not, in, file, start, end, line, col);
+            case "AugAssign": {
+                Node target = node(map.get("target"));
+                Node value = node(map.get("value"));
+                Op op = op(map.get("op"));
+                Node operation = new BinOp(op, target, value, file, target.start, value.end, value.line, value.col);
+                return new Assign(target, operation, file, start, end, line, col);
             }
 
-            return new BinOp(op, left, right, file, start, end, line, col);
+            case "BinOp": {
+                Node left = node(map.get("left"));
+                Node right = node(map.get("right"));
+                Op op = op(map.get("op"));
 
-        }
+                // desugar complex operators
+                if (op == Op.NotEqual) {
+                    Node eq = new BinOp(Op.Equal, left, right, file, start, end, line, col);
+                    return new UnaryOp(Op.Not, eq, file, start, end, line, col);
+                }
 
-        if (type.equals("BoolOp")) {
-            List<Node> values = convertList(map.get("values"));
-            if (values == null || values.size() < 2) {
-                $.die("impossible number of arguments, please fix the Python parser");
-            }
-            Op op = convertOp(map.get("op"));
-            BinOp ret = new BinOp(op, values.get(0), values.get(1), file, start, end, line, col);
-            for (int i = 2; i < values.size(); i++) {
-                ret = new BinOp(op, ret, values.get(i), file, start, end, line, col);
-            }
-            return ret;
-        }
+                if (op == Op.LtE) {
+                    Node lt = new BinOp(Op.Lt, left, right, file, start, end, line, col);
+                    Node eq = new BinOp(Op.Eq, left, right, file, start, end, line, col);
+                    return new BinOp(Op.Or, lt, eq, file, start, end, line, col);
+                }
 
-        if (type.equals("Bytes")) {
-            Object s = map.get("s");
-            return new Bytes(s, file, start, end, line, col);
-        }
+                if (op == Op.GtE) {
+                    Node gt = new BinOp(Op.Gt, left, right, file, start, end, line, col);
+                    Node eq = new BinOp(Op.Eq, left, right, file, start, end, line, col);
+                    return new BinOp(Op.Or, gt, eq, file, start, end, line, col);
+                }
 
-        if (type.equals("Call")) {
-            Node func = convert(map.get("func"));
-            List<Node> args = convertList(map.get("args"));
-            List<Keyword> keywords = convertList(map.get("keywords"));
-            Node kwargs = convert(map.get("kwarg"));
-            Node starargs = convert(map.get("starargs"));
-            return new Call(func, args, keywords, kwargs, starargs, file, start, end, line, col);
-        }
+                if (op == Op.NotIn) {
+                    Node in = new BinOp(Op.In, left, right, file, start, end, line, col);
+                    return new UnaryOp(Op.Not, in, file, start, end, line, col);
+                }
 
-        if (type.equals("ClassDef")) {
-            Name name = (Name) convert(map.get("name_node"));      // hack
-            List<Node> bases = convertList(map.get("bases"));
-            Block body = convertBlock(map.get("body"));
-            return new ClassDef(name, bases, body, file, start, end, line, col);
-        }
+                if (op == Op.NotEq) {
+                    Node in = new BinOp(Op.Eq, left, right, file, start, end, line, col);
+                    return new UnaryOp(Op.Not, in, file, start, end, line, col);
+                }
 
-        // left-fold Compare into
-        if (type.equals("Compare")) {
-            Node left = convert(map.get("left"));
-            List<Op> ops = convertListOp(map.get("ops"));
-            List<Node> comparators = convertList(map.get("comparators"));
-            Node result = new BinOp(ops.get(0), left, comparators.get(0), file, start, end, line, col);
-            for (int i = 1; i < comparators.size(); i++) {
-                Node compNext = new BinOp(ops.get(i), comparators.get(i - 1), comparators.get(i), file, start, end, line, col);
-                result = new BinOp(Op.And, result, compNext, file, start, end, line, col);
-            }
-            return result;
-        }
+                return new BinOp(op, left, right, file, start, end, line, col);
+            }
 
-        if (type.equals("comprehension")) {
-            Node target = convert(map.get("target"));
-            Node iter = convert(map.get("iter"));
-            List<Node> ifs = convertList(map.get("ifs"));
-            return new Comprehension(target, iter, ifs, file, start, end, line, col);
-        }
+            case "BoolOp": {
+                List<Node> values = nodes(map.get("values"));
+                if (values == null || values.size() < 2) {
+                    $.die("impossible number of arguments, please fix the Python parser");
+                }
+                Op op = op(map.get("op"));
+                BinOp ret = new BinOp(op, values.get(0), values.get(1), file, start, end, line, col);
+                for (int i = 2; i < values.size(); i++) {
+                    ret = new BinOp(op, ret, values.get(i), file, start, end, line, col);
+                }
+                return ret;
+            }
 
-        if (type.equals("Break")) {
-            return new Break(file, start, end, line, col);
-        }
+            case "Bytes": {
+                Object s = map.get("s");
+                return new Bytes(s, file, start, end, line, col);
+            }
 
-        if (type.equals("Continue")) {
-            return new Continue(file, start, end, line, col);
-        }
+            case "Call": {
+                Node func = node(map.get("func"));
+                List<Node> args = nodes(map.get("args"));
+                List<Keyword> keywords = nodes(map.get("keywords"));
+                Node kwargs = node(map.get("kwarg"));
+                Node starargs = node(map.get("starargs"));
+                return new Call(func, args, keywords, kwargs, starargs, file, start, end, line, col);
+            }
 
-        if (type.equals("Delete")) {
-            List<Node> targets = convertList(map.get("targets"));
-            return new Delete(targets, file, start, end, line, col);
-        }
+            case "ClassDef": {
+                Name name = (Name) node(map.get("name_node"));      // hack
+                List<Node> bases = nodes(map.get("bases"));
+                Block body = block(map.get("body"));
+                return new ClassDef(name, bases, body, file, start, end, line, col);
+            }
 
-        if (type.equals("Dict")) {
-            List<Node> keys = convertList(map.get("keys"));
-            List<Node> values = convertList(map.get("values"));
-            return new Dict(keys, values, file, start, end, line, col);
-        }
+            // left-fold Compare into
+            case "Compare": {
+                Node left = node(map.get("left"));
+                List<Op> ops = ops(map.get("ops"));
+                List<Node> comparators = nodes(map.get("comparators"));
+                Node result = new BinOp(ops.get(0), left, comparators.get(0), file, start, end, line, col);
+                for (int i = 1; i < comparators.size(); i++) {
+                    Node compNext = new BinOp(ops.get(i), comparators.get(i - 1), comparators.get(i), file, start, end, line, col);
+                    result = new BinOp(Op.And, result, compNext, file, start, end, line, col);
+                }
+                return result;
+            }
 
-        if (type.equals("DictComp")) {
-            Node key = convert(map.get("key"));
-            Node value = convert(map.get("value"));
-            List<Comprehension> generators = convertList(map.get("generators"));
-            return new DictComp(key, value, generators, file, start, end, line, col);
-        }
+            case "comprehension": {
+                Node target = node(map.get("target"));
+                Node iter = node(map.get("iter"));
+                List<Node> ifs = nodes(map.get("ifs"));
+                return new Comprehension(target, iter, ifs, file, start, end, line, col);
+            }
 
-        if (type.equals("Ellipsis")) {
-            return new Ellipsis(file, start, end, line, col);
-        }
+            case "Break":
+                return new Break(file, start, end, line, col);
 
-        if (type.equals("ExceptHandler")) {
-            Node exception = convert(map.get("type"));
-            List<Node> exceptions;
+            case "Continue":
+                return new Continue(file, start, end, line, col);
 
-            if (exception != null) {
-                exceptions = new ArrayList<>();
-                exceptions.add(exception);
-            } else {
-                exceptions = null;
+            case "Delete": {
+                List<Node> targets = nodes(map.get("targets"));
+                return new Delete(targets, file, start, end, line, col);
             }
 
-            Node binder = convert(map.get("name"));
-            Block body = convertBlock(map.get("body"));
-            return new Handler(exceptions, binder, body, file, start, end, line, col);
-        }
+            case "Dict": {
+                List<Node> keys = nodes(map.get("keys"));
+                List<Node> values = nodes(map.get("values"));
+                return new Dict(keys, values, file, start, end, line, col);
+            }
 
-        if (type.equals("Exec")) {
-            Node body = convert(map.get("body"));
-            Node globals = convert(map.get("globals"));
-            Node locals = convert(map.get("locals"));
-            return new Exec(body, globals, locals, file, start, end, line, col);
-        }
+            case "DictComp": {
+                Node key = node(map.get("key"));
+                Node value = node(map.get("value"));
+                List<Comprehension> generators = nodes(map.get("generators"));
+                return new DictComp(key, value, generators, file, start, end, line, col);
+            }
 
-        if (type.equals("Expr")) {
-            Node value = convert(map.get("value"));
-            return new Expr(value, file, start, end, line, col);
-        }
+            case "Ellipsis":
+                return new Ellipsis(file, start, end, line, col);
 
-        if (type.equals("For") || type.equals("AsyncFor")) {
-            Node target = convert(map.get("target"));
-            Node iter = convert(map.get("iter"));
-            Block body = convertBlock(map.get("body"));
-            Block orelse = convertBlock(map.get("orelse"));
-            return new For(target, iter, body, orelse, type.equals("AsyncFor"), file, start, end, line, col);
-        }
+            case "ExceptHandler": {
+                Node exception = node(map.get("type"));
+                List<Node> exceptions;
 
-        if (type.equals("FunctionDef") || type.equals("Lambda") || type.equals("AsyncFunctionDef")) {
-            Name name = type.equals("Lambda") ? null : (Name) convert(map.get("name_node"));
-            Map<String, Object> argsMap = (Map<String, Object>) map.get("args");
-            List<Node> args = convertList(argsMap.get("args"));
-            List<Node> defaults = convertList(argsMap.get("defaults"));
-            Node body = type.equals("Lambda") ? convert(map.get("body")) : convertBlock(map.get("body"));
+                if (exception != null) {
+                    exceptions = new ArrayList<>();
+                    exceptions.add(exception);
+                } else {
+                    exceptions = null;
+                }
 
-            // handle vararg depending on different python versions
-            Name vararg = null;
-            Object varargObj = argsMap.get("vararg");
-            if (varargObj instanceof String) {
-                vararg = new Name((String) argsMap.get("vararg"));
-            } else if (varargObj instanceof Map) {
-                String argName = (String) ((Map) varargObj).get("arg");
-                vararg = new Name(argName);
+                Node binder = node(map.get("name"));
+                Block body = block(map.get("body"));
+                return new Handler(exceptions, binder, body, file, start, end, line, col);
             }
 
-            // handle kwarg depending on different python versions
-            Name kwarg = null;
-            Object kwargObj = argsMap.get("kwarg");
-            if (kwargObj instanceof String) {
-                kwarg = new Name((String) argsMap.get("kwarg"));
-            } else if (kwargObj instanceof Map) {
-                String argName = (String) ((Map) kwargObj).get("arg");
-                kwarg = new Name(argName);
+            case "Exec": {
+                Node body = node(map.get("body"));
+                Node globals = node(map.get("globals"));
+                Node locals = node(map.get("locals"));
+                return new Exec(body, globals, locals, file, start, end, line, col);
             }
 
-            boolean isAsync = type.equals("AsyncFunctionDef");
-
-            List<Node> decors = new ArrayList<>();
-            if (map.containsKey("decorator_list")) {
-                decors = convertList(map.get("decorator_list"));
+            case "Expr": {
+                Node value = node(map.get("value"));
+                return new Expr(value, file, start, end, line, col);
             }
 
-            return new FunctionDef(name, args, body, defaults, vararg, kwarg, decors, file, isAsync, start, end, line, col);
-        }
-
-        if (type.equals("GeneratorExp")) {
-            Node elt = convert(map.get("elt"));
-            List<Comprehension> generators = convertList(map.get("generators"));
-            return new GeneratorExp(elt, generators, file, start, end, line, col);
-        }
-
-        if (type.equals("Global")) {
-            List<String> names = (List<String>) map.get("names");
-            List<Name> nameNodes = new ArrayList<>();
-            for (String name : names) {
-                nameNodes.add(new Name(name));
+            case "For":
+            case "AsyncFor": {
+                Node target = node(map.get("target"));
+                Node iter = node(map.get("iter"));
+                Block body = block(map.get("body"));
+                Block orelse = block(map.get("orelse"));
+                return new For(target, iter, body, orelse, type.equals("AsyncFor"), file, start, end, line, col);
             }
-            return new Global(nameNodes, file, start, end, line, col);
-        }
 
-        if (type.equals("Nonlocal")) {
-            List<String> names = (List<String>) map.get("names");
-            List<Name> nameNodes = new ArrayList<>();
-            for (String name : names) {
-                nameNodes.add(new Name(name));
-            }
-            return new Global(nameNodes, file, start, end, line, col);
-        }
+            case "FunctionDef":
+            case "Lambda":
+            case "AsyncFunctionDef": {
+                Name name = type.equals("Lambda") ? null : (Name) node(map.get("name_node"));
+                Map<String, Object> argsMap = (Map<String, Object>) map.get("args");
+                List<Node> args = nodes(argsMap.get("args"));
+                List<Node> defaults = nodes(argsMap.get("defaults"));
+                Node body = type.equals("Lambda") ? node(map.get("body")) : block(map.get("body"));
+
+                // handle vararg depending on different python versions
+                Name vararg = null;
+                Object varargObj = argsMap.get("vararg");
+                if (varargObj instanceof String) {
+                    vararg = new Name((String) varargObj);
+                } else if (varargObj instanceof Name) {
+                    vararg = new Name(((Name) varargObj).id);
+                }
 
-        if (type.equals("If")) {
-            Node test = convert(map.get("test"));
-            Block body = convertBlock(map.get("body"));
-            Block orelse = convertBlock(map.get("orelse"));
-            return new If(test, body, orelse, file, start, end, line, col);
-        }
+                // handle kwarg depending on different python versions
+                Name kwarg = null;
+                Object kwargObj = argsMap.get("kwarg");
+                if (kwargObj instanceof String) {
+                    kwarg = new Name((String) kwargObj);
+                } else if (kwargObj instanceof Name) {
+                    kwarg = new Name(((Name) kwargObj).id);
+                }
 
-        if (type.equals("IfExp")) {
-            Node test = convert(map.get("test"));
-            Node body = convert(map.get("body"));
-            Node orelse = convert(map.get("orelse"));
-            return new IfExp(test, body, orelse, file, start, end, line, col);
-        }
+                boolean isAsync = type.equals("AsyncFunctionDef");
 
+                List<Node> decors = new ArrayList<>();
+                if (map.containsKey("decorator_list")) {
+                    decors = nodes(map.get("decorator_list"));
+                }
 
-        if (type.equals("Import")) {
-            List<Alias> aliases = convertList(map.get("names"));
-            locateNames(aliases, start);
-            return new Import(aliases, file, start, end, line, col);
-        }
+                return new FunctionDef(name, args, body, defaults, vararg, kwarg, decors, file, isAsync, start, end, line, col);
+            }
 
-        if (type.equals("ImportFrom")) {
-            String module = (String) map.get("module");
-            int level = ((Double) map.get("level")).intValue();
-            List<Name> moduleSeg = module == null ? null : segmentQname(module, start + "from ".length() + level, true);
-            List<Alias> names = convertList(map.get("names"));
-            locateNames(names, start);
-            return new ImportFrom(moduleSeg, names, level, file, start, end, line, col);
-        }
+            case "GeneratorExp": {
+                Node elt = node(map.get("elt"));
+                List<Comprehension> generators = nodes(map.get("generators"));
+                return new GeneratorExp(elt, generators, file, start, end, line, col);
+            }
 
-        if (type.equals("Index")) {
-            Node value = convert(map.get("value"));
-            return new Index(value, file, start, end, line, col);
-        }
+            case "Global":
+            case "Nonlocal": {
+                List<String> names = (List<String>) map.get("names");
+                List<Name> nameNodes = new ArrayList<>();
+                for (String name : names) {
+                    nameNodes.add(new Name(name));
+                }
+                return new Global(nameNodes, file, start, end, line, col);
+            }
 
-        if (type.equals("keyword")) {
-            String arg = (String) map.get("arg");
-            Node value = convert(map.get("value"));
-            return new Keyword(arg, value, file, start, end, line, col);
-        }
+            case "If": {
+                Node test = node(map.get("test"));
+                Block body = block(map.get("body"));
+                Block orelse = block(map.get("orelse"));
+                return new If(test, body, orelse, file, start, end, line, col);
+            }
 
-        if (type.equals("List")) {
-            List<Node> elts = convertList(map.get("elts"));
-            return new PyList(elts, file, start, end, line, col);
-        }
+            case "IfExp": {
+                Node test = node(map.get("test"));
+                Node body = node(map.get("body"));
+                Node orelse = node(map.get("orelse"));
+                return new IfExp(test, body, orelse, file, start, end, line, col);
+            }
 
-        if (type.equals("Starred")) { // f(*[1, 2, 3, 4])
-            Node value = convert(map.get("value"));
-            return new Starred(value, file, start, end, line, col);
-        }
+            case "Import": {
+                List<Alias> aliases = nodes(map.get("names"));
+                locateNames(aliases, start);
+                return new Import(aliases, file, start, end, line, col);
+            }
 
-        if (type.equals("ListComp")) {
-            Node elt = convert(map.get("elt"));
-            List<Comprehension> generators = convertList(map.get("generators"));
-            return new ListComp(elt, generators, file, start, end, line, col);
-        }
+            case "ImportFrom": {
+                String module = (String) map.get("module");
+                int level = intValue(map.get("level"), 0);
+                List<Name> moduleSeg = module == null ? null : segmentQname(module, start + "from ".length() + level, true);
+                List<Alias> names = nodes(map.get("names"));
+                locateNames(names, start);
+                return new ImportFrom(moduleSeg, names, level, file, start, end, line, col);
+            }
 
-        if (type.equals("Name")) {
-            String id = (String) map.get("id");
-            return new Name(id, file, start, end, line, col);
-        }
+            case "Index": {
+                Node value = node(map.get("value"));
+                return new Index(value, file, start, end, line, col);
+            }
 
-        if (type.equals("NameConstant")) {
-            String strVal;
-            Object value = map.get("value");
-            if (value == null) {
-                strVal = "None";
-            } else if (value instanceof Boolean) {
-                strVal = ((Boolean) value) ? "true" : "false";
-            } else if (value instanceof String) {
-                strVal = (String) value;
-            } else {
-                $.msg("[WARNING] NameConstant contains unrecognized value: " + value + ", please report issue");
-                strVal = "";
+            case "keyword": {
+                String arg = (String) map.get("arg");
+                Node value = node(map.get("value"));
+                return new Keyword(arg, value, file, start, end, line, col);
             }
-            return new Name(strVal, file, start, end, line, col);
-        }
 
-        // another name for Name in Python3 func parameters?
-        if (type.equals("arg")) {
-            String id = (String) map.get("arg");
-            return new Name(id, file, start, end, line, col);
-        }
+            case "List": {
+                List<Node> elts = nodes(map.get("elts"));
+                return new PyList(elts, file, start, end, line, col);
+            }
 
-        if (type.equals("Num")) {
+            case "Starred": { // f(*[1, 2, 3, 4])
+                Node value = node(map.get("value"));
+                return new Starred(value, file, start, end, line, col);
+            }
 
-            String num_type = (String) map.get("num_type");
-            if (num_type.equals("int")) {
-                return new PyInt((String) map.get("n"), file, start, end, line, col);
-            } else if (num_type.equals("float")) {
-                return new PyFloat((String) map.get("n"), file, start, end, line, col);
-            } else {
-                Object real = map.get("real");
-                Object imag = map.get("imag");
-
-                if (real instanceof String) {
-                    if (real.equals("Infinity")) {
-                        real = Double.POSITIVE_INFINITY;
-                    } else if (real.equals("-Infinity")) {
-                        real = Double.NEGATIVE_INFINITY;
-                    }
-                }
-                if (imag instanceof String) {
-                    if (imag.equals("Infinity")) {
-                        imag = Double.POSITIVE_INFINITY;
-                    } else if (real.equals("-Infinity")) {
-                        imag = Double.NEGATIVE_INFINITY;
-                    }
-                }
-                return new PyComplex((double) real, (double) imag, file, start, end, line, col);
+            case "ListComp": {
+                Node elt = node(map.get("elt"));
+                List<Comprehension> generators = nodes(map.get("generators"));
+                return new ListComp(elt, generators, file, start, end, line, col);
             }
-        }
 
-        if (type.equals("SetComp")) {
-            Node elt = convert(map.get("elt"));
-            List<Comprehension> generators = convertList(map.get("generators"));
-            return new SetComp(elt, generators, file, start, end, line, col);
-        }
+            case "Name": {
+                String id = (String) map.get("id");
+                return new Name(id, file, start, end, line, col);
+            }
 
-        if (type.equals("Pass")) {
-            return new Pass(file, start, end, line, col);
-        }
+            case "NameConstant": {
+                String strVal;
+                Object value = map.get("value");
+                if (value == null) {
+                    strVal = "None";
+                } else if (value instanceof Boolean) {
+                    strVal = ((Boolean) value) ? "true" : "false";
+                } else if (value instanceof String) {
+                    strVal = (String) value;
+                } else {
+                    $.msg("[WARNING] NameConstant contains unrecognized value: " + value + ", please report issue");
+                    strVal = "";
+                }
+                return new Name(strVal, file, start, end, line, col);
+            }
 
-        if (type.equals("Print")) {
-            List<Node> values = convertList(map.get("values"));
-            Node destination = convert(map.get("destination"));
-            return new Print(destination, values, file, start, end, line, col);
-        }
+            // another name for Name in Python3 func parameters?
+            case "arg": {
+                String id = (String) map.get("arg");
+                return new Name(id, file, start, end, line, col);
+            }
 
-        if (type.equals("Raise")) {
-            Node exceptionType = convert(map.get("type"));
-            Node inst = convert(map.get("inst"));
-            Node tback = convert(map.get("tback"));
-            return new Raise(exceptionType, inst, tback, file, start, end, line, col);
-        }
+            case "Num": {
+                String num_type = (String) map.get("num_type");
+                if (num_type.equals("int")) {
+                    return new PyInt((String) map.get("n"), file, start, end, line, col);
+                } else if (num_type.equals("float")) {
+                    return new PyFloat((String) map.get("n"), file, start, end, line, col);
+                } else {
+                    // Infinity and NaN arrive as non-numeric JSON numbers
+                    double real = doubleValue(map.get("real"));
+                    double imag = doubleValue(map.get("imag"));
+                    return new PyComplex(real, imag, file, start, end, line, col);
+                }
+            }
 
-        if (type.equals("Repr")) {
-            Node value = convert(map.get("value"));
-            return new Repr(value, file, start, end, line, col);
-        }
+            case "SetComp": {
+                Node elt = node(map.get("elt"));
+                List<Comprehension> generators = nodes(map.get("generators"));
+                return new SetComp(elt, generators, file, start, end, line, col);
+            }
 
-        if (type.equals("Return")) {
-            Node value = convert(map.get("value"));
-            return new Return(value, file, start, end, line, col);
-        }
+            case "Pass":
+                return new Pass(file, start, end, line, col);
 
-        if (type.equals("Await")) {
-            Node value = convert(map.get("value"));
-            return new Return(value, file, start, end, line, col);
-        }
+            case "Print": {
+                List<Node> values = nodes(map.get("values"));
+                Node destination = node(map.get("destination"));
+                return new Print(destination, values, file, start, end, line, col);
+            }
 
-        if (type.equals("Set")) {
-            List<Node> elts = convertList(map.get("elts"));
-            return new PySet(elts, file, start, end, line, col);
-        }
+            case "Raise": {
+                Node exceptionType = node(map.get("type"));
+                Node inst = node(map.get("inst"));
+                Node tback = node(map.get("tback"));
+                return new Raise(exceptionType, inst, tback, file, start, end, line, col);
+            }
 
-        if (type.equals("SetComp")) {
-            Node elt = convert(map.get("elt"));
-            List<Comprehension> generators = convertList(map.get("generators"));
-            return new SetComp(elt, generators, file, start, end, line, col);
-        }
+            case "Repr": {
+                Node value = node(map.get("value"));
+                return new Repr(value, file, start, end, line, col);
+            }
 
-        if (type.equals("Slice")) {
-            Node lower = convert(map.get("lower"));
-            Node step = convert(map.get("step"));
-            Node upper = convert(map.get("upper"));
-            return new Slice(lower, step, upper, file, start, end, line, col);
-        }
+            case "Return":
+            case "Await": {
+                Node value = node(map.get("value"));
+                return new Return(value, file, start, end, line, col);
+            }
 
-        if (type.equals("ExtSlice")) {
-            List<Node> dims = convertList(map.get("dims"));
-            return new ExtSlice(dims, file, start, end, line, col);
-        }
+            case "Set": {
+                List<Node> elts = nodes(map.get("elts"));
+                return new PySet(elts, file, start, end, line, col);
+            }
 
-        if (type.equals("Str")) {
-            String s = (String) map.get("s");
-            if (s.length() >= 6 && s.startsWith("\"\"\"") && s.endsWith("\"\"\""))
-            {
-                s = s.substring(3, s.length() - 3);
+            case "Slice": {
+                Node lower = node(map.get("lower"));
+                Node step = node(map.get("step"));
+                Node upper = node(map.get("upper"));
+                return new Slice(lower, step, upper, file, start, end, line, col);
             }
-            else if (s.length() >= 2 && s.startsWith("\"") && s.endsWith("\""))
-            {
-                s = s.substring(1, s.length() - 1);
+
+            case "ExtSlice": {
+                List<Node> dims = nodes(map.get("dims"));
+                return new ExtSlice(dims, file, start, end, line, col);
             }
-            return new Str(s, file, start, end, line, col);
-        }
 
-        if (type.equals("Subscript")) {
-            Node value = convert(map.get("value"));
-            Node slice = convert(map.get("slice"));
-            return new Subscript(value, slice, file, start, end, line, col);
-        }
+            case "Str": {
+                String s = (String) map.get("s");
+                if (s.length() >= 6 && s.startsWith("\"\"\"") && s.endsWith("\"\"\""))
+                {
+                    s = s.substring(3, s.length() - 3);
+                }
+                else if (s.length() >= 2 && s.startsWith("\"") && s.endsWith("\""))
+                {
+                    s = s.substring(1, s.length() - 1);
+                }
+                return new Str(s, file, start, end, line, col);
+            }
 
-        if (type.equals("Try")) {
-            Block body = convertBlock(map.get("body"));
-            Block orelse = convertBlock(map.get("orelse"));
-            List<Handler> handlers = convertList(map.get("handlers"));
-            Block finalbody = convertBlock(map.get("finalbody"));
-            return new Try(handlers, body, orelse, finalbody, file, start, end, line, col);
-        }
+            case "Subscript": {
+                Node value = node(map.get("value"));
+                Node slice = node(map.get("slice"));
+                return new Subscript(value, slice, file, start, end, line, col);
+            }
 
-        if (type.equals("TryExcept")) {
-            Block body = convertBlock(map.get("body"));
-            Block orelse = convertBlock(map.get("orelse"));
-            List<Handler> handlers = convertList(map.get("handlers"));
-            return new Try(handlers, body, orelse, null, file, start, end, line, col);
-        }
+            case "Try": {
+                Block body = block(map.get("body"));
+                Block orelse = block(map.get("orelse"));
+                List<Handler> handlers = nodes(map.get("handlers"));
+                Block finalbody = block(map.get("finalbody"));
+                return new Try(handlers, body, orelse, finalbody, file, start, end, line, col);
+            }
 
-        if (type.equals("TryFinally")) {
-            Block body = convertBlock(map.get("body"));
-            Block finalbody = convertBlock(map.get("finalbody"));
-            return new Try(null, body, null, finalbody, file, start, end, line, col);
-        }
+            case "TryExcept": {
+                Block body = block(map.get("body"));
+                Block orelse = block(map.get("orelse"));
+                List<Handler> handlers = nodes(map.get("handlers"));
+                return new Try(handlers, body, orelse, null, file, start, end, line, col);
+            }
 
-        if (type.equals("Tuple")) {
-            List<Node> elts = convertList(map.get("elts"));
-            return new Tuple(elts, file, start, end, line, col);
-        }
+            case "TryFinally": {
+                Block body = block(map.get("body"));
+                Block finalbody = block(map.get("finalbody"));
+                return new Try(null, body, null, finalbody, file, start, end, line, col);
+            }
 
-        if (type.equals("UnaryOp")) {
-            Op op = convertOp(map.get("op"));
-            Node operand = convert(map.get("operand"));
-            return new UnaryOp(op, operand, file, start, end, line, col);
-        }
+            case "Tuple": {
+                List<Node> elts = nodes(map.get("elts"));
+                return new Tuple(elts, file, start, end, line, col);
+            }
 
-        if (type.equals("While")) {
-            Node test = convert(map.get("test"));
-            Block body = convertBlock(map.get("body"));
-            Block orelse = convertBlock(map.get("orelse"));
-            return new While(test, body, orelse, file, start, end, line, col);
-        }
+            case "UnaryOp": {
+                Op op = op(map.get("op"));
+                Node operand = node(map.get("operand"));
+                return new UnaryOp(op, operand, file, start, end, line, col);
+            }
 
-        if (type.equals("With") || type.equals("AsyncWith")) {
-            List<Withitem> items = new ArrayList<>();
+            case "While": {
+                Node test = node(map.get("test"));
+                Block body = block(map.get("body"));
+                Block orelse = block(map.get("orelse"));
+                return new While(test, body, orelse, file, start, end, line, col);
+            }
 
-            Node context_expr = convert(map.get("context_expr"));
-            Node optional_vars = convert(map.get("optional_vars"));
-            Block body = convertBlock(map.get("body"));
+            case "With":
+            case "AsyncWith": {
+                List<Withitem> items = new ArrayList<>();
 
-            // Python 3 puts context_expr and optional_vars inside "items"
-            if (context_expr != null) {
-                Withitem item = new Withitem(context_expr, optional_vars, file, -1, -1, -1, -1);
-                items.add(item);
-            } else {
-                List<Map<String, Object>> itemsMap = (List<Map<String, Object>>) map.get("items");
+                Node context_expr = node(map.get("context_expr"));
+                Node optional_vars = node(map.get("optional_vars"));
+                Block body = block(map.get("body"));
 
-                for (Map<String, Object> m : itemsMap) {
-                    context_expr = convert(m.get("context_expr"));
-                    optional_vars = convert(m.get("optional_vars"));
+                // Python 3 puts context_expr and optional_vars inside "items"
+                if (context_expr != null) {
                     Withitem item = new Withitem(context_expr, optional_vars, file, -1, -1, -1, -1);
                     items.add(item);
+                } else {
+                    List<Map<String, Object>> itemsMap = (List<Map<String, Object>>) map.get("items");
+
+                    for (Map<String, Object> m : itemsMap) {
+                        context_expr = node(m.get("context_expr"));
+                        optional_vars = node(m.get("optional_vars"));
+                        Withitem item = new Withitem(context_expr, optional_vars, file, -1, -1, -1, -1);
+                        items.add(item);
+                    }
                 }
+
+                boolean isAsync = type.equals("AsyncWith");
+                return new With(items, body, file, isAsync, start, end, line, col);
             }
 
-            boolean isAsync = type.equals("AsyncWith");
-            return new With(items, body, file, isAsync, start, end, line, col);
-        }
+            case "Yield":
+            case "YieldFrom": {
+                Node value = node(map.get("value"));
+                return new Yield(value, file, start, end, line, col);
+            }
 
-        if (type.equals("Yield")) {
-            Node value = convert(map.get("value"));
-            return new Yield(value, file, start, end, line, col);
+            default: {
+                Op op = OPERATORS.get(type);
+                return op != null ? op : map;
+            }
         }
+    }
 
-        if (type.equals("YieldFrom")) {
-            Node value = convert(map.get("value"));
-            return new Yield(value, file, start, end, line, col);
-        }
 
-        $.msg("\n[Please Report]: unexpected ast node: " + map.get("type"));
-        return new Unsupported(file, start, end, line, col);
+    // a child where a node is expected; unknown objects become Unsupported
+    @Nullable
+    private Node node(@Nullable Object o) {
+        if (o instanceof Node) {
+            return (Node) o;
+        } else if (o instanceof Map) {
+            Map<String, Object> map = (Map<String, Object>) o;
+            int start = intValue(map.get("start"), 0);
+            int end = intValue(map.get("end"), 1);
+            int line = lines.lineOf(start);
+            int col = start - lines.lineStart(line) + 1;
+            $.msg("\n[Please Report]: unexpected ast node: " + map.get("type"));
+            return new Unsupported(file, start, end, line, col);
+        } else {
+            return null;
+        }
     }
 
 
     @Nullable
-    private <T> List<T> convertList(@Nullable Object o) {
+    private <T> List<T> nodes(@Nullable Object o) {
         if (o == null) {
             return null;
         } else {
-            List<Map<String, Object>> in = (List<Map<String, Object>>) o;
+            List<Object> in = (List<Object>) o;
             List<T> out = new ArrayList<>();
 
-            for (Map<String, Object> m : in) {
-                Node n = convert(m);
+            for (Object m : in) {
+                Node n = node(m);
                 if (n != null) {
                     out.add((T) n);
                 }
@@ -701,6 +803,7 @@ public class Parser {
                 start = content.indexOf(name.id, start);
                 name.start = start;
                 name.end = start + name.id.length();
+                name.identify();
                 start = name.end;
                 if (a.asname != null)
                 {
@@ -708,6 +811,7 @@ public class Parser {
                     a.asname.start = start;
                     a.asname.end = start + a.asname.id.length();
                     a.asname.file = file;  // file is missing for asname node
+                    a.asname.identify();
                     start = a.asname.end;
                 }
             }
@@ -716,31 +820,11 @@ public class Parser {
 
 
     @Nullable
-    private List<Node> convertListNode(@Nullable Object o) {
+    private Block block(@Nullable Object o) {
         if (o == null) {
             return null;
         } else {
-            List<Map<String, Object>> in = (List<Map<String, Object>>) o;
-            List<Node> out = new ArrayList<>();
-
-            for (Map<String, Object> m : in) {
-                Node n = convert(m);
-                if (n != null) {
-                    out.add(n);
-                }
-            }
-
-            return out;
-        }
-    }
-
-
-    @Nullable
-    private Block convertBlock(@Nullable Object o) {
-        if (o == null) {
-            return null;
-        } else {
-            List<Node> body = convertListNode(o);
+            List<Node> body = nodes(o);
             if (body == null || body.isEmpty()) {
                 return null;
             } else {
@@ -751,15 +835,15 @@ public class Parser {
 
 
     @Nullable
-    private List<Op> convertListOp(@Nullable Object o) {
+    private List<Op> ops(@Nullable Object o) {
         if (o == null) {
             return null;
         } else {
-            List<Map<String, Object>> in = (List<Map<String, Object>>) o;
+            List<Object> in = (List<Object>) o;
             List<Op> out = new ArrayList<>();
 
-            for (Map<String, Object> m : in) {
-                Op n = convertOp(m);
+            for (Object m : in) {
+                Op n = op(m);
                 if (n != null) {
                     out.add(n);
                 }
@@ -770,118 +854,72 @@ public class Parser {
     }
 
 
-    public Op convertOp(Object map) {
-        String type = (String) ((Map<String, Object>) map).get("type");
-
-        if (type.equals("Add") || type.equals("UAdd")) {
-            return Op.Add;
-        }
-
-        if (type.equals("Sub") || type.equals("USub")) {
-            return Op.Sub;
-        }
-
-        if (type.equals("Mult")) {
-            return Op.Mul;
-        }
-
-        if (type.equals("MatMult")) {
-            return Op.MatMult;
-        }
-
-        if (type.equals("Div")) {
-            return Op.Div;
-        }
-
-        if (type.equals("Pow")) {
-            return Op.Pow;
-        }
-
-        if (type.equals("Eq")) {
-            return Op.Equal;
-        }
-
-        if (type.equals("Is")) {
-            return Op.Eq;
-        }
-
-        if (type.equals("Lt")) {
-            return Op.Lt;
-        }
-
-        if (type.equals("Gt")) {
-            return Op.Gt;
-        }
-
-
-        if (type.equals("BitAnd")) {
-            return Op.BitAnd;
-        }
-
-        if (type.equals("BitOr")) {
-            return Op.BitOr;
-        }
-
-        if (type.equals("BitXor")) {
-            return Op.BitXor;
-        }
-
-
-        if (type.equals("In")) {
-            return Op.In;
-        }
-
-
-        if (type.equals("LShift")) {
-            return Op.LShift;
-        }
-
-        if (type.equals("FloorDiv")) {
-            return Op.FloorDiv;
-        }
-
-        if (type.equals("Mod")) {
-            return Op.Mod;
-        }
-
-        if (type.equals("RShift")) {
-            return Op.RShift;
+    private Op op(Object o) {
+        if (o instanceof Op) {
+            return (Op) o;
+        } else {
+            return convertOp((String) ((Map<String, Object>) o).get("type"));
         }
+    }
 
-        if (type.equals("Invert")) {
-            return Op.Invert;
-        }
 
-        if (type.equals("And")) {
-            return Op.And;
-        }
+    private static int intValue(@Nullable Object o, int defaultValue) {
+        return o instanceof Number ? ((Number) o).intValue() : defaultValue;
+    }
 
-        if (type.equals("Or")) {
-            return Op.Or;
-        }
 
-        if (type.equals("Not")) {
-            return Op.Not;
-        }
-
-        if (type.equals("NotEq")) {
-            return Op.NotEqual;
+    private static double doubleValue(@Nullable Object o) {
+        if (o instanceof Number) {
+            return ((Number) o).doubleValue();
+        } else if ("Infinity".equals(o)) {
+            return Double.POSITIVE_INFINITY;
+        } else if ("-Infinity".equals(o)) {
+            return Double.NEGATIVE_INFINITY;
+        } else {
+            return Double.NaN;
         }
+    }
 
-        if (type.equals("IsNot")) {
-            return Op.NotEq;
-        }
 
-        if (type.equals("LtE")) {
-            return Op.LtE;
-        }
+    private static final Map<String, Op> OPERATORS = new HashMap<>();
+
+    static {
+        OPERATORS.put("Add", Op.Add);
+        OPERATORS.put("UAdd", Op.Add);
+        OPERATORS.put("Sub", Op.Sub);
+        OPERATORS.put("USub", Op.Sub);
+        OPERATORS.put("Mult", Op.Mul);
+        OPERATORS.put("MatMult", Op.MatMult);
+        OPERATORS.put("Div", Op.Div);
+        OPERATORS.put("Pow", Op.Pow);
+        OPERATORS.put("Eq", Op.Equal);
+        OPERATORS.put("Is", Op.Eq);
+        OPERATORS.put("Lt", Op.Lt);
+        OPERATORS.put("Gt", Op.Gt);
+        OPERATORS.put("BitAnd", Op.BitAnd);
+        OPERATORS.put("BitOr", Op.BitOr);
+        OPERATORS.put("BitXor", Op.BitXor);
+        OPERATORS.put("In", Op.In);
+        OPERATORS.put("LShift", Op.LShift);
+        OPERATORS.put("FloorDiv", Op.FloorDiv);
+        OPERATORS.put("Mod", Op.Mod);
+        OPERATORS.put("RShift", Op.RShift);
+        OPERATORS.put("Invert", Op.Invert);
+        OPERATORS.put("And", Op.And);
+        OPERATORS.put("Or", Op.Or);
+        OPERATORS.put("Not", Op.Not);
+        OPERATORS.put("NotEq", Op.NotEqual);
+        OPERATORS.put("IsNot", Op.NotEq);
+        OPERATORS.put("LtE", Op.LtE);
+        OPERATORS.put("GtE", Op.GtE);
+        OPERATORS.put("NotIn", Op.NotIn);
+    }
 
-        if (type.equals("GtE")) {
-            return Op.GtE;
-        }
 
-        if (type.equals("NotIn")) {
-            return Op.NotIn;
+    public Op convertOp(String type) {
+        Op op = OPERATORS.get(type);
+        if (op != null) {
+            return op;
         }
 
         $.msg("[please report] unsupported operator: " + type);
@@ -930,9 +968,9 @@ public class Parser {
     public Process startInterpreter(String pythonExe) {
         Process p;
         try {
-            ProcessBuilder builder = new ProcessBuilder(pythonExe, "-i", jsonizer);
-            builder.redirectErrorStream(true);
-            builder.redirectOutput(new File(parserLog + "-" + (logCount++)));
+            // stdout carries the framed responses, so only stderr goes to the log
+            ProcessBuilder builder = new ProcessBuilder(pythonExe, jsonizer);
+            builder.redirectError(new File(parserLog + "-" + (logCount++)));
             builder.environment().remove("PYTHONPATH");
             p = builder.start();
         } catch (Exception e) {
@@ -944,91 +982,181 @@ public class Parser {
 
 
     @Nullable
+    @Override
     public Node parseFile(String filename) {
         file = filename;
         content = $.readFile(filename);
 
-        Node node2 = parseFileInner(filename, python2Process);
-        if (node2 != null) {
-            return node2;
-        } else if (python3Process != null) {
-            Node node3 = parseFileInner(filename, python3Process);
-            if (node3 == null) {
-                Analyzer.self.failedToParse.add(filename);
-                return null;
-            } else {
-                return node3;
-            }
-        } else {
-            Analyzer.self.failedToParse.add(filename);
+        int version = dialects.guess(filename, content);
+        Node node = parseWith(filename, version);
+        if (node == null) {
+            version = version == DialectDetector.PYTHON3 ? DialectDetector.PYTHON2 : DialectDetector.PYTHON3;
+            node = parseWith(filename, version);
+        }
+
+        if (node == null) {
+            analyzer.failedToParse.add(filename);
             return null;
         }
+        dialects.remember(filename, version);
+        if (node instanceof Module) {
+            ((Module) node).pythonVersion = version;
+        }
+        return node;
     }
 
 
+    // looks the process up each time, a failed parse may have restarted it
     @Nullable
-    public Node parseFileInner(String filename, @NotNull Process pythonProcess) {
-//        _.msg("parsing: " + filename);
+    private Node parseWith(String filename, int version) {
+        Process process = version == DialectDetector.PYTHON3 ? python3Process : python2Process;
+        return process == null ? null : parseFileInner(filename, process);
+    }
 
-        File exchange = new File(exchangeFile);
-        File marker = new File(endMark);
-        cleanTemp();
 
-        String s1 = $.escapeWindowsPath(filename);
-        String s2 = $.escapeWindowsPath(exchangeFile);
-        String s3 = $.escapeWindowsPath(endMark);
-        String dumpCommand = "parse_dump('" + s1 + "', '" + s2 + "', '" + s3 + "')";
+    /**
+     * Parses {@code filenames} with one request per interpreter instead of one
+     * per file. Files are grouped by the interpreter guessed for them, and
+     * those it rejects go to the other interpreter in a second batch. Each
+     * AST is handed to {@code results} as soon as its response arrives.
+     */
+    @Override
+    public void parseFiles(@NotNull List<String> filenames, @NotNull BiConsumer<String, Node> results) {
+        Map<String, String> contents = new HashMap<>();
+        List<String> python2 = new ArrayList<>();
+        List<String> python3 = new ArrayList<>();
+        for (String filename : filenames) {
+            String text = $.readFile(filename);
+            contents.put(filename, text);
+            if (dialects.guess(filename, text) == DialectDetector.PYTHON3) {
+                python3.add(filename);
+            } else {
+                python2.add(filename);
+            }
+        }
 
-        if (!sendCommand(dumpCommand, pythonProcess)) {
-            cleanTemp();
-            return null;
+        List<String> retry2 = new ArrayList<>();
+        List<String> retry3 = new ArrayList<>();
+        parseBatch(python2, DialectDetector.PYTHON2, contents, results, retry3);
+        parseBatch(python3, DialectDetector.PYTHON3, contents, results, retry2);
+        parseBatch(retry3, DialectDetector.PYTHON3, contents, results, null);
+        parseBatch(retry2, DialectDetector.PYTHON2, contents, results, null);
+    }
+
+
+    // files the interpreter rejects go to retry, or fail if there's no retry
+    private void parseBatch(@NotNull List<String> filenames, int version, @NotNull Map<String, String> contents,
+                            @NotNull BiConsumer<String, Node> results, @Nullable List<String> retry)
+    {
+        if (filenames.isEmpty()) {
+            return;
         }
 
-        long waitStart = System.currentTimeMillis();
-        while (!marker.exists()) {
-            if (System.currentTimeMillis() - waitStart > TIMEOUT) {
-                Analyzer.self.failedToParse.add(filename);
-                cleanTemp();
-                startPythonProcesses();
-                return null;
+        Process process = version == DialectDetector.PYTHON3 ? python3Process : python2Process;
+        int done = 0;
+        try {
+            if (process != null) {
+                sendRequest(process, String.join("\0", filenames));
+                for (; done < filenames.size(); done++) {
+                    String filename = filenames.get(done);
+                    byte[] response = readResponse(process);
+                    file = filename;
+                    content = contents.get(filename);
+                    Node node = toNode(filename, response);
+                    if (node != null) {
+                        dialects.remember(filename, version);
+                        if (node instanceof Module) {
+                            ((Module) node).pythonVersion = version;
+                        }
+                        results.accept(filename, node);
+                    } else {
+                        reject(filename, results, retry);
+                    }
+                }
             }
+        } catch (IOException e) {
+            // the interpreter died or hung on the file it owed an answer for
+            startPythonProcesses();
+            reject(filenames.get(done), results, retry);
+            parseBatch(filenames.subList(done + 1, filenames.size()), version, contents, results, retry);
+            return;
+        }
 
-            try {
-                Thread.sleep(1);
-            } catch (Exception e) {
-                cleanTemp();
-                return null;
-            }
+        for (; done < filenames.size(); done++) {
+            reject(filenames.get(done), results, retry);
         }
+    }
+
 
-        String json = $.readFile(exchangeFile);
-        if (json != null) {
-            cleanTemp();
-            Map<String, Object> map = gson.fromJson(json, Map.class);
-            return convert(map);
+    private void reject(String filename, @NotNull BiConsumer<String, Node> results, @Nullable List<String> retry) {
+        if (retry != null) {
+            retry.add(filename);
         } else {
-            cleanTemp();
+            analyzer.failedToParse.add(filename);
+            results.accept(filename, null);
+        }
+    }
+
+
+    /**
+     * Sends one request frame to the interpreter and reads back the response frame.
+     * A frame is a 4-byte big-endian length followed by that many bytes of UTF-8:
+     * the file name going in, the JSON AST coming back. An empty response means
+     * the interpreter failed to parse the file.
+     */
+    @Nullable
+    public Node parseFileInner(String filename, @NotNull Process pythonProcess) {
+//        _.msg("parsing: " + filename);
+
+        byte[] response;
+        try {
+            sendRequest(pythonProcess, filename);
+            response = readResponse(pythonProcess);
+        } catch (IOException e) {
+            analyzer.failedToParse.add(filename);
+            startPythonProcesses();
             return null;
         }
+        return toNode(filename, response);
     }
 
 
-    private void cleanTemp() {
-        new File(exchangeFile).delete();
-        new File(endMark).delete();
+    // several file names in one request are separated by NUL
+    private static void sendRequest(@NotNull Process pythonProcess, @NotNull String filenames) throws IOException {
+        DataOutputStream out = new DataOutputStream(pythonProcess.getOutputStream());
+        byte[] request = filenames.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(request.length);
+        out.write(request);
+        out.flush();
     }
 
 
-    private boolean sendCommand(String cmd, @NotNull Process pythonProcess) {
+    @NotNull
+    private static byte[] readResponse(@NotNull Process pythonProcess) throws IOException {
+        // a hung interpreter is killed, which unblocks the read below with EOF
+        ScheduledFuture<?> watchdog = timer.schedule(pythonProcess::destroy, TIMEOUT, TimeUnit.MILLISECONDS);
         try {
-            OutputStreamWriter writer = new OutputStreamWriter(pythonProcess.getOutputStream());
-            writer.write(cmd);
-            writer.write("\n");
-            writer.flush();
-            return true;
-        } catch (Exception e) {
-            $.msg("\nFailed to send command to interpreter: " + cmd);
-            return false;
+            DataInputStream in = new DataInputStream(pythonProcess.getInputStream());
+            byte[] response = new byte[in.readInt()];
+            in.readFully(response);
+            return response;
+        } finally {
+            watchdog.cancel(false);
+        }
+    }
+
+
+    @Nullable
+    private Node toNode(String filename, @NotNull byte[] response) {
+        if (response.length == 0) {
+            return null;
+        }
+
+        try (JsonParser json = jsonFactory.createParser(response)) {
+            return convert(json);
+        } catch (IOException e) {
+            $.msg("\nFailed to read the AST of: " + filename + ": " + e);
+            return null;
         }
     }
 
@@ -0,0 +1,45 @@
+package org.yinwang.pysonar;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.yinwang.pysonar.ast.Node;
+
+import java.util.List;
+import java.util.function.BiConsumer;
+
+
+/**
+ * Turns Python source files into ASTs. A backend keeps state for the file
+ * it is working on, so each thread needs an instance of its own.
+ */
+public interface ParserBackend {
+
+    /**
+     * Names the backend in the AST cache's version, so that trees built by
+     * one backend are not served to another.
+     */
+    @NotNull
+    String getName();
+
+
+    /**
+     * Returns the AST of {@code filename}, or null if it can't be parsed.
+     */
+    @Nullable
+    Node parseFile(String filename);
+
+
+    /**
+     * Parses each of {@code filenames} and hands every AST to {@code results}
+     * as soon as it is ready, null for a file that can't be parsed. Backends
+     * with a per-request cost override this to pay it once for the batch.
+     */
+    default void parseFiles(@NotNull List<String> filenames, @NotNull BiConsumer<String, Node> results) {
+        for (String filename : filenames) {
+            results.accept(filename, parseFile(filename));
+        }
+    }
+
+
+    void close();
+}
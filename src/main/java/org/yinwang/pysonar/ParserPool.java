@@ -0,0 +1,102 @@
+package org.yinwang.pysonar;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.yinwang.pysonar.ast.Node;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.BiConsumer;
+import java.util.function.IntFunction;
+
+
+/**
+ * A fixed set of {@link ParserBackend} workers, such as {@link Parser}s that
+ * each own a pair of dump_python.py interpreters. A backend keeps per-file
+ * state while it parses, so a worker is lent to exactly one thread at a time.
+ */
+public class ParserPool {
+
+    @NotNull
+    private final List<ParserBackend> workers = new ArrayList<>();
+    @NotNull
+    private final BlockingQueue<ParserBackend> idle = new LinkedBlockingQueue<>();
+
+
+    /**
+     * @param backends creates the worker with the given number
+     */
+    public ParserPool(int size, @NotNull IntFunction<ParserBackend> backends) {
+        if (size < 1) {
+            size = 1;
+        }
+        for (int i = 0; i < size; i++) {
+            ParserBackend parser = backends.apply(i);
+            workers.add(parser);
+            idle.add(parser);
+        }
+    }
+
+
+    public int size() {
+        return workers.size();
+    }
+
+
+    @NotNull
+    public String getName() {
+        return workers.get(0).getName();
+    }
+
+
+    /**
+     * Parses {@code filename} on the next free worker, waiting for one if
+     * all of them are busy.
+     */
+    @Nullable
+    public Node parseFile(String filename) {
+        ParserBackend parser;
+        try {
+            parser = idle.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+
+        try {
+            return parser.parseFile(filename);
+        } finally {
+            idle.add(parser);
+        }
+    }
+
+
+    /**
+     * Parses {@code filenames} as one batch on the next free worker, see
+     * {@link ParserBackend#parseFiles}.
+     */
+    public void parseFiles(@NotNull List<String> filenames, @NotNull BiConsumer<String, Node> results) {
+        ParserBackend parser;
+        try {
+            parser = idle.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        try {
+            parser.parseFiles(filenames, results);
+        } finally {
+            idle.add(parser);
+        }
+    }
+
+
+    public void close() {
+        for (ParserBackend parser : workers) {
+            parser.close();
+        }
+    }
+}
@@ -13,9 +13,11 @@ public class Progress {
     long count;
     long width;
     long segSize;
+    Analyzer analyzer;
 
 
-    public Progress(long total, long width) {
+    public Progress(Analyzer analyzer, long total, long width) {
+        this.analyzer = analyzer;
         this.startTime = System.currentTimeMillis();
         this.lastTickTime = System.currentTimeMillis();
         this.lastCount = 0;
@@ -71,7 +73,7 @@ public class Progress {
             long remainTime = remain / avgRate * 1000;
             $.msg_("   ETA: " + $.formatTime(remainTime));
 
-            $.msg_("   PARSE ERRS: " + Analyzer.self.failedToParse.size());
+            $.msg_("   PARSE ERRS: " + analyzer.failedToParse.size());
 
             $.msg_("       ");      // overflow area
 
@@ -83,7 +85,7 @@ public class Progress {
 
 
     public void tick() {
-        if (!Analyzer.self.hasOption("quiet")) {
+        if (!analyzer.hasOption("quiet")) {
             tick(1);
         }
     }
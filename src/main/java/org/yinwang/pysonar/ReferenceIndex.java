@@ -0,0 +1,316 @@
+package org.yinwang.pysonar;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.yinwang.pysonar.ast.Node;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * The references found by the analysis: for each referring node, the bindings
+ * it refers to. Nodes are keyed by their interned file id and their (start,
+ * end) packed into a long, which is what Node.equals compares. Files sit in
+ * an array indexed by their id, and each file keeps its entries in an
+ * open-addressing table on the long, so lookups box nothing. Each file also
+ * keeps its nodes sorted by position, built on the first position query
+ * after a change, for {@link #at}.
+ */
+public class ReferenceIndex {
+
+    // beyond this many bindings an entry also keeps a set of them, to check for duplicates
+    private static final int SMALL = 8;
+
+    private static class Entry {
+        @NotNull
+        final Node node;
+        final long key;
+        final long seq;         // insertion order, kept for asMap
+        @NotNull
+        final List<Binding> bindings = new ArrayList<>(1);
+        @Nullable
+        Set<Binding> bindingSet;
+
+        Entry(@NotNull Node node, long key, long seq) {
+            this.node = node;
+            this.key = key;
+            this.seq = seq;
+        }
+
+        boolean contains(@NotNull Binding b) {
+            return bindingSet != null ? bindingSet.contains(b) : bindings.contains(b);
+        }
+
+        void add(@NotNull Binding b) {
+            bindings.add(b);
+            if (bindingSet != null) {
+                bindingSet.add(b);
+            } else if (bindings.size() > SMALL) {
+                bindingSet = Collections.newSetFromMap(new IdentityHashMap<>());
+                bindingSet.addAll(bindings);
+            }
+        }
+
+        void removeAll(@NotNull Set<Binding> dropped) {
+            if (bindings.removeIf(dropped::contains) && bindingSet != null) {
+                bindingSet.removeAll(dropped);
+            }
+        }
+    }
+
+    private static class FileRefs {
+        // linear probing on Entry.key, at most half full; null slots are free
+        @NotNull
+        Entry[] slots = new Entry[8];
+        int count;
+        @Nullable
+        Node[] sorted;
+        int maxSpan;
+
+        private static int slotOf(long key, int mask) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h >>> 32) & mask;
+        }
+
+        @Nullable
+        Entry get(long key) {
+            int mask = slots.length - 1;
+            for (int i = slotOf(key, mask); slots[i] != null; i = (i + 1) & mask) {
+                if (slots[i].key == key) {
+                    return slots[i];
+                }
+            }
+            return null;
+        }
+
+        // e's key must not be in the table yet
+        void put(@NotNull Entry e) {
+            if ((count + 1) * 2 > slots.length) {
+                Entry[] old = slots;
+                slots = new Entry[old.length * 2];
+                for (Entry o : old) {
+                    if (o != null) {
+                        insert(o);
+                    }
+                }
+            }
+            insert(e);
+            count++;
+            sorted = null;
+        }
+
+        private void insert(@NotNull Entry e) {
+            int mask = slots.length - 1;
+            int i = slotOf(e.key, mask);
+            while (slots[i] != null) {
+                i = (i + 1) & mask;
+            }
+            slots[i] = e;
+        }
+
+        // drops dropped from every entry, and the entries left without bindings; returns how many went
+        int removeAll(@NotNull Set<Binding> dropped) {
+            List<Entry> kept = new ArrayList<>(count);
+            for (Entry e : slots) {
+                if (e != null) {
+                    e.removeAll(dropped);
+                    if (!e.bindings.isEmpty()) {
+                        kept.add(e);
+                    }
+                }
+            }
+            int gone = count - kept.size();
+            if (gone > 0) {
+                Arrays.fill(slots, null);
+                for (Entry e : kept) {
+                    insert(e);
+                }
+                count = kept.size();
+                sorted = null;
+            }
+            return gone;
+        }
+
+        @NotNull
+        Node[] sorted() {
+            if (sorted == null) {
+                sorted = new Node[count];
+                int i = 0;
+                maxSpan = 0;
+                for (Entry e : slots) {
+                    if (e != null) {
+                        sorted[i++] = e.node;
+                        maxSpan = Math.max(maxSpan, e.node.end - e.node.start);
+                    }
+                }
+                Arrays.sort(sorted, Comparator.comparingInt((Node n) -> n.start).thenComparingInt(n -> n.end));
+            }
+            return sorted;
+        }
+    }
+
+    // indexed by file id, ids being dense within an analysis
+    @NotNull
+    private FileRefs[] files = new FileRefs[16];
+    private long nextSeq = 0;
+    private int size = 0;
+    // what asMap returned, until an entry is added or removed
+    @Nullable
+    private Map<Node, List<Binding>> asMap;
+
+
+    @Nullable
+    private FileRefs filesOf(int fileId) {
+        return fileId < files.length ? files[fileId] : null;
+    }
+
+
+    private static long key(int start, int end) {
+        return ((long) start << 32) | (end & 0xffffffffL);
+    }
+
+
+    /**
+     * Records that {@code node} refers to {@code b}. Returns false if it
+     * already did.
+     */
+    public boolean add(@NotNull Node node, @NotNull Binding b) {
+        int fileId = node.getFileId();
+        if (fileId >= files.length) {
+            files = Arrays.copyOf(files, Math.max(fileId + 1, files.length * 2));
+        }
+        FileRefs refs = files[fileId];
+        if (refs == null) {
+            refs = files[fileId] = new FileRefs();
+        }
+        long key = key(node.start, node.end);
+        Entry entry = refs.get(key);
+        if (entry == null) {
+            entry = new Entry(node, key, nextSeq++);
+            refs.put(entry);
+            size++;
+            asMap = null;
+        } else if (entry.contains(b)) {
+            return false;
+        }
+        entry.add(b);
+        return true;
+    }
+
+
+    /**
+     * Returns the bindings the node at the position of {@code node} refers
+     * to, or null if it's not a reference.
+     */
+    @Nullable
+    public List<Binding> get(@NotNull Node node) {
+        FileRefs refs = filesOf(node.getFileId());
+        if (refs == null) {
+            return null;
+        }
+        Entry entry = refs.get(key(node.start, node.end));
+        return entry == null ? null : entry.bindings;
+    }
+
+
+    /**
+     * Returns the innermost referring node of {@code file} that spans
+     * {@code offset}, or null if there is none.
+     */
+    @Nullable
+    public Node at(@Nullable String file, int offset) {
+        FileRefs refs = filesOf(Node.fileId(file));
+        if (refs == null) {
+            return null;
+        }
+        Node[] sorted = refs.sorted();
+
+        // the last node starting at or before offset
+        int lo = 0, hi = sorted.length - 1, last = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sorted[mid].start <= offset) {
+                last = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+
+        // nodes starting further back than the longest node can't reach offset
+        Node best = null;
+        for (int i = last; i >= 0 && sorted[i].start >= offset - refs.maxSpan; i--) {
+            Node n = sorted[i];
+            if (n.end >= offset && (best == null || n.end - n.start < best.end - best.start)) {
+                best = n;
+            }
+        }
+        return best;
+    }
+
+
+    public int size() {
+        return size;
+    }
+
+
+    /**
+     * Returns the index as a read-only map, in the order the references
+     * were first recorded. The map is built once and kept until a reference
+     * is added or removed; the binding lists in it are live.
+     */
+    @NotNull
+    public Map<Node, List<Binding>> asMap() {
+        if (asMap == null) {
+            List<Entry> all = new ArrayList<>(size);
+            for (FileRefs refs : files) {
+                if (refs != null) {
+                    for (Entry e : refs.slots) {
+                        if (e != null) {
+                            all.add(e);
+                        }
+                    }
+                }
+            }
+            all.sort(Comparator.comparingLong(e -> e.seq));
+
+            Map<Node, List<Binding>> map = new LinkedHashMap<>();
+            for (Entry e : all) {
+                map.put(e.node, e.bindings);
+            }
+            asMap = Collections.unmodifiableMap(map);
+        }
+        return asMap;
+    }
+
+
+    /**
+     * Drops the references made from {@code removed} files, and those made
+     * elsewhere to {@code dropped} bindings.
+     */
+    public void remove(@NotNull Set<String> removed, @NotNull Set<Binding> dropped) {
+        for (String file : removed) {
+            int fileId = Node.fileId(file);
+            FileRefs refs = filesOf(fileId);
+            if (refs != null) {
+                size -= refs.count;
+                files[fileId] = null;
+            }
+        }
+
+        for (FileRefs refs : files) {
+            if (refs != null) {
+                size -= refs.removeAll(dropped);
+            }
+        }
+        asMap = null;
+    }
+}
@@ -0,0 +1,43 @@
+package org.yinwang.pysonar;
+
+import org.jetbrains.annotations.NotNull;
+import org.yinwang.pysonar.ast.Module;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+
+/**
+ * Stores the whole {@link Module} graph with Java serialization.
+ */
+public class SerializedAstCodec implements AstCodec {
+
+    @NotNull
+    @Override
+    public String getName() {
+        return "ser";
+    }
+
+
+    @Override
+    public void write(@NotNull Module ast, @NotNull File file) throws IOException {
+        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(file))) {
+            oos.writeObject(ast);
+        }
+    }
+
+
+    @NotNull
+    @Override
+    public Module read(@NotNull File file) throws IOException {
+        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(file))) {
+            return (Module) ois.readObject();
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException("Not a serialized module: " + file, e);
+        }
+    }
+}
@@ -0,0 +1,433 @@
+package org.yinwang.pysonar;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.yinwang.pysonar.ast.Module;
+import org.yinwang.pysonar.ast.Node;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * Keeps an analysis of a project in memory and answers JSON-RPC 2.0 requests
+ * about it, one JSON object per line, on stdio or on a local port. Positions
+ * are given as a file and either a character offset or a line (from 1) and
+ * column (from 0), and locations are answered the same way; nodes and
+ * bindings count columns from 1, which is converted here.
+ * <p>
+ * Methods:
+ * <ul>
+ * <li>definition {file, offset}: where the name at the position is defined</li>
+ * <li>references {file, offset}: where the bindings of that name are used</li>
+ * <li>hover {file, offset}: the inferred types of those bindings</li>
+ * <li>diagnostics {file}: the problems found in a file, or in all files</li>
+ * <li>didChange {files}: reanalyzes after files changed, see {@link Analyzer#update}</li>
+ * <li>shutdown: closes the analyzer and stops the server</li>
+ * </ul>
+ */
+public class Server {
+
+    private static final int PARSE_ERROR = -32700;
+    private static final int METHOD_NOT_FOUND = -32601;
+    private static final int INVALID_PARAMS = -32602;
+    private static final int INTERNAL_ERROR = -32603;
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    @NotNull
+    private final Analyzer analyzer;
+    private boolean running = true;
+
+    // the bindings defined in each file, rebuilt after an update
+    @Nullable
+    private Map<String, List<Binding>> defsByFile;
+    // the lines of each file a position was asked in, until the file changes
+    @NotNull
+    private final Map<String, LineIndex> lineIndexes = new HashMap<>();
+
+
+    public Server(@NotNull Analyzer analyzer) {
+        this.analyzer = analyzer;
+    }
+
+
+    /**
+     * Answers the requests read from {@code in} on {@code out} until the input
+     * ends or a shutdown request arrives.
+     */
+    public void serve(@NotNull BufferedReader in, @NotNull OutputStream out) throws IOException {
+        String line;
+        while (running && (line = in.readLine()) != null) {
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            String response = handle(line);
+            if (response != null) {
+                out.write((response + "\n").getBytes(StandardCharsets.UTF_8));
+                out.flush();
+            }
+        }
+    }
+
+
+    /**
+     * Answers one request. Returns null for a notification, which has no id
+     * and gets no response.
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public synchronized String handle(@NotNull String request) {
+        Map<String, Object> message;
+        try {
+            message = mapper.readValue(request, Map.class);
+        } catch (IOException e) {
+            return error(null, PARSE_ERROR, "Parse error: " + e.getMessage());
+        }
+
+        Object id = message.get("id");
+        Object method = message.get("method");
+        Map<String, Object> params = message.get("params") instanceof Map ?
+                (Map<String, Object>) message.get("params") : new HashMap<>();
+
+        Object result;
+        try {
+            analyzer.bind();
+            result = dispatch(String.valueOf(method), params);
+        } catch (NoSuchMethodException e) {
+            return id == null ? null : error(id, METHOD_NOT_FOUND, "Method not found: " + method);
+        } catch (IllegalArgumentException e) {
+            return id == null ? null : error(id, INVALID_PARAMS, e.getMessage());
+        } catch (Exception e) {
+            return id == null ? null : error(id, INTERNAL_ERROR, e.toString());
+        }
+
+        if (id == null) {
+            return null;
+        }
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("jsonrpc", "2.0");
+        response.put("id", id);
+        response.put("result", result);
+        return toJson(response);
+    }
+
+
+    @Nullable
+    private Object dispatch(@NotNull String method, @NotNull Map<String, Object> params) throws Exception {
+        switch (method) {
+            case "definition":
+                return definition(params);
+            case "references":
+                return references(params);
+            case "hover":
+                return hover(params);
+            case "diagnostics":
+                return diagnostics(params);
+            case "didChange":
+                return didChange(params);
+            case "shutdown":
+                running = false;
+                analyzer.close();
+                return null;
+            default:
+                throw new NoSuchMethodException(method);
+        }
+    }
+
+
+    @NotNull
+    private List<Object> definition(@NotNull Map<String, Object> params) {
+        List<Object> result = new ArrayList<>();
+        for (Binding b : bindingsAt(params)) {
+            result.add(location(b));
+        }
+        return result;
+    }
+
+
+    @NotNull
+    private List<Object> references(@NotNull Map<String, Object> params) {
+        Set<Node> refs = new LinkedHashSet<>();
+        for (Binding b : bindingsAt(params)) {
+            refs.addAll(b.refs);
+        }
+
+        List<Object> result = new ArrayList<>();
+        for (Node ref : refs) {
+            Map<String, Object> loc = new LinkedHashMap<>();
+            loc.put("file", ref.file);
+            loc.put("start", ref.start);
+            loc.put("end", ref.end);
+            loc.put("line", ref.line);
+            loc.put("col", fromZero(ref.col));
+            result.add(loc);
+        }
+        return result;
+    }
+
+
+    @NotNull
+    private List<Object> hover(@NotNull Map<String, Object> params) {
+        List<Object> result = new ArrayList<>();
+        for (Binding b : bindingsAt(params)) {
+            Map<String, Object> info = new LinkedHashMap<>();
+            info.put("name", b.name);
+            info.put("qname", b.qname);
+            info.put("kind", b.kind.toString());
+            info.put("type", b.type.toString());
+            result.add(info);
+        }
+        return result;
+    }
+
+
+    @NotNull
+    private Object diagnostics(@NotNull Map<String, Object> params) {
+        Object file = params.get("file");
+        if (file != null) {
+            return diagnosticsOf(analyzer.getDiagnosticsForFile($.unifyPath(file.toString())));
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        for (Map.Entry<String, List<Diagnostic>> e : analyzer.semanticErrors.entrySet()) {
+            result.put(e.getKey(), diagnosticsOf(e.getValue()));
+        }
+        return result;
+    }
+
+
+    @NotNull
+    private List<Object> diagnosticsOf(@NotNull List<Diagnostic> diagnostics) {
+        List<Object> result = new ArrayList<>();
+        for (Diagnostic d : diagnostics) {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("file", d.file);
+            item.put("start", d.start);
+            item.put("end", d.end);
+            item.put("category", d.category.toString());
+            item.put("msg", d.msg);
+            result.add(item);
+        }
+        return result;
+    }
+
+
+    @Nullable
+    private Object didChange(@NotNull Map<String, Object> params) {
+        Object files = params.get("files");
+        if (!(files instanceof List)) {
+            throw new IllegalArgumentException("didChange needs a list of files");
+        }
+        Set<String> changed = new HashSet<>();
+        for (Object f : (List<?>) files) {
+            changed.add(f.toString());
+            lineIndexes.remove($.unifyPath(f.toString()));
+        }
+        analyzer.update(changed);
+        defsByFile = null;
+        return null;
+    }
+
+
+    /**
+     * The bindings of the name at the position in {@code params}: the ones a
+     * reference there points to, or the one defined there.
+     */
+    @NotNull
+    private List<Binding> bindingsAt(@NotNull Map<String, Object> params) {
+        Object fileParam = params.get("file");
+        if (fileParam == null) {
+            throw new IllegalArgumentException("missing file");
+        }
+        String file = $.unifyPath(fileParam.toString());
+        int offset = offsetOf(file, params);
+        buildIndex();
+
+        ReferenceIndex refs = analyzer.getReferenceIndex();
+        Node ref = refs.at(file, offset);
+        if (ref != null) {
+            List<Binding> bindings = refs.get(ref);
+            if (bindings != null) {
+                return bindings;
+            }
+        }
+
+        List<Binding> result = new ArrayList<>();
+        List<Binding> defs = defsByFile.get(file);
+        if (defs != null) {
+            for (Binding b : defs) {
+                if (b.start <= offset && offset <= b.end) {
+                    result.add(b);
+                }
+            }
+        }
+        return result;
+    }
+
+
+    private int offsetOf(@NotNull String file, @NotNull Map<String, Object> params) {
+        Object offset = params.get("offset");
+        if (offset instanceof Number) {
+            return ((Number) offset).intValue();
+        }
+
+        Object line = params.get("line");
+        Object col = params.get("col");
+        if (!(line instanceof Number) || !(col instanceof Number)) {
+            throw new IllegalArgumentException("give either offset or line and col");
+        }
+        return lineIndexOf(file).offsetOf(((Number) line).intValue(), ((Number) col).intValue());
+    }
+
+
+    /**
+     * The lines of {@code file} as its parser saw them, which node offsets
+     * count in. Trees from an older cache entry don't have them; then the
+     * file is decoded here, which only agrees with the parser for ASCII and
+     * UTF-8 sources. Kept until didChange names the file.
+     */
+    @NotNull
+    private LineIndex lineIndexOf(@NotNull String file) {
+        LineIndex index = lineIndexes.get(file);
+        if (index == null) {
+            index = readLineIndex(file);
+            lineIndexes.put(file, index);
+        }
+        return index;
+    }
+
+
+    @NotNull
+    private LineIndex readLineIndex(@NotNull String file) {
+        Node ast = analyzer.getAstForFile(file);
+        if (ast instanceof Module && ((Module) ast).lineStarts != null) {
+            return new LineIndex(((Module) ast).lineStarts);
+        }
+        String text = $.readFile(file);
+        if (text == null) {
+            throw new IllegalArgumentException("can't read " + file);
+        }
+        return new LineIndex(text);
+    }
+
+
+    private void buildIndex() {
+        if (defsByFile != null) {
+            return;
+        }
+        defsByFile = new HashMap<>();
+        for (Binding b : analyzer.getAllBindings()) {
+            if (b.getFile() != null) {
+                defsByFile.computeIfAbsent(b.getFile(), k -> new ArrayList<>()).add(b);
+            }
+        }
+    }
+
+
+    @NotNull
+    private static Map<String, Object> location(@NotNull Binding b) {
+        Map<String, Object> loc = new LinkedHashMap<>();
+        loc.put("name", b.name);
+        loc.put("qname", b.qname);
+        if (b.isURL()) {
+            loc.put("url", b.getURL());
+        } else {
+            loc.put("file", b.getFile());
+            loc.put("start", b.start);
+            loc.put("end", b.end);
+            loc.put("line", b.line);
+            loc.put("col", fromZero(b.col));
+        }
+        return loc;
+    }
+
+
+    // nodes count columns from 1, an unknown one being -1
+    private static int fromZero(int col) {
+        return col > 0 ? col - 1 : col;
+    }
+
+
+    @NotNull
+    private static String error(@Nullable Object id, int code, String message) {
+        Map<String, Object> err = new LinkedHashMap<>();
+        err.put("code", code);
+        err.put("message", message);
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("jsonrpc", "2.0");
+        response.put("id", id);
+        response.put("error", err);
+        return toJson(response);
+    }
+
+
+    @NotNull
+    private static String toJson(@NotNull Object value) {
+        try {
+            return mapper.writeValueAsString(value);
+        } catch (IOException e) {
+            return "{\"jsonrpc\":\"2.0\",\"id\":null,\"error\":{\"code\":" + INTERNAL_ERROR + "}}";
+        }
+    }
+
+
+    private static void usage() {
+        System.err.println("Usage: java org.yinwang.pysonar.Server [--port <port>] [options] <project-dir>");
+        System.err.println("  Serves JSON-RPC on stdio, or on localhost:<port> with --port");
+        System.exit(1);
+    }
+
+
+    public static void main(@NotNull String[] args) throws Exception {
+        Options options = new Options(args);
+        if (options.getArgs().isEmpty()) {
+            usage();
+        }
+
+        // stdout carries the responses, progress messages go to stderr
+        PrintStream stdout = System.out;
+        System.setOut(System.err);
+
+        options.put("incremental", true);
+        Analyzer analyzer = new Analyzer(options.getOptionsMap());
+        analyzer.analyze(options.getArgs().get(0));
+        analyzer.finish();
+        Server server = new Server(analyzer);
+
+        Object port = options.get("port");
+        if (port == null) {
+            server.serve(new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)), stdout);
+        } else {
+            try (ServerSocket socket = new ServerSocket(Integer.parseInt(port.toString()), 50, InetAddress.getLoopbackAddress())) {
+                $.msg("Listening on " + socket.getLocalSocketAddress());
+                while (server.running) {
+                    try (Socket client = socket.accept()) {
+                        server.serve(new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8)),
+                                client.getOutputStream());
+                    }
+                }
+            }
+        }
+        if (server.running) {
+            analyzer.close();
+        }
+        System.exit(0);
+    }
+}
@@ -0,0 +1,123 @@
+package org.yinwang.pysonar;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * Decides which files under the project directory are analyzed, by include
+ * and exclude globs on their paths relative to it. A glob without a '/'
+ * matches names, like "*_pb2.py" or "build", and any other glob matches the
+ * whole relative path, like "vendor/**". A directory matching an exclude
+ * glob, or whose contents "dir/**" excludes, is not walked at all. When there
+ * are include globs, a file must match one of them as well.
+ */
+public class SourceFilter {
+
+    public static final SourceFilter ALL = new SourceFilter(Collections.emptyList(), Collections.emptyList());
+
+    private static class Glob {
+        @NotNull
+        final PathMatcher matcher;
+        final boolean nameOnly;
+        // for "dir/**", the matcher of "dir" itself, so that it needn't be walked
+        @Nullable
+        final PathMatcher contents;
+
+        Glob(@NotNull FileSystem fs, @NotNull String glob) {
+            matcher = fs.getPathMatcher("glob:" + glob);
+            nameOnly = !glob.contains("/");
+            contents = glob.endsWith("/**") ? fs.getPathMatcher("glob:" + glob.substring(0, glob.length() - 3)) : null;
+        }
+
+        boolean matches(@NotNull String relPath, @NotNull String name) {
+            return matcher.matches(Paths.get(nameOnly ? name : relPath));
+        }
+
+        boolean matchesDirectory(@NotNull String relPath, @NotNull String name) {
+            return matches(relPath, name) ||
+                    (contents != null && contents.matches(Paths.get(relPath)));
+        }
+    }
+
+    @NotNull
+    private final List<Glob> includes = new ArrayList<>();
+    @NotNull
+    private final List<Glob> excludes = new ArrayList<>();
+
+
+    public SourceFilter(@NotNull List<String> includes, @NotNull List<String> excludes) {
+        FileSystem fs = FileSystems.getDefault();
+        for (String glob : includes) {
+            this.includes.add(new Glob(fs, glob));
+        }
+        for (String glob : excludes) {
+            this.excludes.add(new Glob(fs, glob));
+        }
+    }
+
+
+    /**
+     * Whether the directory at {@code relPath} is left out with all it holds.
+     */
+    public boolean excludesDirectory(@NotNull String relPath) {
+        String name = nameOf(relPath);
+        for (Glob g : excludes) {
+            if (g.matchesDirectory(relPath, name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * Whether the file at {@code relPath} is analyzed, its directories
+     * having been accepted already.
+     */
+    public boolean acceptsFile(@NotNull String relPath) {
+        String name = nameOf(relPath);
+        for (Glob g : excludes) {
+            if (g.matches(relPath, name)) {
+                return false;
+            }
+        }
+        if (includes.isEmpty()) {
+            return true;
+        }
+        for (Glob g : includes) {
+            if (g.matches(relPath, name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * Whether the file at {@code relPath} is analyzed, checking its
+     * directories too.
+     */
+    public boolean accepts(@NotNull String relPath) {
+        for (int i = relPath.indexOf('/'); i >= 0; i = relPath.indexOf('/', i + 1)) {
+            if (excludesDirectory(relPath.substring(0, i))) {
+                return false;
+            }
+        }
+        return acceptsFile(relPath);
+    }
+
+
+    @NotNull
+    private static String nameOf(@NotNull String relPath) {
+        return relPath.substring(relPath.lastIndexOf('/') + 1);
+    }
+}
@@ -0,0 +1,220 @@
+package org.yinwang.pysonar;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+
+/**
+ * The Python source files under a path, with the size, modification time and
+ * inode each had when it was found. The tree is walked once, each directory
+ * listed by its own task on a fork-join pool, and the files come out in the
+ * order a sequential walk would find them. Directory links are followed, but
+ * each directory is listed only once, under its canonical path.
+ */
+public class SourceManifest {
+
+    public static class Entry {
+        @NotNull
+        public final String path;
+        public final long size;
+        public final long mtime;
+        @NotNull
+        public final String inode;
+
+
+        Entry(@NotNull String path, long size, long mtime, @NotNull String inode) {
+            this.path = path;
+            this.size = size;
+            this.mtime = mtime;
+            this.inode = inode;
+        }
+
+
+        Entry(@NotNull String path, @NotNull BasicFileAttributes attrs) {
+            this(path, attrs.size(), attrs.lastModifiedTime().toMillis(), String.valueOf(attrs.fileKey()));
+        }
+    }
+
+
+    // in walk order
+    @NotNull
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+
+    private SourceManifest(@NotNull List<Entry> found) {
+        for (Entry e : found) {
+            entries.put(e.path, e);
+        }
+    }
+
+
+    /**
+     * Finds the source files under {@code root} that {@code filter} accepts,
+     * or just {@code root} if it is a source file, listing up to
+     * {@code threads} directories at once. Paths are canonical, as
+     * {@link $#unifyPath} makes them.
+     */
+    @NotNull
+    public static SourceManifest scan(@NotNull String root, int threads, @NotNull SourceFilter filter) {
+        String canonical = $.unifyPath(root);
+        Path path = Paths.get(canonical);
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (IOException e) {
+            attrs = null;
+        }
+
+        if (attrs == null || !attrs.isDirectory()) {
+            List<Entry> found = new ArrayList<>(1);
+            if (canonical.endsWith(Globals.FILE_SUFFIX)) {
+                // a missing file is still listed, so that loading it reports the failure
+                found.add(attrs == null ? new Entry(canonical, -1, -1, "") : new Entry(canonical, attrs));
+            }
+            return new SourceManifest(found);
+        }
+
+        Set<String> listed = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        listed.add(canonical);
+        // bound to the analysis if there is one, for the messages of failed listings
+        Analyzer analyzer = Analyzer.current();
+        ForkJoinPool pool = analyzer != null ? analyzer.newForkJoinPool(threads)
+                                             : new ForkJoinPool(Math.max(1, threads));
+        try {
+            return new SourceManifest(pool.invoke(new ListDirectory(path, canonical, "", filter, listed)));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+
+    // the source files under one directory, subdirectories listed by tasks of their own
+    private static class ListDirectory extends RecursiveTask<List<Entry>> {
+        private static final long serialVersionUID = 1L;
+
+        @NotNull
+        private final Path dir;
+        @NotNull
+        private final String canonical;
+        @NotNull
+        private final String relPath;       // from the root, "/"-separated, which the filter goes by
+        @NotNull
+        private final SourceFilter filter;
+        @NotNull
+        private final Set<String> listed;
+
+
+        ListDirectory(@NotNull Path dir, @NotNull String canonical, @NotNull String relPath,
+                      @NotNull SourceFilter filter, @NotNull Set<String> listed)
+        {
+            this.dir = dir;
+            this.canonical = canonical;
+            this.relPath = relPath;
+            this.filter = filter;
+            this.listed = listed;
+        }
+
+
+        @NotNull
+        @Override
+        protected List<Entry> compute() {
+            // files and the tasks of subdirectories, in the order they are listed
+            List<Object> found = new ArrayList<>();
+            try {
+                Files.walkFileTree(dir, EnumSet.noneOf(FileVisitOption.class), 1, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                        visit(file, attrs, found);
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException e) {
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult postVisitDirectory(Path d, IOException e) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            } catch (IOException e) {
+                $.msg("Failed to list " + dir + ": " + e);
+            }
+
+            List<Entry> entries = new ArrayList<>();
+            for (Object o : found) {
+                if (o instanceof Entry) {
+                    entries.add((Entry) o);
+                } else {
+                    entries.addAll(((ListDirectory) o).join());
+                }
+            }
+            return entries;
+        }
+
+
+        private void visit(@NotNull Path file, @NotNull BasicFileAttributes attrs, @NotNull List<Object> found) {
+            String name = file.getFileName().toString();
+            String rel = relPath.isEmpty() ? name : relPath + "/" + name;
+            String path;
+            if (attrs.isSymbolicLink()) {
+                // only links need resolving, anything else is named after its directory
+                try {
+                    attrs = Files.readAttributes(file, BasicFileAttributes.class);
+                } catch (IOException e) {
+                    return;
+                }
+                path = $.unifyPath(file.toString());
+            } else {
+                path = canonical + File.separator + name;
+            }
+
+            if (attrs.isDirectory()) {
+                if (!filter.excludesDirectory(rel) && listed.add(path)) {
+                    ListDirectory task = new ListDirectory(file, path, rel, filter, listed);
+                    task.fork();
+                    found.add(task);
+                }
+            } else if (name.endsWith(Globals.FILE_SUFFIX) && filter.acceptsFile(rel)) {
+                found.add(new Entry(path, attrs));
+            }
+        }
+    }
+
+
+    public int size() {
+        return entries.size();
+    }
+
+
+    @NotNull
+    public List<String> getPaths() {
+        return new ArrayList<>(entries.keySet());
+    }
+
+
+    @NotNull
+    public Iterable<Entry> getEntries() {
+        return entries.values();
+    }
+}
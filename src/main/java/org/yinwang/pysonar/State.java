@@ -3,6 +3,8 @@ package org.yinwang.pysonar;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.yinwang.pysonar.ast.Node;
+import org.yinwang.pysonar.hash.PersistentMap;
+import org.yinwang.pysonar.hash.ProbingHashSet;
 import org.yinwang.pysonar.types.ModuleType;
 import org.yinwang.pysonar.types.Type;
 import org.yinwang.pysonar.types.Types;
@@ -23,8 +25,9 @@ public class State {
     }
 
 
+    // persistent, so that copies for branches share it until they diverge
     @NotNull
-    public Map<String, Set<Binding>> table = new HashMap<>(0);
+    public PersistentMap<String, Set<Binding>> table = PersistentMap.empty();
     @Nullable
     public State parent;      // all are non-null except global table
     @Nullable
@@ -52,8 +55,7 @@ public class State {
 
 
     public State(@NotNull State s) {
-        this.table = new HashMap<>();
-        this.table.putAll(s.table);
+        this.table = s.table;
         this.parent = s.parent;
         this.stateType = s.stateType;
         this.forwarding = s.forwarding;
@@ -83,17 +85,18 @@ public class State {
     }
 
 
+    // entries other shares with this table are skipped, adding them would change nothing
     public void merge(State other) {
-        for (Map.Entry<String, Set<Binding>> e2 : other.table.entrySet()) {
-            Set<Binding> b1 = table.get(e2.getKey());
-            Set<Binding> b2 = e2.getValue();
-
+        other.table.forEachChanged(table, (name, b2) -> {
+            Set<Binding> b1 = table.get(name);
             if (b1 != null && b2 != null) {
-                b1.addAll(b2);
+                if (b1 != b2) {
+                    b1.addAll(b2);
+                }
             } else if (b1 == null && b2 != null) {
-                table.put(e2.getKey(), b2);
+                table = table.plus(name, b2);
             }
-        }
+        });
     }
 
 
@@ -151,7 +154,7 @@ public class State {
 
 
     public void remove(String id) {
-        table.remove(id);
+        table = table.minus(id);
     }
 
 
@@ -170,16 +173,16 @@ public class State {
     // directly insert a given binding
     @NotNull
     public Set<Binding> update(String id, @NotNull Set<Binding> bs) {
-        table.put(id, bs);
+        table = table.plus(id, bs);
         return bs;
     }
 
 
     @NotNull
     public Set<Binding> update(String id, @NotNull Binding b) {
-        Set<Binding> bs = new HashSet<>(1);
+        Set<Binding> bs = new ProbingHashSet<>(1);
         bs.add(b);
-        table.put(id, bs);
+        table = table.plus(id, bs);
         return bs;
     }
 
@@ -251,11 +254,12 @@ public class State {
      * much difference.
      */
     @NotNull
-    private static Set<State> looked = new HashSet<>();    // circularity prevention
+    private static final ThreadLocal<Set<State>> looked = ThreadLocal.withInitial(HashSet::new);  // circularity prevention, per thread
 
 
     @Nullable
     public Set<Binding> lookupAttr(String attr) {
+        Set<State> looked = State.looked.get();
         if (looked.contains(this)) {
             return null;
         } else {
@@ -365,7 +369,9 @@ public class State {
 
 
     public void putAll(@NotNull State other) {
-        table.putAll(other.table);
+        for (Entry<String, Set<Binding>> e : other.table.entrySet()) {
+            table = table.plus(e.getKey(), e.getValue());
+        }
     }
 
 
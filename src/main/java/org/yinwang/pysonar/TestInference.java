@@ -60,7 +60,7 @@ public class TestInference
             List<Binding> bindings = e.getValue();
 
             // only record those in the testFile
-            if (filename != null && filename.startsWith(Analyzer.self.projectDir))
+            if (filename != null && filename.startsWith(analyzer.projectDir))
             {
                 filename = $.projRelPath(filename).replaceAll("\\\\", "/");
                 Map<String, Object> writeout = new LinkedHashMap<>();
@@ -78,7 +78,7 @@ public class TestInference
                 for (Binding b : bindings)
                 {
                     String destFile = b.getFile();
-                    if (destFile != null && destFile.startsWith(Analyzer.self.projectDir))
+                    if (destFile != null && destFile.startsWith(analyzer.projectDir))
                     {
                         destFile = $.projRelPath(destFile).replaceAll("\\\\", "/");
                         Map<String, Object> dest = new LinkedHashMap<>();
@@ -123,7 +123,7 @@ public class TestInference
             Dummy dummy = makeDummy(refMap);
 
             List<Map<String, Object>> dests = (List) r.get("dests");
-            List<Binding> actual = analyzer.getReferences().get(dummy);
+            List<Binding> actual = analyzer.getReferenceIndex().get(dummy);
 
             for (Map<String, Object> d : dests)
             {
@@ -0,0 +1,43 @@
+package org.yinwang.pysonar.ast;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Interns file names to the small ints nodes compare by, counting up from
+ * {@link #FIRST}. Each analysis has its own, so the names it saw go away
+ * with it, and its ids stay dense.
+ */
+public class FileIds {
+
+    public static final int NO_FILE = 1;
+    public static final int FIRST = 2;
+
+    private final ConcurrentMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private final AtomicInteger next = new AtomicInteger(FIRST);
+
+
+    public int idOf(@NotNull String file) {
+        Integer id = ids.get(file);
+        if (id == null) {
+            Integer fresh = next.getAndIncrement();
+            id = ids.putIfAbsent(file, fresh);
+            if (id == null) {
+                id = fresh;
+            }
+        }
+        return id;
+    }
+
+
+    /**
+     * One past the largest id handed out so far.
+     */
+    public int limit() {
+        return next.get();
+    }
+}
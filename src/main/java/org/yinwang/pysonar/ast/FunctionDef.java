@@ -11,7 +11,7 @@ public class FunctionDef extends Node {
     public List<Node> defaults;
     public Name vararg;  // *args
     public Name kwarg;   // **kwarg
-    private final List<Node> decorators;
+    public final List<Node> decorators;
     public List<Node> afterRest = null;   // after rest arg of Ruby
     public Node body;
     public boolean called = false;
@@ -31,18 +31,18 @@ public class ImportFrom extends Node {
         return names.size() == 1 && "*".equals(names.get(0).name.get(0).id);
     }
 
-    public void importStar(@NotNull State s, @Nullable Type mt) {
+    public void importStar(@NotNull Analyzer analyzer, @NotNull State s, @Nullable Type mt) {
         if (mt == null || mt.file == null) {
             return;
         }
 
-        Node node = Analyzer.self.getAstForFile(mt.file);
+        Node node = analyzer.getAstForFile(mt.file);
         if (node == null) {
             return;
         }
 
         List<String> names = new ArrayList<>();
-        Type allType = mt.table.lookupType("__all__");
+        Type allType = mt.getTable().lookupType("__all__");
 
         if (allType != null && allType instanceof ListType) {
             ListType lt = (ListType) allType;
@@ -59,14 +59,14 @@ public class ImportFrom extends Node {
             int col = this.col;
 
             for (String name : names) {
-                Set<Binding> b = mt.table.lookupLocal(name);
+                Set<Binding> b = mt.getTable().lookupLocal(name);
                 if (b != null) {
                     s.update(name, b);
                 } else {
                     List<Name> m2 = new ArrayList<>(module);
                     Name fakeName = new Name(name, this.file, start, start + name.length(), this.line, col);
                     m2.add(fakeName);
-                    Type type = Analyzer.self.loadModule(m2, s);
+                    Type type = analyzer.loadModule(m2, s);
                     if (type != null) {
                         start += name.length();
                         col += name.length();
@@ -76,7 +76,7 @@ public class ImportFrom extends Node {
             }
         } else {
             // Fall back to importing all names not starting with "_".
-            for (Entry<String, Set<Binding>> e : mt.table.entrySet()) {
+            for (Entry<String, Set<Binding>> e : mt.getTable().entrySet()) {
                 if (!e.getKey().startsWith("_")) {
                     s.update(e.getKey(), e.getValue());
                 }
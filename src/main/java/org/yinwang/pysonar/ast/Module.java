@@ -6,6 +6,10 @@ import org.yinwang.pysonar.$;
 public class Module extends Node {
 
     public Block body;
+    public int nodeCount = 0;       // size of the tree, used to weigh it in the AST cache
+    public int pythonVersion = 0;   // 2 or 3 for the interpreter that parsed it, 0 if unknown
+    // the offsets at which lines start in the text as the parser decoded it, null if unknown
+    public int[] lineStarts;
 
     public Module(Block body, String file, int start, int end, int line, int col) {
         super(NodeType.MODULE, file, start, end, line, col);
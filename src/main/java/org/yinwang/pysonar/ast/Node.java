@@ -14,6 +14,10 @@ import java.util.Collection;
  */
 public abstract class Node implements java.io.Serializable, Comparable<Object> {
 
+    // file names are interned to ints by the analysis, so ids are not serialized; nodes made
+    // outside any analysis, by benchmarks and tests, share this table for the life of the JVM
+    private static final FileIds UNBOUND_FILE_IDS = new FileIds();
+
     public NodeType nodeType;
     public String file;
     public int start;
@@ -24,6 +28,10 @@ public abstract class Node implements java.io.Serializable, Comparable<Object> {
     public String name;
     public Node parent = null;
 
+    // 0 until identify() has run
+    private transient int fileId;
+    private transient int hash;
+
     public Node() {
     }
 
@@ -34,11 +42,40 @@ public abstract class Node implements java.io.Serializable, Comparable<Object> {
         this.end = end;
         this.line = line;
         this.col = col;
+        identify();
+    }
+
+    /**
+     * The id of {@code file} in the analysis bound to the calling thread.
+     */
+    public static int fileId(@Nullable String file) {
+        if (file == null) {
+            return FileIds.NO_FILE;
+        }
+        Analyzer analyzer = Analyzer.current();
+        return (analyzer != null ? analyzer.fileIds : UNBOUND_FILE_IDS).idOf(file);
+    }
+
+    /**
+     * Computes the identity used by equals and hashCode from file, start and
+     * end. The constructor does it, call it again after moving a node.
+     */
+    public void identify() {
+        int id = fileId(file);
+        hash = (id * 31 + start) * 31 + end;
+        fileId = id;
+    }
+
+    public int getFileId() {
+        if (fileId == 0) {
+            identify();
+        }
+        return fileId;
     }
 
     public String getFullPath() {
         if (!file.startsWith("/")) {
-            return $.makePathString(Analyzer.self.projectDir, file);
+            return $.makePathString(Analyzer.current().projectDir, file);
         } else {
             return file;
         }
@@ -110,16 +147,18 @@ public abstract class Node implements java.io.Serializable, Comparable<Object> {
             return false;
         } else {
             Node node = (Node) obj;
-            String file = this.file;
             return (start == node.start &&
                     end == node.end &&
-                    $.same(file, node.file));
+                    getFileId() == node.getFileId());
         }
     }
 
     @Override
     public int hashCode() {
-        return (file + ":" + start + ":" + end).hashCode();
+        if (fileId == 0) {
+            identify();
+        }
+        return hash;
     }
 
     @Override
@@ -76,7 +76,7 @@ public class Demo {
             }
         }
 
-        Progress progress = new Progress(total, 50);
+        Progress progress = new Progress(analyzer, total, 50);
 
         for (String path : analyzer.getLoadedFiles()) {
             if (path.startsWith(rootPath)) {
@@ -111,7 +111,7 @@ public class Demo {
         List<Style> styles = new ArrayList<>();
         styles.addAll(linker.getStyles(path));
 
-        String styledSource = new StyleApplier(path, source, styles).apply();
+        String styledSource = new StyleApplier(path, source, styles, analyzer.hasOption("debug")).apply();
         String outline = new HtmlOutline(analyzer).generate(path);
 
         StringBuilder sb = new StringBuilder();
@@ -121,7 +121,7 @@ public class Demo {
             .append("<title>").append(path).append("</title>\n")
             .append("<style type='text/css'>\n").append(CSS).append("\n</style>\n")
             .append("<script language=\"JavaScript\" type=\"text/javascript\">\n")
-            .append(Analyzer.self.hasOption("debug") ? JS_DEBUG : JS)
+            .append(analyzer.hasOption("debug") ? JS_DEBUG : JS)
             .append("</script>\n")
             .append("</head>\n<body>\n")
             .append("<table width=100% border='1px solid gray'><tr><td valign='top'>")
@@ -47,7 +47,7 @@ class Linker {
 
     public void findLinks(@NotNull Analyzer analyzer) {
         $.msg("Adding xref links");
-        Progress progress = new Progress(analyzer.getAllBindings().size(), 50);
+        Progress progress = new Progress(analyzer, analyzer.getAllBindings().size(), 50);
         List<Binding> linkBindings = new ArrayList<>();
 
         for (Binding binding : analyzer.getAllBindings()) {
@@ -63,10 +63,10 @@ class Linker {
 
         // highlight definitions
         $.msg("\nAdding ref links");
-        progress = new Progress(analyzer.getReferences().size(), 50);
+        progress = new Progress(analyzer, analyzer.getReferenceIndex().size(), 50);
 
         for (Entry<Node, List<Binding>> e : analyzer.getReferences().entrySet()) {
-            if (Analyzer.self.hasOption("debug")) {
+            if (analyzer.hasOption("debug")) {
                 processRefDebug(e.getKey(), e.getValue());
             } else {
                 processRef(e.getKey(), e.getValue());
@@ -74,7 +74,7 @@ class Linker {
             progress.tick();
         }
 
-        if (Analyzer.self.hasOption("report")) {
+        if (analyzer.hasOption("report")) {
             for (List<Diagnostic> ld : analyzer.semanticErrors.values()) {
                 for (Diagnostic d : ld) {
                     processDiagnostic(d);
@@ -1,7 +1,6 @@
 package org.yinwang.pysonar.demos;
 
 import org.jetbrains.annotations.NotNull;
-import org.yinwang.pysonar.Analyzer;
 import org.yinwang.pysonar.$;
 
 import java.util.List;
@@ -21,6 +20,8 @@ class StyleApplier {
 
     private String source;  // input source code
 
+    private boolean debug;  // mark up anchors with their urls
+
     // Current offset into the source being copied into the html buffer.
     private int sourceOffset = 0;
 
@@ -64,7 +65,7 @@ class StyleApplier {
         @Override
         void insert() {
             super.insert();
-            if (Analyzer.self.hasOption("debug")) {
+            if (debug) {
                 switch (style.type) {
                     case ANCHOR:
                         buffer.append("<a name='" + style.url + "'");
@@ -136,8 +137,9 @@ class StyleApplier {
     }
 
 
-    public StyleApplier(String path, String src, @NotNull List<Style> runs) {
+    public StyleApplier(String path, String src, @NotNull List<Style> runs, boolean debug) {
         source = src;
+        this.debug = debug;
         for (Style run : runs) {
             tags.add(new StartTag(run));
             tags.add(new EndTag(run));
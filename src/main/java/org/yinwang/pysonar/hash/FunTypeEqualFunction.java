@@ -10,7 +10,7 @@ public class FunTypeEqualFunction extends EqualFunction {
             FunType xx = (FunType) x;
             FunType yy = (FunType) y;
             return xx == yy ||
-                    xx.table.path.equals(yy.table.path);
+                    xx.getPath().equals(yy.getPath());
         } else {
             return x.equals(y);
         }
@@ -0,0 +1,413 @@
+package org.yinwang.pysonar.hash;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+
+/**
+ * An immutable hash array mapped trie. {@link #plus} and {@link #minus}
+ * return new maps that share all but the path to the changed key with the
+ * old one, so copying a map is free and a copy that changed a few keys can
+ * be compared with its origin by walking only the parts that differ, see
+ * {@link #forEachChanged}.
+ * <p>
+ * The Map interface is read-only, its mutators throw.
+ */
+public final class PersistentMap<K, V> extends AbstractMap<K, V> {
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    private static final PersistentMap<?, ?> EMPTY = new PersistentMap<>(new Branch(0, new Object[0]), 0);
+
+    // a key and its value; these are also the entries handed out by entrySet
+    private static final class Leaf<K, V> extends SimpleImmutableEntry<K, V> {
+        private static final long serialVersionUID = 1L;
+
+        final int hash;
+
+        Leaf(int hash, K key, V value) {
+            super(key, value);
+            this.hash = hash;
+        }
+    }
+
+    // slots hold a Leaf, a Branch or a Collision for each bit set in bitmap
+    private static final class Branch {
+        final int bitmap;
+        final Object[] slots;
+
+        Branch(int bitmap, Object[] slots) {
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }
+
+        int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+    }
+
+    // keys with the same full hash
+    private static final class Collision {
+        final int hash;
+        final Leaf<?, ?>[] leaves;
+
+        Collision(int hash, Leaf<?, ?>[] leaves) {
+            this.hash = hash;
+            this.leaves = leaves;
+        }
+    }
+
+    @NotNull
+    private final Branch root;
+    private final int size;
+
+
+    private PersistentMap(@NotNull Branch root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+
+    @NotNull
+    @SuppressWarnings("unchecked")
+    public static <K, V> PersistentMap<K, V> empty() {
+        return (PersistentMap<K, V>) EMPTY;
+    }
+
+
+    private static int hash(@Nullable Object key) {
+        int h = key == null ? 0 : key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+
+    private static int bit(int hash, int shift) {
+        return 1 << ((hash >>> shift) & MASK);
+    }
+
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+
+    @Override
+    public boolean containsKey(Object key) {
+        return find(key) != null;
+    }
+
+
+    @Nullable
+    @Override
+    public V get(Object key) {
+        Leaf<K, V> leaf = find(key);
+        return leaf == null ? null : leaf.getValue();
+    }
+
+
+    @Nullable
+    @SuppressWarnings("unchecked")
+    private Leaf<K, V> find(Object key) {
+        int hash = hash(key);
+        Object node = root;
+        for (int shift = 0; ; shift += BITS) {
+            if (node instanceof Branch) {
+                Branch branch = (Branch) node;
+                int bit = bit(hash, shift);
+                if ((branch.bitmap & bit) == 0) {
+                    return null;
+                }
+                node = branch.slots[branch.index(bit)];
+            } else if (node instanceof Leaf) {
+                Leaf<K, V> leaf = (Leaf<K, V>) node;
+                return leaf.hash == hash && eq(leaf.getKey(), key) ? leaf : null;
+            } else {
+                Collision c = (Collision) node;
+                if (c.hash == hash) {
+                    for (Leaf<?, ?> leaf : c.leaves) {
+                        if (eq(leaf.getKey(), key)) {
+                            return (Leaf<K, V>) leaf;
+                        }
+                    }
+                }
+                return null;
+            }
+        }
+    }
+
+
+    private static boolean eq(Object a, Object b) {
+        return a == b || (a != null && a.equals(b));
+    }
+
+
+    /**
+     * Returns a map with {@code key} bound to {@code value}, or this map if it
+     * already was.
+     */
+    @NotNull
+    public PersistentMap<K, V> plus(K key, V value) {
+        Leaf<K, V> leaf = new Leaf<>(hash(key), key, value);
+        boolean[] added = new boolean[1];
+        Object newRoot = put(root, 0, leaf, added);
+        if (newRoot == root) {
+            return this;
+        }
+        return new PersistentMap<>((Branch) newRoot, added[0] ? size + 1 : size);
+    }
+
+
+    @NotNull
+    private static Object put(@NotNull Object node, int shift, @NotNull Leaf<?, ?> leaf, @NotNull boolean[] added) {
+        if (node instanceof Branch) {
+            Branch branch = (Branch) node;
+            int bit = bit(leaf.hash, shift);
+            int i = branch.index(bit);
+            if ((branch.bitmap & bit) == 0) {
+                Object[] slots = new Object[branch.slots.length + 1];
+                System.arraycopy(branch.slots, 0, slots, 0, i);
+                slots[i] = leaf;
+                System.arraycopy(branch.slots, i, slots, i + 1, branch.slots.length - i);
+                added[0] = true;
+                return new Branch(branch.bitmap | bit, slots);
+            }
+            Object old = branch.slots[i];
+            Object replaced = put(old, shift + BITS, leaf, added);
+            if (replaced == old) {
+                return branch;
+            }
+            Object[] slots = branch.slots.clone();
+            slots[i] = replaced;
+            return new Branch(branch.bitmap, slots);
+        }
+
+        if (node instanceof Leaf) {
+            Leaf<?, ?> old = (Leaf<?, ?>) node;
+            if (old.hash == leaf.hash && eq(old.getKey(), leaf.getKey())) {
+                return old.getValue() == leaf.getValue() ? old : leaf;
+            }
+            added[0] = true;
+            if (old.hash == leaf.hash) {
+                return new Collision(leaf.hash, new Leaf<?, ?>[]{old, leaf});
+            }
+            return split(shift, old, old.hash, leaf);
+        }
+
+        Collision c = (Collision) node;
+        if (c.hash != leaf.hash) {
+            added[0] = true;
+            return split(shift, c, c.hash, leaf);
+        }
+        for (int i = 0; i < c.leaves.length; i++) {
+            Leaf<?, ?> old = c.leaves[i];
+            if (eq(old.getKey(), leaf.getKey())) {
+                if (old.getValue() == leaf.getValue()) {
+                    return c;
+                }
+                Leaf<?, ?>[] leaves = c.leaves.clone();
+                leaves[i] = leaf;
+                return new Collision(c.hash, leaves);
+            }
+        }
+        Leaf<?, ?>[] leaves = Arrays.copyOf(c.leaves, c.leaves.length + 1);
+        leaves[c.leaves.length] = leaf;
+        added[0] = true;
+        return new Collision(c.hash, leaves);
+    }
+
+
+    // a branch at shift holding node, whose keys hash to hash, and leaf with a different hash
+    @NotNull
+    private static Branch split(int shift, @NotNull Object node, int hash, @NotNull Leaf<?, ?> leaf) {
+        int i1 = (hash >>> shift) & MASK;
+        int i2 = (leaf.hash >>> shift) & MASK;
+        if (i1 == i2) {
+            return new Branch(1 << i1, new Object[]{split(shift + BITS, node, hash, leaf)});
+        }
+        Object[] slots = i1 < i2 ? new Object[]{node, leaf} : new Object[]{leaf, node};
+        return new Branch((1 << i1) | (1 << i2), slots);
+    }
+
+
+    /**
+     * Returns a map without {@code key}, or this map if it wasn't there.
+     */
+    @NotNull
+    public PersistentMap<K, V> minus(Object key) {
+        if (find(key) == null) {
+            return this;
+        }
+        Object newRoot = remove(root, 0, hash(key), key);
+        return new PersistentMap<>(newRoot == null ? new Branch(0, new Object[0]) : (Branch) newRoot, size - 1);
+    }
+
+
+    // the node without key, which is known to be there, or null if nothing is left
+    @Nullable
+    private static Object remove(@NotNull Object node, int shift, int hash, Object key) {
+        if (node instanceof Leaf) {
+            return null;
+        }
+
+        if (node instanceof Collision) {
+            Collision c = (Collision) node;
+            if (c.leaves.length == 2) {
+                return eq(c.leaves[0].getKey(), key) ? c.leaves[1] : c.leaves[0];
+            }
+            Leaf<?, ?>[] leaves = new Leaf<?, ?>[c.leaves.length - 1];
+            int j = 0;
+            for (Leaf<?, ?> leaf : c.leaves) {
+                if (!eq(leaf.getKey(), key)) {
+                    leaves[j++] = leaf;
+                }
+            }
+            return new Collision(c.hash, leaves);
+        }
+
+        Branch branch = (Branch) node;
+        int bit = bit(hash, shift);
+        int i = branch.index(bit);
+        Object replaced = remove(branch.slots[i], shift + BITS, hash, key);
+        if (replaced != null) {
+            Object[] slots = branch.slots.clone();
+            slots[i] = replaced;
+            return new Branch(branch.bitmap, slots);
+        }
+        if (branch.slots.length == 1) {
+            return null;
+        }
+        Object[] slots = new Object[branch.slots.length - 1];
+        System.arraycopy(branch.slots, 0, slots, 0, i);
+        System.arraycopy(branch.slots, i + 1, slots, i, slots.length - i);
+        return new Branch(branch.bitmap & ~bit, slots);
+    }
+
+
+    /**
+     * Calls {@code action} on the entries of this map that {@code base} may
+     * not have, skipping the parts of the trie the two maps share. Every
+     * entry that differs is visited, some equal ones may be too.
+     */
+    public void forEachChanged(@NotNull PersistentMap<K, V> base, @NotNull BiConsumer<? super K, ? super V> action) {
+        changed(root, base.root, action);
+    }
+
+
+    @SuppressWarnings("unchecked")
+    private static <K, V> void changed(@NotNull Object node, @Nullable Object base, @NotNull BiConsumer<? super K, ? super V> action) {
+        if (node == base) {
+            return;
+        }
+        if (!(node instanceof Branch) || !(base instanceof Branch)) {
+            forEach(node, action);
+            return;
+        }
+
+        Branch branch = (Branch) node;
+        Branch other = (Branch) base;
+        int i = 0;
+        for (int bits = branch.bitmap; bits != 0; bits &= bits - 1) {
+            int bit = bits & -bits;
+            Object slot = branch.slots[i++];
+            if ((other.bitmap & bit) != 0) {
+                changed(slot, other.slots[other.index(bit)], action);
+            } else {
+                forEach(slot, action);
+            }
+        }
+    }
+
+
+    @SuppressWarnings("unchecked")
+    private static <K, V> void forEach(@NotNull Object node, @NotNull BiConsumer<? super K, ? super V> action) {
+        if (node instanceof Leaf) {
+            Leaf<K, V> leaf = (Leaf<K, V>) node;
+            action.accept(leaf.getKey(), leaf.getValue());
+        } else if (node instanceof Collision) {
+            for (Leaf<?, ?> leaf : ((Collision) node).leaves) {
+                action.accept((K) leaf.getKey(), (V) leaf.getValue());
+            }
+        } else {
+            for (Object slot : ((Branch) node).slots) {
+                forEach(slot, action);
+            }
+        }
+    }
+
+
+    @NotNull
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return new AbstractSet<Entry<K, V>>() {
+            @NotNull
+            @Override
+            public Iterator<Entry<K, V>> iterator() {
+                return new LeafIterator<>(root);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+
+    // depth first, each branch's slots in bit order
+    private static final class LeafIterator<K, V> implements Iterator<Entry<K, V>> {
+        private final Deque<Object> stack = new ArrayDeque<>();
+        @Nullable
+        private Leaf<?, ?>[] collision;
+        private int collisionIndex;
+
+        LeafIterator(@NotNull Branch root) {
+            pushSlots(root);
+        }
+
+        private void pushSlots(@NotNull Branch branch) {
+            for (int i = branch.slots.length - 1; i >= 0; i--) {
+                stack.push(branch.slots[i]);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return (collision != null && collisionIndex < collision.length) || !stack.isEmpty();
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Entry<K, V> next() {
+            while (true) {
+                if (collision != null && collisionIndex < collision.length) {
+                    return (Entry<K, V>) collision[collisionIndex++];
+                }
+                if (stack.isEmpty()) {
+                    throw new NoSuchElementException();
+                }
+                Object node = stack.pop();
+                if (node instanceof Leaf) {
+                    return (Entry<K, V>) node;
+                } else if (node instanceof Collision) {
+                    collision = ((Collision) node).leaves;
+                    collisionIndex = 0;
+                } else {
+                    pushSlots((Branch) node);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,319 @@
+package org.yinwang.pysonar.hash;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+
+/**
+ * An open-addressing set with the pluggable hashing and equality of
+ * {@link MyHashSet}, and no object per element. Elements and their hashes
+ * sit in parallel arrays in insertion order, which is also the iteration
+ * order. Up to SCAN_LIMIT elements are found by scanning the hashes; beyond
+ * that an index of positions is kept, probed linearly. A removed element
+ * leaves a null behind until the arrays are next compacted. Elements must
+ * not be null.
+ */
+public class ProbingHashSet<E> extends AbstractSet<E> {
+
+    private static final int SCAN_LIMIT = 8;
+    private static final int MAXIMUM_CAPACITY = 1 << 30;
+
+    private static final HashFunction GENERIC_HASH = new GenericHashFunction();
+    private static final EqualFunction GENERIC_EQUAL = new GenericEqualFunction();
+
+    @NotNull
+    private Object[] keys;
+    @NotNull
+    private int[] hashes;
+    private int used;       // positions taken in keys, removed ones included
+    private int size;
+    private int modCount;
+
+    // positions + 1, 0 for a free slot; null while the set is small
+    private int[] index;
+
+    private final HashFunction hashFunction;
+    private final EqualFunction equalFunction;
+
+
+    public ProbingHashSet(int initialCapacity, HashFunction hashFunction, EqualFunction equalFunction) {
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException("Illegal initial capacity: " + initialCapacity);
+        }
+        this.keys = new Object[Math.min(initialCapacity, MAXIMUM_CAPACITY)];
+        this.hashes = new int[keys.length];
+        this.hashFunction = hashFunction;
+        this.equalFunction = equalFunction;
+        if (keys.length > SCAN_LIMIT) {
+            buildIndex();
+        }
+    }
+
+
+    public ProbingHashSet(HashFunction hashFunction, EqualFunction equalFunction) {
+        this(0, hashFunction, equalFunction);
+    }
+
+
+    public ProbingHashSet(int initialCapacity) {
+        this(initialCapacity, GENERIC_HASH, GENERIC_EQUAL);
+    }
+
+
+    public ProbingHashSet() {
+        this(0);
+    }
+
+
+    public ProbingHashSet(@NotNull Collection<? extends E> c) {
+        this(c.size());
+        addAll(c);
+    }
+
+
+    // hashes are spread over all bits, the index takes the low ones
+    private int hash(@NotNull Object key) {
+        int h = hashFunction.hash(key) * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+
+    @Override
+    public boolean contains(@NotNull Object o) {
+        return find(o) >= 0;
+    }
+
+
+    @Override
+    public boolean add(@NotNull E e) {
+        int h = hash(e);
+        if (find(e, h) >= 0) {
+            return false;
+        }
+
+        if (used == keys.length) {
+            makeRoom();
+        }
+        int i = used++;
+        keys[i] = e;
+        hashes[i] = h;
+        size++;
+        modCount++;
+        if (index != null) {
+            addToIndex(i);
+        } else if (size > SCAN_LIMIT) {
+            buildIndex();
+        }
+        return true;
+    }
+
+
+    @Override
+    public boolean remove(@NotNull Object o) {
+        int i = find(o);
+        if (i < 0) {
+            return false;
+        }
+        removeAt(i);
+        return true;
+    }
+
+
+    @Override
+    public void clear() {
+        Arrays.fill(keys, 0, used, null);
+        used = 0;
+        size = 0;
+        modCount++;
+        if (index != null) {
+            Arrays.fill(index, 0);
+        }
+    }
+
+
+    // the position of key, or -1
+    private int find(@NotNull Object key) {
+        return find(key, hash(key));
+    }
+
+
+    private int find(@NotNull Object key, int h) {
+        if (index == null) {
+            for (int i = 0; i < used; i++) {
+                if (hashes[i] == h && keys[i] != null && equalFunction.equals(keys[i], key)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        int mask = index.length - 1;
+        for (int slot = h & mask; index[slot] != 0; slot = (slot + 1) & mask) {
+            int i = index[slot] - 1;
+            if (hashes[i] == h && equalFunction.equals(keys[i], key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+
+    private void removeAt(int i) {
+        if (index != null) {
+            removeFromIndex(i);
+        }
+        keys[i] = null;
+        size--;
+        modCount++;
+        if (i == used - 1) {
+            used--;
+        }
+    }
+
+
+    private void makeRoom() {
+        int capacity = keys.length;
+        if (capacity == 0 || size > used / 2) {
+            if (capacity >= MAXIMUM_CAPACITY) {
+                throw new IllegalStateException("ProbingHashSet is full");
+            }
+            capacity = capacity < 2 ? 2 : Math.min(capacity * 2, MAXIMUM_CAPACITY);
+        }
+        // otherwise at least half of the positions are removed elements: compact in place
+
+        Object[] newKeys = new Object[capacity];
+        int[] newHashes = new int[capacity];
+        int n = 0;
+        for (int i = 0; i < used; i++) {
+            if (keys[i] != null) {
+                newKeys[n] = keys[i];
+                newHashes[n++] = hashes[i];
+            }
+        }
+        keys = newKeys;
+        hashes = newHashes;
+        used = n;
+        if (index != null || size > SCAN_LIMIT) {
+            buildIndex();
+        }
+    }
+
+
+    // twice as many slots as positions, so probe sequences stay short
+    private void buildIndex() {
+        int length = 4;
+        while (length < keys.length * 2) {
+            length <<= 1;
+        }
+        index = new int[length];
+        for (int i = 0; i < used; i++) {
+            if (keys[i] != null) {
+                addToIndex(i);
+            }
+        }
+    }
+
+
+    private void addToIndex(int i) {
+        int mask = index.length - 1;
+        int slot = hashes[i] & mask;
+        while (index[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        index[slot] = i + 1;
+    }
+
+
+    // backward shift deletion, so that probing never needs tombstones
+    private void removeFromIndex(int i) {
+        int mask = index.length - 1;
+        int slot = hashes[i] & mask;
+        while (index[slot] != i + 1) {
+            slot = (slot + 1) & mask;
+        }
+
+        int hole = slot;
+        for (int next = (hole + 1) & mask; index[next] != 0; next = (next + 1) & mask) {
+            int home = hashes[index[next] - 1] & mask;
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                index[hole] = index[next];
+                hole = next;
+            }
+        }
+        index[hole] = 0;
+    }
+
+
+    // the next position at or after i holding an element, or used
+    private int skipRemoved(int i) {
+        while (i < used && keys[i] == null) {
+            i++;
+        }
+        return i;
+    }
+
+
+    @NotNull
+    @Override
+    public Iterator<E> iterator() {
+        return new Itr();
+    }
+
+
+    // walks the positions in order
+    private class Itr implements Iterator<E> {
+        private int next = skipRemoved(0);
+        private int current = -1;
+        private int expectedModCount = modCount;
+
+        @Override
+        public boolean hasNext() {
+            return next < used;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public E next() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (next >= used) {
+                throw new NoSuchElementException();
+            }
+            current = next;
+            next = skipRemoved(next + 1);
+            return (E) keys[current];
+        }
+
+        @Override
+        public void remove() {
+            if (current < 0) {
+                throw new IllegalStateException();
+            }
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            removeAt(current);
+            current = -1;
+            expectedModCount = modCount;
+        }
+    }
+}
@@ -0,0 +1,328 @@
+package org.yinwang.pysonar.parser;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Splits Python 2 or 3 source into tokens, producing INDENT and DEDENT for
+ * changes of indentation and NEWLINE at the end of each logical line.
+ * Comments, blank lines, line continuations and line breaks inside brackets
+ * produce no tokens.
+ */
+public class Lexer {
+
+    // longest first, so that the first match is the longest
+    private static final String[] OPERATORS = {
+            "**=", "//=", ">>=", "<<=", "...",
+            "->", ":=", "**", "//", ">>", "<<", "<=", ">=", "==", "!=", "<>",
+            "+=", "-=", "*=", "/=", "%=", "&=", "|=", "^=", "@=",
+            "+", "-", "*", "/", "%", "&", "|", "^", "~", "<", ">", "(", ")", "[", "]",
+            "{", "}", ",", ":", ";", ".", "=", "@", "`"
+    };
+
+    @NotNull
+    private final String s;
+    private int pos = 0;
+    private int line = 1;
+    private int lineStart = 0;
+    private int depth = 0;              // bracket nesting, line breaks inside don't count
+    private boolean atLineStart = true;
+    @NotNull
+    private final List<Integer> indents = new ArrayList<>();
+    @NotNull
+    private final List<Token> tokens = new ArrayList<>();
+
+
+    public Lexer(@NotNull String source) {
+        this.s = source;
+        indents.add(0);
+    }
+
+
+    @NotNull
+    public List<Token> tokenize() throws ParseError {
+        while (true) {
+            if (atLineStart && depth == 0) {
+                if (!indentation()) {
+                    continue;
+                }
+            }
+            skipSpaces();
+            if (pos >= s.length()) {
+                break;
+            }
+
+            char c = s.charAt(pos);
+            if (c == '#') {
+                skipComment();
+            } else if (c == '\n' || c == '\r') {
+                if (depth == 0 && !tokens.isEmpty() && last().kind != Token.Kind.NEWLINE) {
+                    add(Token.Kind.NEWLINE, "", pos, pos);
+                }
+                newline();
+                atLineStart = depth == 0;
+            } else if (c == '\\' && isLineBreak(pos + 1)) {
+                pos++;
+                newline();
+            } else if (isIdentifierStart(c)) {
+                name();
+            } else if (Character.isDigit(c) || (c == '.' && pos + 1 < s.length() && Character.isDigit(s.charAt(pos + 1)))) {
+                number();
+            } else if (c == '"' || c == '\'') {
+                string(pos);
+            } else {
+                operator();
+            }
+        }
+
+        if (!tokens.isEmpty() && last().kind != Token.Kind.NEWLINE) {
+            add(Token.Kind.NEWLINE, "", pos, pos);
+        }
+        while (indents.size() > 1) {
+            indents.remove(indents.size() - 1);
+            add(Token.Kind.DEDENT, "", pos, pos);
+        }
+        add(Token.Kind.EOF, "", pos, pos);
+        return tokens;
+    }
+
+
+    /**
+     * Measures the indentation of the line at {@code pos} and emits INDENT or
+     * DEDENT tokens for it. Returns false, having skipped the line, if the
+     * line is blank or only holds a comment.
+     */
+    private boolean indentation() throws ParseError {
+        int width = 0;
+        while (pos < s.length()) {
+            char c = s.charAt(pos);
+            if (c == ' ') {
+                width++;
+            } else if (c == '\t') {
+                width = (width / 8 + 1) * 8;
+            } else if (c == '\f') {
+                width = 0;
+            } else {
+                break;
+            }
+            pos++;
+        }
+
+        if (pos < s.length() && s.charAt(pos) == '#') {
+            skipComment();
+        }
+        if (pos >= s.length()) {
+            atLineStart = false;
+            return true;
+        }
+        if (isLineBreak(pos)) {
+            newline();
+            return false;
+        }
+
+        atLineStart = false;
+        int current = indents.get(indents.size() - 1);
+        if (width > current) {
+            indents.add(width);
+            add(Token.Kind.INDENT, "", pos, pos);
+        } else {
+            while (width < indents.get(indents.size() - 1)) {
+                indents.remove(indents.size() - 1);
+                add(Token.Kind.DEDENT, "", pos, pos);
+            }
+            if (width != indents.get(indents.size() - 1)) {
+                throw new ParseError("unindent does not match any outer indentation level", line);
+            }
+        }
+        return true;
+    }
+
+
+    private void skipSpaces() {
+        while (pos < s.length()) {
+            char c = s.charAt(pos);
+            if (c == ' ' || c == '\t' || c == '\f') {
+                pos++;
+            } else {
+                break;
+            }
+        }
+    }
+
+
+    private void skipComment() {
+        while (pos < s.length() && s.charAt(pos) != '\n' && s.charAt(pos) != '\r') {
+            pos++;
+        }
+    }
+
+
+    private boolean isLineBreak(int i) {
+        return i < s.length() && (s.charAt(i) == '\n' || s.charAt(i) == '\r');
+    }
+
+
+    // consumes \n, \r or \r\n at pos
+    private void newline() {
+        if (s.charAt(pos) == '\r' && pos + 1 < s.length() && s.charAt(pos + 1) == '\n') {
+            pos++;
+        }
+        pos++;
+        line++;
+        lineStart = pos;
+    }
+
+
+    private void name() throws ParseError {
+        int start = pos;
+        while (pos < s.length() && isIdentifierPart(s.charAt(pos))) {
+            pos++;
+        }
+        String text = s.substring(start, pos);
+        if (pos < s.length() && (s.charAt(pos) == '"' || s.charAt(pos) == '\'') && isStringPrefix(text)) {
+            pos = start;
+            string(start);
+        } else {
+            add(Token.Kind.NAME, text, start, pos);
+        }
+    }
+
+
+    private static boolean isStringPrefix(@NotNull String text) {
+        if (text.length() > 2) {
+            return false;
+        }
+        for (char c : text.toLowerCase().toCharArray()) {
+            if ("rubf".indexOf(c) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    private void number() {
+        int start = pos;
+        char c = s.charAt(pos);
+        char next = pos + 1 < s.length() ? Character.toLowerCase(s.charAt(pos + 1)) : 0;
+
+        if (c == '0' && (next == 'x' || next == 'o' || next == 'b')) {
+            pos += 2;
+            while (pos < s.length() && (Character.isLetterOrDigit(s.charAt(pos)) || s.charAt(pos) == '_')) {
+                pos++;
+            }
+        } else {
+            digits();
+            if (pos < s.length() && s.charAt(pos) == '.') {
+                pos++;
+                digits();
+            }
+            if (pos < s.length() && (s.charAt(pos) == 'e' || s.charAt(pos) == 'E')) {
+                int save = pos;
+                pos++;
+                if (pos < s.length() && (s.charAt(pos) == '+' || s.charAt(pos) == '-')) {
+                    pos++;
+                }
+                if (pos < s.length() && Character.isDigit(s.charAt(pos))) {
+                    digits();
+                } else {
+                    pos = save;
+                }
+            }
+            if (pos < s.length() && "jJlL".indexOf(s.charAt(pos)) >= 0) {
+                pos++;
+            }
+        }
+        add(Token.Kind.NUMBER, s.substring(start, pos), start, pos);
+    }
+
+
+    private void digits() {
+        while (pos < s.length() && (Character.isDigit(s.charAt(pos)) || s.charAt(pos) == '_')) {
+            pos++;
+        }
+    }
+
+
+    // a string literal with its prefix and quotes, decoded later by the parser
+    private void string(int start) throws ParseError {
+        while (s.charAt(pos) != '"' && s.charAt(pos) != '\'') {
+            pos++;
+        }
+        int startLine = line;
+        int startCol = start - lineStart;
+        char quote = s.charAt(pos);
+        boolean triple = s.startsWith("" + quote + quote + quote, pos);
+        pos += triple ? 3 : 1;
+
+        while (true) {
+            if (pos >= s.length()) {
+                throw new ParseError("EOF while scanning string literal", startLine);
+            }
+            char c = s.charAt(pos);
+            if (c == '\\') {
+                pos++;
+                if (pos < s.length()) {
+                    if (isLineBreak(pos)) {
+                        newline();
+                    } else {
+                        pos++;
+                    }
+                }
+            } else if (c == quote && (!triple || s.startsWith("" + quote + quote + quote, pos))) {
+                pos += triple ? 3 : 1;
+                break;
+            } else if (c == '\n' || c == '\r') {
+                if (!triple) {
+                    throw new ParseError("EOL while scanning string literal", startLine);
+                }
+                newline();
+            } else {
+                pos++;
+            }
+        }
+        tokens.add(new Token(Token.Kind.STRING, s.substring(start, pos), start, pos, startLine, startCol));
+    }
+
+
+    private void operator() throws ParseError {
+        for (String op : OPERATORS) {
+            if (s.startsWith(op, pos)) {
+                char c = op.charAt(0);
+                if (op.length() == 1 && (c == '(' || c == '[' || c == '{')) {
+                    depth++;
+                } else if (op.length() == 1 && (c == ')' || c == ']' || c == '}') && depth > 0) {
+                    depth--;
+                }
+                add(Token.Kind.OP, op, pos, pos + op.length());
+                pos += op.length();
+                return;
+            }
+        }
+        throw new ParseError("invalid character '" + s.charAt(pos) + "'", line);
+    }
+
+
+    private void add(@NotNull Token.Kind kind, @NotNull String text, int start, int end) {
+        tokens.add(new Token(kind, text, start, end, line, start - lineStart));
+    }
+
+
+    @NotNull
+    private Token last() {
+        return tokens.get(tokens.size() - 1);
+    }
+
+
+    private static boolean isIdentifierStart(char c) {
+        return c == '_' || Character.isUnicodeIdentifierStart(c);
+    }
+
+
+    private static boolean isIdentifierPart(char c) {
+        return c == '_' || Character.isUnicodeIdentifierPart(c);
+    }
+}
@@ -0,0 +1,17 @@
+package org.yinwang.pysonar.parser;
+
+/**
+ * Syntax the Java parser does not accept, with the line it was found on.
+ */
+public class ParseError extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    public final int line;
+
+
+    public ParseError(String message, int line) {
+        super(message + " at line " + line);
+        this.line = line;
+    }
+}
@@ -0,0 +1,1644 @@
+package org.yinwang.pysonar.parser;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.yinwang.pysonar.$;
+import org.yinwang.pysonar.LineIndex;
+import org.yinwang.pysonar.ParserBackend;
+import org.yinwang.pysonar.ast.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static org.yinwang.pysonar.parser.Token.Kind.*;
+
+
+/**
+ * A recursive descent parser for Python 2 and 3 that runs in the JVM. It
+ * builds the same tree that {@link org.yinwang.pysonar.Parser} converts from
+ * the interpreters' output, desugaring chained and augmented assignments,
+ * comparisons and boolean operators the same way.
+ * <p>
+ * Instead of trying one grammar and then the other, it accepts the union of
+ * both: print and exec statements, backquotes, {@code <>} and
+ * {@code except E, e} next to annotations, keyword-only parameters, async and
+ * await, {@code yield from} and starred expressions. {@code print} and
+ * {@code exec} are statements when followed by something that isn't a call,
+ * assignment or other use of the name.
+ */
+public class PythonParser implements ParserBackend {
+
+    private static final Logger LOG = Logger.getLogger(PythonParser.class.getCanonicalName());
+
+    // names that can't start an expression in either version
+    private static final Set<String> RESERVED = new HashSet<>(Arrays.asList(
+            "and", "as", "assert", "break", "class", "continue", "def", "del", "elif", "else", "except",
+            "finally", "for", "from", "global", "if", "import", "in", "is", "lambda", "not", "or", "pass",
+            "raise", "return", "try", "while", "with", "yield"));
+
+    private static final Map<String, Op> BINARY_OPERATORS = new HashMap<>();
+
+    static {
+        BINARY_OPERATORS.put("|", Op.BitOr);
+        BINARY_OPERATORS.put("^", Op.BitXor);
+        BINARY_OPERATORS.put("&", Op.BitAnd);
+        BINARY_OPERATORS.put("<<", Op.LShift);
+        BINARY_OPERATORS.put(">>", Op.RShift);
+        BINARY_OPERATORS.put("+", Op.Add);
+        BINARY_OPERATORS.put("-", Op.Sub);
+        BINARY_OPERATORS.put("*", Op.Mul);
+        BINARY_OPERATORS.put("@", Op.MatMult);
+        BINARY_OPERATORS.put("/", Op.Div);
+        BINARY_OPERATORS.put("%", Op.Mod);
+        BINARY_OPERATORS.put("//", Op.FloorDiv);
+        BINARY_OPERATORS.put("**", Op.Pow);
+    }
+
+    // binary operators from the loosest to the tightest binding
+    private static final String[][] BINARY_LEVELS = {
+            {"|"}, {"^"}, {"&"}, {"<<", ">>"}, {"+", "-"}, {"*", "@", "/", "%", "//"}
+    };
+
+
+    private static class Parameters {
+        List<Node> args = new ArrayList<>();
+        List<Node> defaults = new ArrayList<>();
+        Name vararg;
+        Name kwarg;
+    }
+
+
+    private static class Arguments {
+        List<Node> args = new ArrayList<>();
+        List<Keyword> keywords = new ArrayList<>();
+        Node starargs;
+        Node kwargs;
+    }
+
+
+    private String file;
+    private List<Token> tokens;
+    private int pos;
+
+
+    @NotNull
+    @Override
+    public String getName() {
+        return "java";
+    }
+
+
+    @Nullable
+    @Override
+    public Node parseFile(String filename) {
+        String source = $.readFile(filename);
+        if (source == null) {
+            return null;
+        }
+        try {
+            return parse(source, filename);
+        } catch (ParseError e) {
+            LOG.log(Level.FINE, "Failed to parse " + filename + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+
+    @Override
+    public void close() {
+    }
+
+
+    @NotNull
+    public Module parse(@NotNull String source, String filename) throws ParseError {
+        file = filename;
+        // a byte order mark counts as a space, as in dump_python.py
+        if (source.startsWith("\ufeff")) {
+            source = " " + source.substring(1);
+        }
+        tokens = new Lexer(source).tokenize();
+        pos = 0;
+
+        List<Node> body = new ArrayList<>();
+        while (!at(EOF)) {
+            if (!accept(NEWLINE)) {
+                statement(body);
+            }
+        }
+        Module module = new Module(block(body), file, 0, source.length(), 1, 1);
+        // tokens are close enough to nodes to weigh the tree
+        module.nodeCount = tokens.size();
+        module.lineStarts = new LineIndex(source).getStarts();
+        return module;
+    }
+
+
+    //-------------------------------------------------------------
+    //                        statements
+    //-------------------------------------------------------------
+
+    private void statement(@NotNull List<Node> out) throws ParseError {
+        Token t = peek();
+        if (t.is("if")) {
+            out.add(ifStatement());
+        } else if (t.is("while")) {
+            out.add(whileStatement());
+        } else if (t.is("for")) {
+            out.add(forStatement(t, false));
+        } else if (t.is("try")) {
+            out.add(tryStatement());
+        } else if (t.is("with")) {
+            out.add(withStatement(t, false));
+        } else if (t.is("def")) {
+            out.add(functionDef(t, new ArrayList<>(), false));
+        } else if (t.is("class")) {
+            out.add(classDef());
+        } else if (t.is("@")) {
+            out.add(decorated());
+        } else if (t.is("async") && (peek(1).is("def") || peek(1).is("for") || peek(1).is("with"))) {
+            next();
+            if (at("def")) {
+                out.add(functionDef(t, new ArrayList<>(), true));
+            } else if (at("for")) {
+                out.add(forStatement(t, true));
+            } else {
+                out.add(withStatement(t, true));
+            }
+        } else {
+            simpleStatement(out);
+        }
+    }
+
+
+    private void simpleStatement(@NotNull List<Node> out) throws ParseError {
+        out.add(smallStatement());
+        while (accept(";")) {
+            if (at(NEWLINE)) {
+                break;
+            }
+            out.add(smallStatement());
+        }
+        expect(NEWLINE);
+    }
+
+
+    @NotNull
+    private Block suite() throws ParseError {
+        List<Node> body = new ArrayList<>();
+        if (accept(NEWLINE)) {
+            expect(INDENT);
+            while (!accept(DEDENT)) {
+                if (!accept(NEWLINE)) {
+                    statement(body);
+                }
+            }
+        } else {
+            simpleStatement(body);
+        }
+        return new Block(body, file, 0, 0, 0, 0);
+    }
+
+
+    @NotNull
+    private Node ifStatement() throws ParseError {
+        Token first = next();       // if or elif
+        Node test = namedTest();
+        expect(":");
+        Block body = suite();
+        Block orelse = null;
+        if (at("elif")) {
+            orelse = block(ifStatement());
+        } else if (accept("else")) {
+            expect(":");
+            orelse = suite();
+        }
+        return new If(test, body, orelse, file, first.start, lastEnd(), first.line, first.col + 1);
+    }
+
+
+    @NotNull
+    private Node whileStatement() throws ParseError {
+        Token first = next();
+        Node test = namedTest();
+        expect(":");
+        Block body = suite();
+        Block orelse = null;
+        if (accept("else")) {
+            expect(":");
+            orelse = suite();
+        }
+        return new While(test, body, orelse, file, first.start, lastEnd(), first.line, first.col + 1);
+    }
+
+
+    @NotNull
+    private Node forStatement(@NotNull Token first, boolean isAsync) throws ParseError {
+        expect("for");
+        Node target = exprList();
+        expect("in");
+        Node iter = testList(true);
+        expect(":");
+        Block body = suite();
+        Block orelse = null;
+        if (accept("else")) {
+            expect(":");
+            orelse = suite();
+        }
+        return new For(target, iter, body, orelse, isAsync, file, first.start, lastEnd(), first.line, first.col + 1);
+    }
+
+
+    @NotNull
+    private Node tryStatement() throws ParseError {
+        Token first = next();
+        expect(":");
+        Block body = suite();
+
+        List<Handler> handlers = new ArrayList<>();
+        while (at("except")) {
+            Token h = next();
+            accept("*");
+            List<Node> exceptions = null;
+            Node binder = null;
+            if (!at(":")) {
+                exceptions = new ArrayList<>();
+                exceptions.add(test());
+                if (accept("as") || accept(",")) {
+                    binder = test();
+                }
+            }
+            expect(":");
+            Block handlerBody = suite();
+            handlers.add(new Handler(exceptions, binder, handlerBody, file, h.start, lastEnd(), h.line, h.col + 1));
+        }
+
+        Block orelse = null;
+        if (accept("else")) {
+            expect(":");
+            orelse = suite();
+        }
+        Block finalbody = null;
+        if (accept("finally")) {
+            expect(":");
+            finalbody = suite();
+        }
+        if (handlers.isEmpty() && finalbody == null) {
+            throw error("expected except or finally");
+        }
+        return new Try(handlers, body, orelse, finalbody, file, first.start, lastEnd(), first.line, first.col + 1);
+    }
+
+
+    @NotNull
+    private Node withStatement(@NotNull Token first, boolean isAsync) throws ParseError {
+        expect("with");
+        List<Withitem> items = null;
+
+        // with (a as b, c as d): is only told from a parenthesized expression by trying
+        if (at("(")) {
+            int save = pos;
+            try {
+                next();
+                items = withItems(")");
+                expect(")");
+                expect(":");
+            } catch (ParseError e) {
+                pos = save;
+                items = null;
+            }
+        }
+        if (items == null) {
+            items = withItems(":");
+            expect(":");
+        }
+
+        Block body = suite();
+        return new With(items, body, file, isAsync, first.start, lastEnd(), first.line, first.col + 1);
+    }
+
+
+    @NotNull
+    private List<Withitem> withItems(@NotNull String close) throws ParseError {
+        List<Withitem> items = new ArrayList<>();
+        do {
+            if (at(close)) {
+                break;
+            }
+            Node context = test();
+            Node vars = accept("as") ? expr() : null;
+            items.add(new Withitem(context, vars, file, context.start, lastEnd(), context.line, context.col));
+        } while (accept(","));
+        return items;
+    }
+
+
+    @NotNull
+    private Node decorated() throws ParseError {
+        List<Node> decorators = new ArrayList<>();
+        while (accept("@")) {
+            decorators.add(namedTest());
+            expect(NEWLINE);
+        }
+
+        Token t = peek();
+        if (t.is("def")) {
+            return functionDef(t, decorators, false);
+        } else if (t.is("async") && peek(1).is("def")) {
+            next();
+            return functionDef(t, decorators, true);
+        } else if (t.is("class")) {
+            // class decorators have no place in the tree
+            return classDef();
+        } else {
+            throw error("expected def or class after decorator");
+        }
+    }
+
+
+    @NotNull
+    private Node functionDef(@NotNull Token first, @NotNull List<Node> decorators, boolean isAsync) throws ParseError {
+        expect("def");
+        Name name = nameNode(expect(NAME));
+        expect("(");
+        Parameters params = parameters(")", true);
+        expect(")");
+        if (accept("->")) {
+            test();
+        }
+        expect(":");
+        Block body = suite();
+        return new FunctionDef(name, params.args, body, params.defaults, params.vararg, params.kwarg, decorators,
+                file, isAsync, first.start, lastEnd(), first.line, first.col + 1);
+    }
+
+
+    /**
+     * Parameters of a def or lambda, up to {@code close}. Keyword-only
+     * parameters are left out, as in the trees converted from Python 3.
+     */
+    @NotNull
+    private Parameters parameters(@NotNull String close, boolean annotated) throws ParseError {
+        Parameters params = new Parameters();
+        boolean keywordOnly = false;
+
+        while (!at(close)) {
+            if (accept("*")) {
+                if (at(NAME)) {
+                    params.vararg = nameNode(next());
+                    annotation(annotated);
+                }
+                keywordOnly = true;
+            } else if (accept("**")) {
+                params.kwarg = nameNode(expect(NAME));
+                annotation(annotated);
+            } else if (!accept("/")) {
+                Node param = at("(") ? tupleParameter() : nameNode(expect(NAME));
+                annotation(annotated);
+                Node defaultValue = accept("=") ? test() : null;
+                if (!keywordOnly) {
+                    params.args.add(param);
+                    if (defaultValue != null) {
+                        params.defaults.add(defaultValue);
+                    }
+                }
+            }
+            if (!accept(",")) {
+                break;
+            }
+        }
+        return params;
+    }
+
+
+    private void annotation(boolean annotated) throws ParseError {
+        if (annotated && accept(":")) {
+            test();
+        }
+    }
+
+
+    // Python 2 unpacks arguments in the parameter list: def f(a, (b, c))
+    @NotNull
+    private Node tupleParameter() throws ParseError {
+        Token open = expect("(");
+        List<Node> elts = new ArrayList<>();
+        while (!at(")")) {
+            elts.add(at("(") ? tupleParameter() : nameNode(expect(NAME)));
+            if (!accept(",")) {
+                break;
+            }
+        }
+        expect(")");
+        return new Tuple(elts, file, open.start, lastEnd(), open.line, open.col + 1);
+    }
+
+
+    @NotNull
+    private Node classDef() throws ParseError {
+        Token first = expect("class");
+        Name name = nameNode(expect(NAME));
+        List<Node> bases = new ArrayList<>();
+        if (accept("(")) {
+            // keywords such as metaclass= are not bases
+            bases.addAll(arguments().args);
+            expect(")");
+        }
+        expect(":");
+        Block body = suite();
+        return new ClassDef(name, bases, body, file, first.start, lastEnd(), first.line, first.col + 1);
+    }
+
+
+    @NotNull
+    private Node smallStatement() throws ParseError {
+        Token t = peek();
+        if (t.kind == NAME) {
+            switch (t.text) {
+                case "pass":
+                    next();
+                    return new Pass(file, t.start, t.end, t.line, t.col + 1);
+                case "break":
+                    next();
+                    return new Break(file, t.start, t.end, t.line, t.col + 1);
+                case "continue":
+                    next();
+                    return new Continue(file, t.start, t.end, t.line, t.col + 1);
+                case "return": {
+                    next();
+                    Node value = atEndOfStatement() ? null : testList(true);
+                    return new Return(value, file, t.start, lastEnd(), t.line, t.col + 1);
+                }
+                case "raise":
+                    return raiseStatement();
+                case "global":
+                    return globalStatement();
+                case "nonlocal":
+                    if (peek(1).kind == NAME) {
+                        return globalStatement();
+                    }
+                    break;
+                case "import":
+                    return importStatement();
+                case "from":
+                    return importFrom();
+                case "del": {
+                    next();
+                    List<Node> targets = new ArrayList<>();
+                    do {
+                        if (atEndOfStatement()) {
+                            break;
+                        }
+                        targets.add(exprOrStar());
+                    } while (accept(","));
+                    return new Delete(targets, file, t.start, lastEnd(), t.line, t.col + 1);
+                }
+                case "assert": {
+                    next();
+                    Node test = test();
+                    Node msg = accept(",") ? test() : null;
+                    return new Assert(test, msg, file, t.start, lastEnd(), t.line, t.col + 1);
+                }
+                case "print":
+                    if (isPrintStatement()) {
+                        return printStatement();
+                    }
+                    break;
+                case "exec":
+                    if (isExecStatement()) {
+                        return execStatement();
+                    }
+                    break;
+            }
+        }
+        return exprStatement();
+    }
+
+
+    @NotNull
+    private Node raiseStatement() throws ParseError {
+        Token first = next();
+        Node type = null;
+        Node inst = null;
+        Node tback = null;
+        if (!atEndOfStatement()) {
+            type = test();
+            if (accept("from")) {
+                // the cause takes the place of Python 2's instance
+                inst = test();
+            } else if (accept(",")) {
+                inst = test();
+                if (accept(",")) {
+                    tback = test();
+                }
+            }
+        }
+        return new Raise(type, inst, tback, file, first.start, lastEnd(), first.line, first.col + 1);
+    }
+
+
+    @NotNull
+    private Node globalStatement() throws ParseError {
+        Token first = next();
+        List<Name> names = new ArrayList<>();
+        do {
+            names.add(nameNode(expect(NAME)));
+        } while (accept(","));
+        return new Global(names, file, first.start, lastEnd(), first.line, first.col + 1);
+    }
+
+
+    @NotNull
+    private Node importStatement() throws ParseError {
+        Token first = next();
+        List<Alias> aliases = new ArrayList<>();
+        do {
+            Token a = peek();
+            List<Name> names = dottedName();
+            Name asname = accept("as") ? nameNode(expect(NAME)) : null;
+            aliases.add(new Alias(names, asname, file, a.start, lastEnd(), a.line, a.col + 1));
+        } while (accept(","));
+        return new Import(aliases, file, first.start, lastEnd(), first.line, first.col + 1);
+    }
+
+
+    @NotNull
+    private Node importFrom() throws ParseError {
+        Token first = next();
+        int level = 0;
+        while (at(".") || at("...")) {
+            level += next().text.length();
+        }
+        List<Name> module = at("import") ? null : dottedName();
+        expect("import");
+
+        List<Alias> aliases = new ArrayList<>();
+        if (at("*")) {
+            Token star = next();
+            List<Name> names = new ArrayList<>();
+            names.add(nameNode(star));
+            aliases.add(new Alias(names, null, file, star.start, star.end, star.line, star.col + 1));
+        } else {
+            boolean parenthesized = accept("(");
+            do {
+                if (parenthesized && at(")")) {
+                    break;
+                }
+                Token a = expect(NAME);
+                List<Name> names = new ArrayList<>();
+                names.add(nameNode(a));
+                Name asname = accept("as") ? nameNode(expect(NAME)) : null;
+                aliases.add(new Alias(names, asname, file, a.start, lastEnd(), a.line, a.col + 1));
+            } while (accept(","));
+            if (parenthesized) {
+                expect(")");
+            }
+        }
+        return new ImportFrom(module, aliases, level, file, first.start, lastEnd(), first.line, first.col + 1);
+    }
+
+
+    @NotNull
+    private List<Name> dottedName() throws ParseError {
+        List<Name> names = new ArrayList<>();
+        names.add(nameNode(expect(NAME)));
+        while (accept(".")) {
+            names.add(nameNode(expect(NAME)));
+        }
+        return names;
+    }
+
+
+    // print x, print >>f, x and a bare print; print(x) and print = x are left to expressions
+    private boolean isPrintStatement() {
+        Token next = peek(1);
+        switch (next.kind) {
+            case NEWLINE:
+            case EOF:
+            case NUMBER:
+            case STRING:
+                return true;
+            case NAME:
+                return !RESERVED.contains(next.text) || next.is("not") || next.is("lambda");
+            default:
+                return next.is(";") || next.is(">>") || next.is("[") || next.is("{") || next.is("`") ||
+                        next.is("-") || next.is("+") || next.is("~");
+        }
+    }
+
+
+    @NotNull
+    private Node printStatement() throws ParseError {
+        Token first = next();
+        Node dest = null;
+        List<Node> values = new ArrayList<>();
+        if (accept(">>")) {
+            dest = test();
+            if (!accept(",")) {
+                return new Print(dest, values, file, first.start, lastEnd(), first.line, first.col + 1);
+            }
+        }
+        while (!atEndOfStatement()) {
+            values.add(test());
+            if (!accept(",")) {
+                break;
+            }
+        }
+        return new Print(dest, values, file, first.start, lastEnd(), first.line, first.col + 1);
+    }
+
+
+    // exec code [in globals[, locals]]; exec(code) is left to expressions
+    private boolean isExecStatement() {
+        Token next = peek(1);
+        return next.kind == STRING || (next.kind == NAME && !RESERVED.contains(next.text));
+    }
+
+
+    @NotNull
+    private Node execStatement() throws ParseError {
+        Token first = next();
+        Node body = expr();
+        Node globals = null;
+        Node locals = null;
+        if (accept("in")) {
+            globals = test();
+            if (accept(",")) {
+                locals = test();
+            }
+        }
+        return new Exec(body, globals, locals, file, first.start, lastEnd(), first.line, first.col + 1);
+    }
+
+
+    @NotNull
+    private Node exprStatement() throws ParseError {
+        Token first = peek();
+        Node e = at("yield") ? yieldExpr() : testList(true);
+
+        // annotated assignment; a bare annotation binds nothing
+        if (accept(":")) {
+            Node annotation = test();
+            if (accept("=")) {
+                Node value = at("yield") ? yieldExpr() : testList(true);
+                return new Assign(e, value, file, first.start, lastEnd(), first.line, first.col + 1);
+            }
+            return new Expr(annotation, file, annotation.start, annotation.end, annotation.line, annotation.col);
+        }
+
+        Op augmented = augmentedOp(peek());
+        if (augmented != null) {
+            next();
+            Node value = at("yield") ? yieldExpr() : testList(false);
+            Node operation = new BinOp(augmented, e, value, file, e.start, value.end, value.line, value.col);
+            return new Assign(e, operation, file, first.start, lastEnd(), first.line, first.col + 1);
+        }
+
+        if (!at("=")) {
+            return new Expr(e, file, first.start, lastEnd(), first.line, first.col + 1);
+        }
+
+        List<Node> targets = new ArrayList<>();
+        targets.add(e);
+        while (accept("=")) {
+            targets.add(at("yield") ? yieldExpr() : testList(true));
+        }
+        Node value = targets.remove(targets.size() - 1);
+        int start = first.start;
+        int end = lastEnd();
+        int line = first.line;
+        int col = first.col + 1;
+
+        // x = y = z = 1 becomes z = 1; y = z; x = z
+        if (targets.size() == 1) {
+            return new Assign(targets.get(0), value, file, start, end, line, col);
+        } else {
+            List<Node> assignments = new ArrayList<>();
+            Node lastTarget = targets.get(targets.size() - 1);
+            assignments.add(new Assign(lastTarget, value, file, start, end, line, col));
+            for (int i = targets.size() - 2; i >= 0; i--) {
+                assignments.add(new Assign(targets.get(i), lastTarget, file, start, end, line, col));
+            }
+            return new Block(assignments, file, start, end, line, col);
+        }
+    }
+
+
+    @Nullable
+    private static Op augmentedOp(@NotNull Token t) {
+        if (t.kind != OP || t.text.length() < 2 || !t.text.endsWith("=")) {
+            return null;
+        }
+        return BINARY_OPERATORS.get(t.text.substring(0, t.text.length() - 1));
+    }
+
+
+    //-------------------------------------------------------------
+    //                        expressions
+    //-------------------------------------------------------------
+
+    // test or star_expr items separated by commas; more than one makes a tuple
+    @NotNull
+    private Node testList(boolean allowStar) throws ParseError {
+        Token first = peek();
+        Node e = allowStar ? testOrStar() : test();
+        if (!at(",")) {
+            return e;
+        }
+        List<Node> elts = new ArrayList<>();
+        elts.add(e);
+        while (accept(",")) {
+            if (!startsExpression()) {
+                break;
+            }
+            elts.add(allowStar ? testOrStar() : test());
+        }
+        return new Tuple(elts, file, first.start, lastEnd(), first.line, first.col + 1);
+    }
+
+
+    // assignment targets of for and comprehensions, which stop before "in"
+    @NotNull
+    private Node exprList() throws ParseError {
+        Token first = peek();
+        Node e = exprOrStar();
+        if (!at(",")) {
+            return e;
+        }
+        List<Node> elts = new ArrayList<>();
+        elts.add(e);
+        while (accept(",")) {
+            if (!startsExpression()) {
+                break;
+            }
+            elts.add(exprOrStar());
+        }
+        return new Tuple(elts, file, first.start, lastEnd(), first.line, first.col + 1);
+    }
+
+
+    @NotNull
+    private Node testOrStar() throws ParseError {
+        return at("*") ? starred() : test();
+    }
+
+
+    @NotNull
+    private Node exprOrStar() throws ParseError {
+        return at("*") ? starred() : expr();
+    }
+
+
+    @NotNull
+    private Node starred() throws ParseError {
+        Token first = expect("*");
+        Node value = expr();
+        return new Starred(value, file, first.start, lastEnd(), first.line, first.col + 1);
+    }
+
+
+    // the value of a walrus is what the tree keeps, it has no node for the binding
+    @NotNull
+    private Node namedTest() throws ParseError {
+        Node e = test();
+        if (e instanceof Name && accept(":=")) {
+            return test();
+        }
+        return e;
+    }
+
+
+    @NotNull
+    private Node test() throws ParseError {
+        if (at("lambda")) {
+            return lambda(true);
+        }
+        Token first = peek();
+        Node e = orTest();
+        if (accept("if")) {
+            Node test = orTest();
+            expect("else");
+            Node orelse = test();
+            return new IfExp(test, e, orelse, file, first.start, lastEnd(), first.line, first.col + 1);
+        }
+        return e;
+    }
+
+
+    // the condition of a comprehension, where "if" can't start a conditional expression
+    @NotNull
+    private Node testNoCond() throws ParseError {
+        return at("lambda") ? lambda(false) : orTest();
+    }
+
+
+    @NotNull
+    private Node lambda(boolean allowConditional) throws ParseError {
+        Token first = next();
+        Parameters params = parameters(":", false);
+        expect(":");
+        Node body = allowConditional ? test() : testNoCond();
+        return new FunctionDef(null, params.args, body, params.defaults, params.vararg, params.kwarg,
+                new ArrayList<>(), file, false, first.start, lastEnd(), first.line, first.col + 1);
+    }
+
+
+    @NotNull
+    private Node orTest() throws ParseError {
+        return booleanOp("or", Op.Or);
+    }
+
+
+    @NotNull
+    private Node andTest() throws ParseError {
+        return booleanOp("and", Op.And);
+    }
+
+
+    // a or b or c folds into (a or b) or c, every level spanning the whole expression
+    @NotNull
+    private Node booleanOp(@NotNull String keyword, @NotNull Op op) throws ParseError {
+        Token first = peek();
+        Node left = keyword.equals("or") ? andTest() : notTest();
+        if (!at(keyword)) {
+            return left;
+        }
+        List<Node> values = new ArrayList<>();
+        values.add(left);
+        while (accept(keyword)) {
+            values.add(keyword.equals("or") ? andTest() : notTest());
+        }
+        int end = lastEnd();
+        Node ret = new BinOp(op, values.get(0), values.get(1), file, first.start, end, first.line, first.col + 1);
+        for (int i = 2; i < values.size(); i++) {
+            ret = new BinOp(op, ret, values.get(i), file, first.start, end, first.line, first.col + 1);
+        }
+        return ret;
+    }
+
+
+    @NotNull
+    private Node notTest() throws ParseError {
+        if (at("not")) {
+            Token first = next();
+            Node operand = notTest();
+            return new UnaryOp(Op.Not, operand, file, first.start, lastEnd(), first.line, first.col + 1);
+        }
+        return comparison();
+    }
+
+
+    // a < b < c folds into (a < b) and (b < c)
+    @NotNull
+    private Node comparison() throws ParseError {
+        Token first = peek();
+        Node left = expr();
+        List<Op> ops = new ArrayList<>();
+        List<Node> comparators = new ArrayList<>();
+        Op op;
+        while ((op = comparisonOp()) != null) {
+            ops.add(op);
+            comparators.add(expr());
+        }
+        if (ops.isEmpty()) {
+            return left;
+        }
+
+        int start = first.start;
+        int end = lastEnd();
+        int line = first.line;
+        int col = first.col + 1;
+        Node result = new BinOp(ops.get(0), left, comparators.get(0), file, start, end, line, col);
+        for (int i = 1; i < comparators.size(); i++) {
+            Node compNext = new BinOp(ops.get(i), comparators.get(i - 1), comparators.get(i), file, start, end, line, col);
+            result = new BinOp(Op.And, result, compNext, file, start, end, line, col);
+        }
+        return result;
+    }
+
+
+    // same operators as Parser.convertOp gives for the interpreters' names
+    @Nullable
+    private Op comparisonOp() {
+        Token t = peek();
+        if (t.kind == OP) {
+            switch (t.text) {
+                case "<":
+                    next();
+                    return Op.Lt;
+                case ">":
+                    next();
+                    return Op.Gt;
+                case "==":
+                    next();
+                    return Op.Equal;
+                case "<=":
+                    next();
+                    return Op.LtE;
+                case ">=":
+                    next();
+                    return Op.GtE;
+                case "!=":
+                case "<>":
+                    next();
+                    return Op.NotEqual;
+            }
+        } else if (t.is("in")) {
+            next();
+            return Op.In;
+        } else if (t.is("not") && peek(1).is("in")) {
+            next();
+            next();
+            return Op.NotIn;
+        } else if (t.is("is")) {
+            next();
+            return accept("not") ? Op.NotEq : Op.Eq;
+        }
+        return null;
+    }
+
+
+    @NotNull
+    private Node expr() throws ParseError {
+        return binary(0);
+    }
+
+
+    @NotNull
+    private Node binary(int level) throws ParseError {
+        if (level == BINARY_LEVELS.length) {
+            return factor();
+        }
+        Node left = binary(level + 1);
+        while (true) {
+            Token t = peek();
+            if (t.kind != OP || !Arrays.asList(BINARY_LEVELS[level]).contains(t.text)) {
+                return left;
+            }
+            next();
+            Node right = binary(level + 1);
+            left = new BinOp(BINARY_OPERATORS.get(t.text), left, right, file, left.start, right.end, left.line, left.col);
+        }
+    }
+
+
+    @NotNull
+    private Node factor() throws ParseError {
+        Token t = peek();
+        Op op = null;
+        if (t.is("+")) {
+            op = Op.Add;
+        } else if (t.is("-")) {
+            op = Op.Sub;
+        } else if (t.is("~")) {
+            op = Op.Invert;
+        }
+        if (op == null) {
+            return power();
+        }
+        next();
+        Node operand = factor();
+        return new UnaryOp(op, operand, file, t.start, lastEnd(), t.line, t.col + 1);
+    }
+
+
+    @NotNull
+    private Node power() throws ParseError {
+        Token first = peek();
+        Node e;
+        if (first.is("await") && startsAtom(peek(1))) {
+            next();
+            Node value = atomExpr();
+            e = new Await(value, file, first.start, lastEnd(), first.line, first.col + 1);
+        } else {
+            e = atomExpr();
+        }
+        if (accept("**")) {
+            Node right = factor();
+            e = new BinOp(Op.Pow, e, right, file, e.start, right.end, e.line, e.col);
+        }
+        return e;
+    }
+
+
+    @NotNull
+    private Node atomExpr() throws ParseError {
+        Node e = atom();
+        while (true) {
+            if (accept("(")) {
+                Arguments a = arguments();
+                expect(")");
+                e = new Call(e, a.args, a.keywords, a.kwargs, a.starargs, file, e.start, lastEnd(), e.line, e.col);
+            } else if (accept("[")) {
+                Node slice = subscripts();
+                expect("]");
+                e = new Subscript(e, slice, file, e.start, lastEnd(), e.line, e.col);
+            } else if (accept(".")) {
+                Name attr = nameNode(expect(NAME));
+                e = new Attribute(e, attr, file, e.start, lastEnd(), e.line, e.col);
+            } else {
+                return e;
+            }
+        }
+    }
+
+
+    @NotNull
+    private Node atom() throws ParseError {
+        Token t = peek();
+        switch (t.kind) {
+            case NAME:
+                if (RESERVED.contains(t.text)) {
+                    throw error("invalid syntax");
+                }
+                next();
+                return nameNode(t);
+            case NUMBER:
+                next();
+                return number(t);
+            case STRING:
+                return strings();
+            case OP:
+                switch (t.text) {
+                    case "(":
+                        return parenthesized();
+                    case "[":
+                        return listDisplay();
+                    case "{":
+                        return dictOrSet();
+                    case "`": {
+                        next();
+                        Node value = testList(false);
+                        expect("`");
+                        return new Repr(value, file, t.start, lastEnd(), t.line, t.col + 1);
+                    }
+                    case "...":
+                        next();
+                        return new Ellipsis(file, t.start, t.end, t.line, t.col + 1);
+                }
+        }
+        throw error("invalid syntax");
+    }
+
+
+    @NotNull
+    private Node parenthesized() throws ParseError {
+        Token open = next();
+        if (accept(")")) {
+            return new Tuple(new ArrayList<>(), file, open.start, lastEnd(), open.line, open.col + 1);
+        }
+        if (at("yield")) {
+            Node y = yieldExpr();
+            expect(")");
+            return y;
+        }
+
+        Node first = at("*") ? starred() : namedTest();
+        if (isCompFor()) {
+            List<Comprehension> generators = compFor();
+            expect(")");
+            return new GeneratorExp(first, generators, file, open.start, lastEnd(), open.line, open.col + 1);
+        }
+        if (accept(")")) {
+            return first;
+        }
+
+        List<Node> elts = new ArrayList<>();
+        elts.add(first);
+        while (accept(",")) {
+            if (at(")")) {
+                break;
+            }
+            elts.add(testOrStar());
+        }
+        expect(")");
+        return new Tuple(elts, file, open.start, lastEnd(), open.line, open.col + 1);
+    }
+
+
+    @NotNull
+    private Node listDisplay() throws ParseError {
+        Token open = next();
+        List<Node> elts = new ArrayList<>();
+        if (!at("]")) {
+            Node first = testOrStar();
+            if (isCompFor()) {
+                List<Comprehension> generators = compFor();
+                expect("]");
+                return new ListComp(first, generators, file, open.start, lastEnd(), open.line, open.col + 1);
+            }
+            elts.add(first);
+            while (accept(",")) {
+                if (at("]")) {
+                    break;
+                }
+                elts.add(testOrStar());
+            }
+        }
+        expect("]");
+        return new PyList(elts, file, open.start, lastEnd(), open.line, open.col + 1);
+    }
+
+
+    @NotNull
+    private Node dictOrSet() throws ParseError {
+        Token open = next();
+        List<Node> keys = new ArrayList<>();
+        List<Node> values = new ArrayList<>();
+        List<Node> elts = new ArrayList<>();
+        boolean isDict = true;      // {} is a dict
+        boolean first = true;
+
+        while (!at("}")) {
+            if (accept("**")) {
+                // the tree has no place for {**other}, its entries are dropped
+                expr();
+            } else {
+                Node key = testOrStar();
+                if (first && !at(":")) {
+                    isDict = false;
+                }
+                if (isDict) {
+                    expect(":");
+                    Node value = test();
+                    if (first && isCompFor()) {
+                        List<Comprehension> generators = compFor();
+                        expect("}");
+                        return new DictComp(key, value, generators, file, open.start, lastEnd(), open.line, open.col + 1);
+                    }
+                    keys.add(key);
+                    values.add(value);
+                } else {
+                    if (first && isCompFor()) {
+                        List<Comprehension> generators = compFor();
+                        expect("}");
+                        return new SetComp(key, generators, file, open.start, lastEnd(), open.line, open.col + 1);
+                    }
+                    elts.add(key);
+                }
+            }
+            first = false;
+            if (!accept(",")) {
+                break;
+            }
+        }
+        expect("}");
+
+        if (isDict) {
+            return new Dict(keys, values, file, open.start, lastEnd(), open.line, open.col + 1);
+        } else {
+            return new PySet(elts, file, open.start, lastEnd(), open.line, open.col + 1);
+        }
+    }
+
+
+    private boolean isCompFor() {
+        return at("for") || (at("async") && peek(1).is("for"));
+    }
+
+
+    @NotNull
+    private List<Comprehension> compFor() throws ParseError {
+        List<Comprehension> generators = new ArrayList<>();
+        while (isCompFor()) {
+            Token first = peek();
+            accept("async");
+            expect("for");
+            Node target = exprList();
+            expect("in");
+            Node iter = orTest();
+            List<Node> ifs = new ArrayList<>();
+            while (accept("if")) {
+                ifs.add(testNoCond());
+            }
+            generators.add(new Comprehension(target, iter, ifs, file, first.start, lastEnd(), first.line, first.col + 1));
+        }
+        return generators;
+    }
+
+
+    /**
+     * Call arguments up to the closing parenthesis. The first {@code *args}
+     * and {@code **kwargs} go where Python 2 puts them, any further ones stay
+     * among the arguments and keywords as in Python 3.
+     */
+    @NotNull
+    private Arguments arguments() throws ParseError {
+        Arguments a = new Arguments();
+        while (!at(")")) {
+            Token first = peek();
+            if (accept("*")) {
+                Node value = test();
+                if (a.starargs == null) {
+                    a.starargs = value;
+                } else {
+                    a.args.add(new Starred(value, file, first.start, lastEnd(), first.line, first.col + 1));
+                }
+            } else if (accept("**")) {
+                Node value = test();
+                if (a.kwargs == null) {
+                    a.kwargs = value;
+                } else {
+                    a.keywords.add(new Keyword(null, value, file, first.start, lastEnd(), first.line, first.col + 1));
+                }
+            } else if (first.kind == NAME && peek(1).is("=")) {
+                next();
+                next();
+                Node value = test();
+                a.keywords.add(new Keyword(first.text, value, file, first.start, lastEnd(), first.line, first.col + 1));
+            } else {
+                Node value = namedTest();
+                if (isCompFor()) {
+                    List<Comprehension> generators = compFor();
+                    value = new GeneratorExp(value, generators, file, value.start, lastEnd(), value.line, value.col);
+                }
+                a.args.add(value);
+            }
+            if (!accept(",")) {
+                break;
+            }
+        }
+        return a;
+    }
+
+
+    // a[i] is an Index, a[i:j] a Slice, a[i, j:k] an ExtSlice and a[i, j] the Index of a tuple
+    @NotNull
+    private Node subscripts() throws ParseError {
+        Token first = peek();
+        Node single = subscript();
+        if (!at(",")) {
+            return single instanceof Slice ? single : index(single);
+        }
+
+        List<Node> dims = new ArrayList<>();
+        dims.add(single);
+        boolean hasSlice = single instanceof Slice;
+        while (accept(",")) {
+            if (at("]")) {
+                break;
+            }
+            Node dim = subscript();
+            hasSlice |= dim instanceof Slice;
+            dims.add(dim);
+        }
+
+        if (hasSlice) {
+            List<Node> indexed = new ArrayList<>();
+            for (Node dim : dims) {
+                indexed.add(dim instanceof Slice ? dim : index(dim));
+            }
+            return new ExtSlice(indexed, file, first.start, lastEnd(), first.line, first.col + 1);
+        } else {
+            return index(new Tuple(dims, file, first.start, lastEnd(), first.line, first.col + 1));
+        }
+    }
+
+
+    @NotNull
+    private Node subscript() throws ParseError {
+        Token first = peek();
+        Node lower = null;
+        if (!at(":")) {
+            lower = testOrStar();
+            if (!at(":")) {
+                return lower;
+            }
+        }
+        expect(":");
+        Node upper = null;
+        Node step = null;
+        if (!at(":") && !at("]") && !at(",")) {
+            upper = test();
+        }
+        if (accept(":") && !at("]") && !at(",")) {
+            step = test();
+        }
+        return new Slice(lower, step, upper, file, first.start, lastEnd(), first.line, first.col + 1);
+    }
+
+
+    @NotNull
+    private Node index(@NotNull Node value) {
+        return new Index(value, file, value.start, value.end, value.line, value.col);
+    }
+
+
+    @NotNull
+    private Node yieldExpr() throws ParseError {
+        Token first = expect("yield");
+        if (accept("from")) {
+            Node value = test();
+            return new YieldFrom(value, file, first.start, lastEnd(), first.line, first.col + 1);
+        }
+        Node value = startsExpression() ? testList(true) : null;
+        return new Yield(value, file, first.start, lastEnd(), first.line, first.col + 1);
+    }
+
+
+    @NotNull
+    private Node number(@NotNull Token t) throws ParseError {
+        String text = t.text.replace("_", "").toLowerCase();
+        int col = t.col + 1;
+        try {
+            if (text.endsWith("j")) {
+                double imag = Double.parseDouble(text.substring(0, text.length() - 1));
+                return new PyComplex(0, imag, file, t.start, t.end, t.line, col);
+            }
+            if (text.endsWith("l")) {
+                text = text.substring(0, text.length() - 1);
+            }
+            if (text.startsWith("0x") || text.startsWith("0o") || text.startsWith("0b") ||
+                    (text.indexOf('.') < 0 && text.indexOf('e') < 0))
+            {
+                return new PyInt(text, file, t.start, t.end, t.line, col);
+            }
+            return new PyFloat(text, file, t.start, t.end, t.line, col);
+        } catch (NumberFormatException e) {
+            throw new ParseError("invalid number " + t.text, t.line);
+        }
+    }
+
+
+    // adjacent literals are one string; the first one decides between str and bytes
+    @NotNull
+    private Node strings() {
+        Token first = peek();
+        boolean bytes = prefix(first.text).indexOf('b') >= 0;
+        StringBuilder sb = new StringBuilder();
+        while (at(STRING)) {
+            sb.append(decode(next().text));
+        }
+        if (bytes) {
+            return new Bytes(sb.toString(), file, first.start, lastEnd(), first.line, first.col + 1);
+        } else {
+            return new Str(sb.toString(), file, first.start, lastEnd(), first.line, first.col + 1);
+        }
+    }
+
+
+    @NotNull
+    private static String prefix(@NotNull String literal) {
+        int q = 0;
+        while (literal.charAt(q) != '\'' && literal.charAt(q) != '"') {
+            q++;
+        }
+        return literal.substring(0, q).toLowerCase();
+    }
+
+
+    /**
+     * The value of one string literal, without prefix and quotes and with its
+     * escapes resolved unless it is raw. Escapes that mean nothing are kept
+     * as they are written, like Python does.
+     */
+    @NotNull
+    static String decode(@NotNull String literal) {
+        String prefix = prefix(literal);
+        int q = prefix.length();
+        char quote = literal.charAt(q);
+        String triple = "" + quote + quote + quote;
+        int n = literal.length() - q >= 6 && literal.startsWith(triple, q) ? 3 : 1;
+        String body = literal.substring(q + n, literal.length() - n);
+        if (prefix.indexOf('r') >= 0) {
+            return body;
+        }
+        return unescape(body, prefix.indexOf('b') >= 0);
+    }
+
+
+    @NotNull
+    private static String unescape(@NotNull String s, boolean bytes) {
+        if (s.indexOf('\\') < 0) {
+            return s;
+        }
+
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c != '\\' || i + 1 >= s.length()) {
+                sb.append(c);
+                continue;
+            }
+            char e = s.charAt(++i);
+            switch (e) {
+                case '\n':
+                    break;
+                case '\r':
+                    if (i + 1 < s.length() && s.charAt(i + 1) == '\n') {
+                        i++;
+                    }
+                    break;
+                case '\\':
+                case '\'':
+                case '"':
+                    sb.append(e);
+                    break;
+                case 'a':
+                    sb.append('\007');
+                    break;
+                case 'b':
+                    sb.append('\b');
+                    break;
+                case 'f':
+                    sb.append('\f');
+                    break;
+                case 'n':
+                    sb.append('\n');
+                    break;
+                case 'r':
+                    sb.append('\r');
+                    break;
+                case 't':
+                    sb.append('\t');
+                    break;
+                case 'v':
+                    sb.append('\013');
+                    break;
+                case 'x':
+                case 'u':
+                case 'U': {
+                    int digits = e == 'x' ? 2 : e == 'u' ? 4 : 8;
+                    int code = hexValue(s, i + 1, digits);
+                    if (code < 0 || (bytes && e != 'x') || !Character.isValidCodePoint(code)) {
+                        sb.append('\\').append(e);
+                    } else {
+                        sb.appendCodePoint(code);
+                        i += digits;
+                    }
+                    break;
+                }
+                default:
+                    if (e >= '0' && e <= '7') {
+                        int code = e - '0';
+                        for (int k = 0; k < 2 && i + 1 < s.length() && s.charAt(i + 1) >= '0' && s.charAt(i + 1) <= '7'; k++) {
+                            code = code * 8 + (s.charAt(++i) - '0');
+                        }
+                        sb.append((char) code);
+                    } else {
+                        sb.append('\\').append(e);
+                    }
+            }
+        }
+        return sb.toString();
+    }
+
+
+    private static int hexValue(@NotNull String s, int start, int digits) {
+        if (start + digits > s.length()) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = start; i < start + digits; i++) {
+            int d = Character.digit(s.charAt(i), 16);
+            if (d < 0) {
+                return -1;
+            }
+            value = value * 16 + d;
+        }
+        return value;
+    }
+
+
+    //-------------------------------------------------------------
+    //                        tokens
+    //-------------------------------------------------------------
+
+    @NotNull
+    private Token peek() {
+        return tokens.get(pos);
+    }
+
+
+    @NotNull
+    private Token peek(int ahead) {
+        return tokens.get(Math.min(pos + ahead, tokens.size() - 1));
+    }
+
+
+    @NotNull
+    private Token next() {
+        Token t = tokens.get(pos);
+        if (t.kind != EOF) {
+            pos++;
+        }
+        return t;
+    }
+
+
+    private boolean at(@NotNull String text) {
+        return peek().is(text);
+    }
+
+
+    private boolean at(@NotNull Token.Kind kind) {
+        return peek().kind == kind;
+    }
+
+
+    private boolean accept(@NotNull String text) {
+        if (at(text)) {
+            next();
+            return true;
+        }
+        return false;
+    }
+
+
+    private boolean accept(@NotNull Token.Kind kind) {
+        if (at(kind)) {
+            next();
+            return true;
+        }
+        return false;
+    }
+
+
+    @NotNull
+    private Token expect(@NotNull String text) throws ParseError {
+        if (!at(text)) {
+            throw error("expected '" + text + "'");
+        }
+        return next();
+    }
+
+
+    @NotNull
+    private Token expect(@NotNull Token.Kind kind) throws ParseError {
+        if (!at(kind)) {
+            throw error("expected " + kind);
+        }
+        return next();
+    }
+
+
+    private boolean atEndOfStatement() {
+        return at(NEWLINE) || at(EOF) || at(";");
+    }
+
+
+    private boolean startsExpression() {
+        Token t = peek();
+        return startsAtom(t) || t.is("lambda") || t.is("not") || t.is("*") ||
+                t.is("-") || t.is("+") || t.is("~");
+    }
+
+
+    private static boolean startsAtom(@NotNull Token t) {
+        switch (t.kind) {
+            case NAME:
+                return !RESERVED.contains(t.text);
+            case NUMBER:
+            case STRING:
+                return true;
+            case OP:
+                return t.is("(") || t.is("[") || t.is("{") || t.is("`") || t.is("...");
+            default:
+                return false;
+        }
+    }
+
+
+    // end of the last real token, so that nodes don't stretch over line breaks and dedents
+    private int lastEnd() {
+        for (int i = pos - 1; i >= 0; i--) {
+            Token t = tokens.get(i);
+            if (t.kind != NEWLINE && t.kind != INDENT && t.kind != DEDENT) {
+                return t.end;
+            }
+        }
+        return 0;
+    }
+
+
+    @NotNull
+    private Name nameNode(@NotNull Token t) {
+        return new Name(t.text, file, t.start, t.end, t.line, t.col + 1);
+    }
+
+
+    @Nullable
+    private Block block(@NotNull Node... nodes) {
+        return block(new ArrayList<>(Arrays.asList(nodes)));
+    }
+
+
+    @Nullable
+    private Block block(@NotNull List<Node> body) {
+        return body.isEmpty() ? null : new Block(body, file, 0, 0, 0, 0);
+    }
+
+
+    @NotNull
+    private ParseError error(@NotNull String message) {
+        Token t = peek();
+        String near = t.kind == NEWLINE ? "end of line" : t.kind == EOF ? "end of file" : "'" + t.text + "'";
+        return new ParseError(message + " near " + near, t.line);
+    }
+}
@@ -0,0 +1,49 @@
+package org.yinwang.pysonar.parser;
+
+import org.jetbrains.annotations.NotNull;
+
+
+/**
+ * A token of Python source, with its character span in the file and the
+ * 1-based line and 0-based column it starts at. Keywords are NAME tokens:
+ * which names are reserved differs between Python 2 and 3, so the parser
+ * decides from the context.
+ */
+public class Token {
+
+    public enum Kind {
+        NAME, NUMBER, STRING, OP, NEWLINE, INDENT, DEDENT, EOF
+    }
+
+
+    @NotNull
+    public final Kind kind;
+    @NotNull
+    public final String text;
+    public final int start;
+    public final int end;
+    public final int line;
+    public final int col;
+
+
+    public Token(@NotNull Kind kind, @NotNull String text, int start, int end, int line, int col) {
+        this.kind = kind;
+        this.text = text;
+        this.start = start;
+        this.end = end;
+        this.line = line;
+        this.col = col;
+    }
+
+
+    public boolean is(@NotNull String s) {
+        return (kind == Kind.NAME || kind == Kind.OP) && text.equals(s);
+    }
+
+
+    @NotNull
+    @Override
+    public String toString() {
+        return kind + "(" + text + ":" + line + ":" + col + ")";
+    }
+}
@@ -14,16 +14,20 @@ public class ClassType extends Type {
     public String name;
     public Type superclass;
     private InstanceType instance;
+    // attributes every instance has but the class doesn't, for classes whose __init__ isn't analyzed
+    @Nullable
+    private State instanceAttrs;
 
     public ClassType(@NotNull String name, @Nullable State parent) {
         this.name = name;
-        this.setTable(new State(parent, State.StateType.CLASS));
+        State table = new State(parent, State.StateType.CLASS);
         table.setType(this);
         if (parent != null) {
             table.setPath(parent.extendPath(name));
         } else {
             table.setPath(name);
         }
+        setTable(table);
     }
 
 
@@ -35,6 +39,20 @@ public class ClassType extends Type {
     }
 
 
+    // only the shared classes in Types get here, the others make their table at once
+    @NotNull
+    @Override
+    protected State newTable() {
+        State table = new State(null, State.StateType.CLASS);
+        table.setType(this);
+        table.setPath(name);
+        if (superclass != null) {
+            table.addSuper(superclass.getTable());
+        }
+        return table;
+    }
+
+
     public void setName(String name) {
         this.name = name;
     }
@@ -42,7 +60,7 @@ public class ClassType extends Type {
 
     public void addSuper(@NotNull Type superclass) {
         this.superclass = superclass;
-        table.addSuper(superclass.table);
+        getTable().addSuper(superclass.getTable());
     }
 
     public InstanceType getInstance() {
@@ -64,6 +82,35 @@ public class ClassType extends Type {
         this.instance = instance;
     }
 
+
+    /**
+     * The table between each instance and the class, created on first use
+     * with the class table as its super.
+     */
+    @NotNull
+    public State getInstanceAttrs() {
+        if (instanceAttrs == null) {
+            instanceAttrs = new State(null, State.StateType.INSTANCE);
+            instanceAttrs.setPath(getTable().path);
+            instanceAttrs.addSuper(getTable());
+        }
+        return instanceAttrs;
+    }
+
+
+    // what instances inherit from: the instance attributes if there are any, also a base's, else the class
+    @NotNull
+    State instanceSuper() {
+        if (instanceAttrs == null && superclass instanceof ClassType) {
+            State inherited = ((ClassType) superclass).instanceSuper();
+            if (inherited.stateType == State.StateType.INSTANCE) {
+                // after the class, so that its methods still override the base's
+                getInstanceAttrs().addSuper(inherited);
+            }
+        }
+        return instanceAttrs != null ? instanceAttrs : getTable();
+    }
+
     @Override
     public boolean typeEquals(Object other) {
         return this == other;
@@ -1,6 +1,7 @@
 package org.yinwang.pysonar.types;
 
 import org.jetbrains.annotations.NotNull;
+import org.yinwang.pysonar.State;
 
 public class DictType extends Type {
 
@@ -10,8 +11,12 @@ public class DictType extends Type {
     public DictType(Type key0, Type val0) {
         keyType = key0;
         valueType = val0;
-        table.addSuper(Types.BaseDict.table);
-        table.setPath(Types.BaseDict.table.path);
+    }
+
+
+    @Override
+    protected State inheritedTable() {
+        return Types.BaseDict.getTable();
     }
 
     public void add(@NotNull Type key, @NotNull Type val) {
@@ -30,14 +35,14 @@ public class DictType extends Type {
 
     @Override
     public boolean typeEquals(Object other) {
-        if (typeStack.contains(this, other)) {
+        if (typeStack.get().contains(this, other)) {
             return true;
         } else if (other instanceof DictType) {
-            typeStack.push(this, other);
+            typeStack.get().push(this, other);
             DictType co = (DictType) other;
             boolean result = co.keyType.typeEquals(keyType) &&
                              co.valueType.typeEquals(valueType);
-            typeStack.pop(this, other);
+            typeStack.get().pop(this, other);
             return result;
         } else {
             return false;
@@ -25,6 +25,8 @@ public class FunType extends Type {
     public ClassType cls = null;
     public State env;
     public List<Type> defaultTypes;       // types for default parameters (evaluated at def time)
+    // for functions without a def, attributes and path come from BaseFunction until the table is made
+    public boolean inheritsBaseFunction = false;
 
 
     public FunType() {
@@ -39,8 +41,13 @@ public class FunType extends Type {
 
     public FunType(Type from, Type to) {
         addMapping(from, to);
-        table.addSuper(Analyzer.self.builtins.BaseFunction.table);
-        table.setPath(Analyzer.self.builtins.BaseFunction.table.path);
+        inheritsBaseFunction = true;
+    }
+
+
+    @Override
+    protected State inheritedTable() {
+        return inheritsBaseFunction ? Analyzer.current().builtins.BaseFunction.getTable() : null;
     }
 
 
@@ -87,7 +94,7 @@ public class FunType extends Type {
     public boolean typeEquals(Object other) {
         if (other instanceof FunType) {
             FunType fo = (FunType) other;
-            return fo.table.path.equals(table.path) || this == other;
+            return fo.getPath().equals(getPath()) || this == other;
         } else {
             return false;
         }
@@ -106,7 +113,7 @@ public class FunType extends Type {
 
 
     private boolean subsumedInner(Type type1, Type type2) {
-        if (typeStack.contains(type1, type2)) {
+        if (typeStack.get().contains(type1, type2)) {
             return true;
         }
 
@@ -203,7 +210,7 @@ public class FunType extends Type {
 
                 if (!seen.contains(as)) {
                     if (i != 0) {
-                        if (Analyzer.self.multilineFunType) {
+                        if (Analyzer.current().multilineFunType) {
                             sb.append("\n/ ");
                         } else {
                             sb.append(" / ");
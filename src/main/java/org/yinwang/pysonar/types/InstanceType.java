@@ -14,18 +14,33 @@ public class InstanceType extends Type {
 
 
     public InstanceType(@NotNull Type c) {
-        table.setStateType(State.StateType.INSTANCE);
-        table.addSuper(c.table);
-        table.setPath(c.table.path);
         classType = c;
     }
 
+
+    @NotNull
+    @Override
+    protected State newTable() {
+        State s = super.newTable();
+        s.setStateType(State.StateType.INSTANCE);
+        return s;
+    }
+
+
+    @Override
+    protected State inheritedTable() {
+        if (classType instanceof ClassType) {
+            return ((ClassType) classType).instanceSuper();
+        }
+        return classType.getTable();
+    }
+
     public InstanceType(@NotNull Type c, List<Type> args, TypeInferencer inferencer, Node call)
     {
         this(c);
 
         // call constructor
-        Type initFunc = table.lookupAttrType("__init__");
+        Type initFunc = lookupAttrType("__init__");
         if (initFunc != null &&
             initFunc instanceof FunType &&
             ((FunType) initFunc).func != null)
@@ -2,6 +2,7 @@ package org.yinwang.pysonar.types;
 
 import org.jetbrains.annotations.NotNull;
 import org.yinwang.pysonar.Analyzer;
+import org.yinwang.pysonar.State;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -23,8 +24,12 @@ public class ListType extends Type {
 
     public ListType(Type elt0) {
         eltType = elt0;
-        table.addSuper(Analyzer.self.builtins.BaseList.table);
-        table.setPath(Analyzer.self.builtins.BaseList.table.path);
+    }
+
+
+    @Override
+    protected State inheritedTable() {
+        return Analyzer.current().builtins.BaseList.getTable();
     }
 
 
@@ -67,13 +72,13 @@ public class ListType extends Type {
 
     @Override
     public boolean typeEquals(Object other) {
-        if (typeStack.contains(this, other)) {
+        if (typeStack.get().contains(this, other)) {
             return true;
         } else if (other instanceof ListType) {
             ListType co = (ListType) other;
-            typeStack.push(this, other);
+            typeStack.get().push(this, other);
             boolean result = co.eltType.typeEquals(eltType);
-            typeStack.pop(this, other);
+            typeStack.get().pop(this, other);
             return result;
         } else {
             return false;
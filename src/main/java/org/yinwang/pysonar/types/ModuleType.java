@@ -26,14 +26,15 @@ public class ModuleType extends Type {
         if (qname == null) {
             qname = name;
         }
-        setTable(new State(parent, State.StateType.MODULE));
+        State table = new State(parent, State.StateType.MODULE);
         table.setPath(qname);
         table.setType(this);
 
         // null during bootstrapping of built-in types
-        if (Analyzer.self.builtins != null) {
-            table.addSuper(Analyzer.self.builtins.BaseModule.table);
+        if (Analyzer.current().builtins != null) {
+            table.addSuper(Analyzer.current().builtins.BaseModule.getTable());
         }
+        setTable(table);
     }
 
 
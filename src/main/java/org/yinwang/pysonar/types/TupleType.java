@@ -2,6 +2,7 @@ package org.yinwang.pysonar.types;
 
 import org.jetbrains.annotations.NotNull;
 import org.yinwang.pysonar.Analyzer;
+import org.yinwang.pysonar.State;
 import org.yinwang.pysonar.TypeStack;
 
 import java.util.ArrayList;
@@ -16,8 +17,12 @@ public class TupleType extends Type {
 
     public TupleType() {
         this.eltTypes = new ArrayList<>();
-        table.addSuper(Analyzer.self.builtins.BaseTuple.table);
-        table.setPath(Analyzer.self.builtins.BaseTuple.table.path);
+    }
+
+
+    @Override
+    protected State inheritedTable() {
+        return Analyzer.current().builtins.BaseTuple.getTable();
     }
 
 
@@ -76,21 +81,21 @@ public class TupleType extends Type {
 
     @Override
     public boolean typeEquals(Object other) {
-        if (typeStack.contains(this, other)) {
+        if (typeStack.get().contains(this, other)) {
             return true;
         } else if (other instanceof TupleType) {
             List<Type> types1 = eltTypes;
             List<Type> types2 = ((TupleType) other).eltTypes;
 
             if (types1.size() == types2.size()) {
-                typeStack.push(this, other);
+                typeStack.get().push(this, other);
                 for (int i = 0; i < types1.size(); i++) {
                     if (!types1.get(i).typeEquals(types2.get(i))) {
-                        typeStack.pop(this, other);
+                        typeStack.get().pop(this, other);
                         return false;
                     }
                 }
-                typeStack.pop(this, other);
+                typeStack.get().pop(this, other);
                 return true;
             } else {
                 return false;
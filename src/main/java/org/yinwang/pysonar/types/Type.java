@@ -1,6 +1,9 @@
 package org.yinwang.pysonar.types;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.yinwang.pysonar.Analyzer;
+import org.yinwang.pysonar.Binding;
 import org.yinwang.pysonar.State;
 import org.yinwang.pysonar.TypeStack;
 import org.yinwang.pysonar.$;
@@ -9,15 +12,25 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 public abstract class Type {
 
-    @NotNull
-    public State table = new State(null, State.StateType.SCOPE);
+    private static final AtomicInteger nextId = new AtomicInteger();
+
+    // unique in this JVM, orders the members of interned unions
+    final int id = nextId.getAndIncrement();
+    // the attributes of this type, created on first use, see getTable()
+    @Nullable
+    private State table;
+    // for the builtin types in Types, which all analyses share, the slot of
+    // their table among each analysis's own, see Analyzer.getSharedTypeTables()
+    int sharedSlot = -1;
     public String file = null;
+    // per thread, so that analyses on different threads can compare types at the same time
     @NotNull
-    protected static TypeStack typeStack = new TypeStack();
+    protected static final ThreadLocal<TypeStack> typeStack = ThreadLocal.withInitial(TypeStack::new);
 
 
     public Type() {
@@ -25,7 +38,7 @@ public abstract class Type {
 
     @Override
     public boolean equals(Object other) {
-        return typeEquals(other);
+        return this == other || typeEquals(other);
     }
 
     public abstract boolean typeEquals(Object other);
@@ -35,6 +48,88 @@ public abstract class Type {
     }
 
 
+    /**
+     * Returns the attribute table of this type, creating it if needed. Most
+     * types never have attributes of their own, so readers should prefer
+     * {@link #lookupAttr} and {@link #getPath}, which don't create it.
+     */
+    @NotNull
+    public State getTable() {
+        if (sharedSlot >= 0) {
+            State[] tables = Analyzer.current().getSharedTypeTables();
+            synchronized (tables) {
+                if (tables[sharedSlot] == null) {
+                    tables[sharedSlot] = newTable();
+                }
+                return tables[sharedSlot];
+            }
+        }
+        if (table == null) {
+            table = newTable();
+        }
+        return table;
+    }
+
+
+    // the table if it was created already
+    @Nullable
+    private State existingTable() {
+        if (sharedSlot >= 0) {
+            return Analyzer.current().getSharedTypeTables()[sharedSlot];
+        }
+        return table;
+    }
+
+
+    // a fresh table for this type
+    @NotNull
+    protected State newTable() {
+        State s = new State(null, State.StateType.SCOPE);
+        State inherited = inheritedTable();
+        if (inherited != null) {
+            s.addSuper(inherited);
+            s.setPath(inherited.path);
+        }
+        return s;
+    }
+
+
+    // the table a fresh table of this type inherits attributes and path from, if any
+    @Nullable
+    protected State inheritedTable() {
+        return null;
+    }
+
+
+    @Nullable
+    public Set<Binding> lookupAttr(String attr) {
+        State table = existingTable();
+        if (table != null) {
+            return table.lookupAttr(attr);
+        }
+        State inherited = inheritedTable();
+        return inherited == null ? null : inherited.lookupAttr(attr);
+    }
+
+
+    @Nullable
+    public Type lookupAttrType(String attr) {
+        Set<Binding> bs = lookupAttr(attr);
+        return bs == null ? null : State.makeUnion(bs);
+    }
+
+
+    @NotNull
+    public String getPath() {
+        State table = existingTable();
+        if (table != null) {
+            return table.path;
+        }
+        State inherited = inheritedTable();
+        return inherited == null ? "" : inherited.path;
+    }
+
+
     public void setFile(String file) {
         this.file = file;
     }
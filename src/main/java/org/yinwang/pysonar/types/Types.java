@@ -34,4 +34,21 @@ public class Types {
     public static Type CONT = new InstanceType(new ClassType("None", null, null));
 
     public static ClassType BaseDict = new ClassType("dict", null, ObjectClass);
+
+    // Builtins fills in the attributes of these for each analysis, so each has its own tables of them
+    public static final int SHARED_TYPES;
+
+    static {
+        Type[] shared = {
+                ObjectClass, ObjectInstance, TypeClass, TypeInstance, BoolClass, BoolInstance,
+                IntClass, IntInstance, LongClass, LongInstance, StrClass, StrInstance,
+                FloatClass, FloatInstance, ComplexClass, ComplexInstance, NoneClass, NoneInstance,
+                UNKNOWN, ((InstanceType) UNKNOWN).classType, CONT, ((InstanceType) CONT).classType,
+                BaseDict
+        };
+        for (int i = 0; i < shared.length; i++) {
+            shared[i].sharedSlot = i;
+        }
+        SHARED_TYPES = shared.length;
+    }
 }
@@ -1,9 +1,12 @@
 package org.yinwang.pysonar.types;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
@@ -13,6 +16,9 @@ import java.util.stream.Collectors;
 
 public class UnionType extends Type {
 
+    // unions made by union() are never changed afterwards, so ones with the same members are shared
+    private static final Cache<Members, UnionType> interned = CacheBuilder.newBuilder().weakValues().build();
+
     public Set<Type> types;
 
 
@@ -88,11 +94,21 @@ public class UnionType extends Type {
     }
 
 
+    // whether the union with t would have the same members as this
+    private boolean includes(@NotNull Type t) {
+        if (t instanceof UnionType) {
+            return types.containsAll(((UnionType) t).types);
+        } else {
+            return types.contains(t);
+        }
+    }
+
+
     // take a union of two types
     // with preference: other > None > Cont > unknown
     @NotNull
     public static Type union(@NotNull Type u, @NotNull Type v) {
-        if (u.equals(v)) {
+        if (u == v || u.equals(v)) {
             return u;
         } else if (u != Types.UNKNOWN && v == Types.UNKNOWN) {
             return u;
@@ -105,8 +121,64 @@ public class UnionType extends Type {
         } else if (u instanceof TupleType && v instanceof TupleType &&
                    ((TupleType) u).size() == ((TupleType) v).size()) {
             return union((TupleType) u, (TupleType) v);
+        } else if (u instanceof UnionType && ((UnionType) u).includes(v)) {
+            return u;
+        } else if (v instanceof UnionType && ((UnionType) v).includes(u)) {
+            return v;
         } else {
-            return new UnionType(u, v);
+            Members key = new Members(u, v);
+            UnionType result = interned.getIfPresent(key);
+            if (result == null) {
+                result = new UnionType(u, v);
+                interned.put(key, result);
+            }
+            return result;
+        }
+    }
+
+
+    // the ids of the types a union of u and v is made of, sorted
+    private static final class Members {
+        private final int[] ids;
+        private final int hash;
+
+        Members(@NotNull Type u, @NotNull Type v) {
+            int nu = u instanceof UnionType ? ((UnionType) u).types.size() : 1;
+            int nv = v instanceof UnionType ? ((UnionType) v).types.size() : 1;
+            int[] all = new int[nu + nv];
+            int n = collect(u, all, 0);
+            n = collect(v, all, n);
+            Arrays.sort(all, 0, n);
+
+            int distinct = 0;
+            for (int i = 0; i < n; i++) {
+                if (i == 0 || all[i] != all[i - 1]) {
+                    all[distinct++] = all[i];
+                }
+            }
+            ids = distinct == all.length ? all : Arrays.copyOf(all, distinct);
+            hash = Arrays.hashCode(ids);
+        }
+
+        private static int collect(@NotNull Type t, @NotNull int[] ids, int n) {
+            if (t instanceof UnionType) {
+                for (Type member : ((UnionType) t).types) {
+                    ids[n++] = member.id;
+                }
+            } else {
+                ids[n++] = t.id;
+            }
+            return n;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Members && Arrays.equals(ids, ((Members) other).ids);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
         }
     }
 
@@ -144,7 +216,7 @@ public class UnionType extends Type {
 
     @Override
     public boolean typeEquals(Object other) {
-        if (typeStack.contains(this, other)) {
+        if (this == other || typeStack.get().contains(this, other)) {
             return true;
         } else if (other instanceof UnionType) {
             Set<Type> types1 = types;
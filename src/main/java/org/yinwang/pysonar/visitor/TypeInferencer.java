@@ -40,17 +40,81 @@ import java.util.Set;
 
 public class TypeInferencer implements Visitor1<Type, State> {
 
+    @NotNull
+    private final Analyzer analyzer;
+
+
+    public TypeInferencer(@NotNull Analyzer analyzer) {
+        this.analyzer = analyzer;
+    }
+
     @NotNull
     @Override
     public Type visit(Module node, State s) {
-        ModuleType mt = new ModuleType(node.name, node.file, Analyzer.self.globaltable);
+        ModuleType mt = new ModuleType(node.name, node.file, analyzer.globaltable);
         s.insert($.moduleQname(node.file), node, mt, MODULE);
         if (node.body != null) {
-            visit(node.body, mt.table);
+            if (analyzer.isDeclarationsOnly(node.file)) {
+                declare(node.body, mt.getTable());
+            } else {
+                visit(node.body, mt.getTable());
+            }
         }
         return mt;
     }
 
+    /**
+     * The cheap treatment of a module too big to analyze: binds its classes,
+     * their methods and its functions, with functions returning unknown, and
+     * the names it assigns as unknown, without looking at any function body
+     * or assigned value. Imports are followed as usual.
+     */
+    public void declare(@NotNull Block block, @NotNull State s) {
+        for (Node n : block.seq) {
+            if (n instanceof FunctionDef && !((FunctionDef) n).isLamba) {
+                FunctionDef def = (FunctionDef) n;
+                Binding.Kind kind = FUNCTION;
+                if (s.stateType == State.StateType.CLASS) {
+                    kind = "__init__".equals(def.name.id) ? CONSTRUCTOR : METHOD;
+                }
+                bind(s, def.name, new FunType(Types.UNKNOWN, Types.UNKNOWN), kind);
+            } else if (n instanceof ClassDef) {
+                ClassDef def = (ClassDef) n;
+                ClassType classType = new ClassType(def.name.id, s);
+                for (Node base : def.bases) {
+                    Type baseType = visit(base, s);
+                    if (baseType instanceof ClassType) {
+                        classType.addSuper(baseType);
+                    }
+                }
+                bind(s, def.name, classType, CLASS);
+                if (def.body instanceof Block) {
+                    declare((Block) def.body, classType.getTable());
+                }
+            } else if (n instanceof Assign) {
+                declareTarget(((Assign) n).target, s);
+            } else if (n instanceof Block) {
+                declare((Block) n, s);
+            } else if (n instanceof Import || n instanceof ImportFrom) {
+                visit(n, s);
+            }
+        }
+    }
+
+    private void declareTarget(Node target, @NotNull State s) {
+        if (target instanceof Name) {
+            bind(s, target, Types.UNKNOWN);
+        } else if (target instanceof Tuple) {
+            for (Node elt : ((Tuple) target).elts) {
+                declareTarget(elt, s);
+            }
+        } else if (target instanceof PyList) {
+            for (Node elt : ((PyList) target).elts) {
+                declareTarget(elt, s);
+            }
+        }
+    }
+
     @NotNull
     @Override
     public Type visit(Alias node, State s) {
@@ -139,7 +203,7 @@ public class TypeInferencer implements Visitor1<Type, State> {
 
     private boolean operatorOverridden(Type type, String method) {
         if (type instanceof InstanceType) {
-            Type opType = type.table.lookupAttrType(method);
+            Type opType = type.lookupAttrType(method);
             if (opType != null) {
                 return true;
             }
@@ -149,7 +213,7 @@ public class TypeInferencer implements Visitor1<Type, State> {
 
     @Nullable
     private Type applyOp(Op op, Type ltype, Type rtype, String method, Node node, Node left) {
-        Type opType = ltype.table.lookupAttrType(method);
+        Type opType = ltype.lookupAttrType(method);
         if (opType instanceof FunType) {
             return apply((FunType) opType, ltype, Collections.singletonList(rtype), null, null, null, node);
         } else {
@@ -168,7 +232,7 @@ public class TypeInferencer implements Visitor1<Type, State> {
                     s.addGlobalName(name.id);
                     Set<Binding> nb = s.lookup(name.id);
                     if (nb != null) {
-                        Analyzer.self.putRef(name, nb);
+                        analyzer.putRef(name, nb);
                     }
                 }
             }
@@ -217,12 +281,12 @@ public class TypeInferencer implements Visitor1<Type, State> {
             if (!(targetType instanceof ModuleType)) {
                 selfType = targetType;
             }
-            Set<Binding> b = targetType.table.lookupAttr(attr.id);
+            Set<Binding> b = targetType.lookupAttr(attr.id);
             if (b != null) {
-                Analyzer.self.putRef(attr, b);
+                analyzer.putRef(attr, b);
                 fun = State.makeUnion(b);
             } else {
-                Analyzer.self.putProblem(attr, "Attribute is not found in type: " + attr.id);
+                analyzer.putProblem(attr, "Attribute is not found in type: " + attr.id);
                 fun = Types.UNKNOWN;
             }
         } else {
@@ -277,18 +341,18 @@ public class TypeInferencer implements Visitor1<Type, State> {
 
         // XXX: Not sure if we should add "bases", "name" and "dict" here. They
         // must be added _somewhere_ but I'm just not sure if it should be HERE.
-        node.addSpecialAttribute(classType.table, "__bases__", new TupleType(baseTypes));
-        node.addSpecialAttribute(classType.table, "__name__", Types.StrInstance);
-        node.addSpecialAttribute(classType.table, "__dict__",
+        node.addSpecialAttribute(classType.getTable(), "__bases__", new TupleType(baseTypes));
+        node.addSpecialAttribute(classType.getTable(), "__name__", Types.StrInstance);
+        node.addSpecialAttribute(classType.getTable(), "__dict__",
                                  new DictType(Types.StrInstance, Types.UNKNOWN));
-        node.addSpecialAttribute(classType.table, "__module__", Types.StrInstance);
-        node.addSpecialAttribute(classType.table, "__doc__", Types.StrInstance);
+        node.addSpecialAttribute(classType.getTable(), "__module__", Types.StrInstance);
+        node.addSpecialAttribute(classType.getTable(), "__doc__", Types.StrInstance);
 
         // Bind ClassType to name here before resolving the body because the
         // methods need node type as self.
         bind(s, node.name, classType, CLASS);
         if (node.body != null) {
-            visit(node.body, classType.table);
+            visit(node.body, classType.getTable());
         }
         return Types.CONT;
     }
@@ -413,10 +477,10 @@ public class TypeInferencer implements Visitor1<Type, State> {
     public Type visit(FunctionDef node, State s) {
         State env = s.getForwarding();
         FunType fun = new FunType(node, env);
-        fun.table.setParent(s);
-        fun.table.setPath(s.extendPath(node.name.id));
+        fun.getTable().setParent(s);
+        fun.getTable().setPath(s.extendPath(node.name.id));
         fun.setDefaultTypes(visit(node.defaults, s));
-        Analyzer.self.addUncalled(fun);
+        analyzer.addUncalled(fun);
         Binding.Kind funkind;
 
         if (node.isLamba) {
@@ -563,7 +627,7 @@ public class TypeInferencer implements Visitor1<Type, State> {
     @Override
     public Type visit(Import node, State s) {
         for (Alias a : node.names) {
-            Type mod = Analyzer.self.loadModule(a.name, s);
+            Type mod = analyzer.loadModule(a.name, s);
             if (mod == null) {
                 addWarningToNode(node, "Cannot load module");
             } else if (a.asname != null) {
@@ -580,37 +644,37 @@ public class TypeInferencer implements Visitor1<Type, State> {
             return Types.CONT;
         }
 
-        Type mod = Analyzer.self.loadModule(node.module, s);
+        Type mod = analyzer.loadModule(node.module, s);
 
         if (mod == null) {
             addWarningToNode(node, "Cannot load module");
         } else if (node.isImportStar()) {
-            node.importStar(s, mod);
+            node.importStar(analyzer, s, mod);
         } else {
             for (Alias a : node.names) {
                 Name first = a.name.get(0);
-                Set<Binding> bs = mod.table.lookup(first.id);
+                Set<Binding> bs = mod.getTable().lookup(first.id);
                 if (bs != null) {
                     if (a.asname != null) {
                         s.update(a.asname.id, bs);
-                        Analyzer.self.putRef(a.asname, bs);
+                        analyzer.putRef(a.asname, bs);
                     } else {
                         s.update(first.id, bs);
-                        Analyzer.self.putRef(first, bs);
+                        analyzer.putRef(first, bs);
                     }
                 } else {
                     List<Name> ext = new ArrayList<>(node.module);
                     ext.add(first);
-                    Type mod2 = Analyzer.self.loadModule(ext, s);
+                    Type mod2 = analyzer.loadModule(ext, s);
                     if (mod2 != null) {
                         if (a.asname != null) {
                             Binding binding = Binding.createFileBinding(a.asname.id, mod2.file, mod2);
                             s.update(a.asname.id, binding);
-                            Analyzer.self.putRef(a.asname, binding);
+                            analyzer.putRef(a.asname, binding);
                         } else {
                             Binding binding = Binding.createFileBinding(first.id, mod2.file, mod2);
                             s.update(first.id, binding);
-                            Analyzer.self.putRef(first, binding);
+                            analyzer.putRef(first, binding);
                         }
                     }
                 }
@@ -644,15 +708,15 @@ public class TypeInferencer implements Visitor1<Type, State> {
     public Type visit(Name node, State s) {
         Set<Binding> b = s.lookup(node.id);
         if (b != null) {
-            Analyzer.self.putRef(node, b);
-            Analyzer.self.resolved.add(node);
-            Analyzer.self.unresolved.remove(node);
+            analyzer.putRef(node, b);
+            analyzer.resolved.add(node);
+            analyzer.unresolved.remove(node);
             return State.makeUnion(b);
         } else {
             addWarningToNode(node, "unbound variable " + node.id);
-            Analyzer.self.unresolved.add(node);
+            analyzer.unresolved.add(node);
             Type t = Types.UNKNOWN;
-            t.table.setPath(s.extendPath(node.id));
+            t.getTable().setPath(s.extendPath(node.id));
             return t;
         }
     }
@@ -762,7 +826,7 @@ public class TypeInferencer implements Visitor1<Type, State> {
         } else {
             Type result = visit(node.value, s);
 
-            CallStackEntry entry = Analyzer.self.callStack.top();
+            CallStackEntry entry = analyzer.callStack.top();
             if (entry != null)
             {
                 entry.fun.addMapping(entry.from, result);
@@ -975,36 +1039,36 @@ public class TypeInferencer implements Visitor1<Type, State> {
             return;
         }
 
-        Set<Binding> bs = targetType.table.lookupAttr(node.attr.id);
+        Set<Binding> bs = targetType.lookupAttr(node.attr.id);
         if (bs != null)
         {
             for (Binding b : bs)
             {
                 b.addType(v);
-                Analyzer.self.putRef(node.attr, b);
+                analyzer.putRef(node.attr, b);
             }
         }
         else
         {
-            targetType.table.insert(node.attr.id, node.attr, v, ATTRIBUTE);
+            targetType.getTable().insert(node.attr.id, node.attr, v, ATTRIBUTE);
         }
     }
 
     public Type getAttrType(Attribute node, @NotNull Type targetType)
     {
-        Set<Binding> bs = targetType.table.lookupAttr(node.attr.id);
+        Set<Binding> bs = targetType.lookupAttr(node.attr.id);
         if (bs == null)
         {
             addWarningToNode(node.attr, "attribute not found in type: " + targetType);
             Type t = Types.UNKNOWN;
-            t.table.setPath(targetType.table.extendPath(node.attr.id));
+            t.getTable().setPath(targetType.getTable().extendPath(node.attr.id));
             return t;
         }
         else
         {
             for (Binding b : bs)
             {
-                Analyzer.self.putRef(node.attr, b);
+                analyzer.putRef(node.attr, b);
             }
             return State.makeUnion(bs);
         }
@@ -1050,7 +1114,7 @@ public class TypeInferencer implements Visitor1<Type, State> {
                 }
                 else
                 {
-                    Analyzer.self.putProblem(call, "Calling append with wrong argument types");
+                    analyzer.putProblem(call, "Calling append with wrong argument types");
                 }
             }
         }
@@ -1072,15 +1136,15 @@ public class TypeInferencer implements Visitor1<Type, State> {
                 }
                 else
                 {
-                    Analyzer.self.putProblem(call, "Calling update with wrong argument types");
+                    analyzer.putProblem(call, "Calling update with wrong argument types");
                 }
             }
         }
 
-        Analyzer.self.removeUncalled(func);
+        analyzer.removeUncalled(func);
 
         if (func.func != null && !func.func.called) {
-            Analyzer.self.nCalled++;
+            analyzer.nCalled++;
             func.func.called = true;
         }
 
@@ -1125,8 +1189,8 @@ public class TypeInferencer implements Visitor1<Type, State> {
 
         State callState = new State(func.env, State.StateType.FUNCTION);
 
-        if (func.table.parent != null) {
-            callState.setPath(func.table.parent.extendPath(func.func.name.id));
+        if (func.getTable().parent != null) {
+            callState.setPath(func.getTable().parent.extendPath(func.func.name.id));
         } else {
             callState.setPath(func.func.name.id);
         }
@@ -1140,9 +1204,9 @@ public class TypeInferencer implements Visitor1<Type, State> {
             return Types.UNKNOWN;
         } else {
             func.addMapping(fromType, Types.UNKNOWN);
-            Analyzer.self.callStack.push(new CallStackEntry(func, fromType));
+            analyzer.callStack.push(new CallStackEntry(func, fromType));
             Type toType = visit(func.func.body, callState);
-            Analyzer.self.callStack.pop();
+            analyzer.callStack.pop();
             if (missingReturn(toType)) {
                 addWarningToNode(func.func.name, "Function not always return a value");
 
@@ -1245,8 +1309,8 @@ public class TypeInferencer implements Visitor1<Type, State> {
     }
 
     static void bindMethodAttrs(@NotNull FunType cl) {
-        if (cl.table.parent != null) {
-            Type cls = cl.table.parent.type;
+        if (cl.getTable().parent != null) {
+            Type cls = cl.getTable().parent.type;
             if (cls != null && cls instanceof ClassType) {
                 addReadOnlyAttr(cl, "im_class", cls, CLASS);
                 addReadOnlyAttr(cl, "__class__", cls, CLASS);
@@ -1262,7 +1326,7 @@ public class TypeInferencer implements Visitor1<Type, State> {
                                 Binding.Kind kind) {
         Node loc = Builtins.newDataModelUrl("the-standard-type-hierarchy");
         Binding b = new Binding(name, loc, type, kind);
-        fun.table.update(name, b);
+        fun.getTable().update(name, b);
         b.markSynthetic();
         b.markStatic();
     }
@@ -1320,7 +1384,7 @@ public class TypeInferencer implements Visitor1<Type, State> {
             } else if (st == null || st.isNumType()) {
                 return ((ListType) vt).eltType;
             } else {
-                Type sliceFunc = vt.table.lookupAttrType("__getslice__");
+                Type sliceFunc = vt.lookupAttrType("__getslice__");
                 if (sliceFunc == null) {
                     addError(node, "The type can't be sliced: " + vt);
                     return Types.UNKNOWN;
@@ -1422,13 +1486,13 @@ public class TypeInferencer implements Visitor1<Type, State> {
         }
     }
 
-    public static void bind(@NotNull State s, @NotNull Name name, @NotNull Type rvalue, Binding.Kind kind) {
+    public void bind(@NotNull State s, @NotNull Name name, @NotNull Type rvalue, Binding.Kind kind) {
         if (s.isGlobalName(name.id)) {
             Set<Binding> bs = s.lookup(name.id);
             if (bs != null) {
                 for (Binding b : bs) {
                     b.addType(rvalue);
-                    Analyzer.self.putRef(name, b);
+                    analyzer.putRef(name, b);
                 }
             }
         } else {
@@ -1445,7 +1509,7 @@ public class TypeInferencer implements Visitor1<Type, State> {
         } else if (iterType instanceof TupleType) {
             bind(s, target, ((TupleType) iterType).toListType().eltType, kind);
         } else {
-            Set<Binding> ents = iterType.table.lookupAttr("__iter__");
+            Set<Binding> ents = iterType.lookupAttr("__iter__");
             if (ents != null) {
                 for (Binding ent : ents) {
                     if (ent == null || !(ent.type instanceof FunType)) {
@@ -1463,7 +1527,7 @@ public class TypeInferencer implements Visitor1<Type, State> {
         }
     }
 
-    private static void reportUnpackMismatch(@NotNull List<Node> xs, int vsize) {
+    private void reportUnpackMismatch(@NotNull List<Node> xs, int vsize) {
         int xsize = xs.size();
         int beg = xs.get(0).start;
         int end = xs.get(xs.size() - 1).end;
@@ -1477,15 +1541,15 @@ public class TypeInferencer implements Visitor1<Type, State> {
         addWarningToFile(xs.get(0).file, beg, end, msg);
     }
 
-    public static void addWarningToNode(Node node, String msg) {
-        Analyzer.self.putProblem(node, msg);
+    public void addWarningToNode(Node node, String msg) {
+        analyzer.putProblem(node, msg);
     }
 
-    public static void addWarningToFile(String file, int begin, int end, String msg) {
-        Analyzer.self.putProblem(file, begin, end, msg);
+    public void addWarningToFile(String file, int begin, int end, String msg) {
+        analyzer.putProblem(file, begin, end, msg);
     }
 
     public void addError(Node node, String msg) {
-        Analyzer.self.putProblem(node, msg);
+        analyzer.putProblem(node, msg);
     }
 }
@@ -1,7 +1,9 @@
 import ast
 import re
+import struct
 import sys
 import codecs
+import traceback
 
 from json import JSONEncoder
 from ast import *
@@ -15,6 +17,9 @@ class AstEncoder(JSONEncoder):
     def default(self, obj):
         if hasattr(obj, '__dict__'):
             dic = obj.__dict__
+            # only offsets are sent, the reader derives lines and columns from them
+            for key in POSITION_KEYS:
+                dic.pop(key, None)
             # workaround: decode strings if it's not Python3 code
             if not python3:
                 for key in dic:
@@ -31,24 +36,73 @@ class AstEncoder(JSONEncoder):
 
 enc = 'latin1'
 lines = ''
+POSITION_KEYS = ('lineno', 'col_offset', 'end_lineno', 'end_col_offset')
 
 
-def parse_dump(filename, output, end_mark):
-    try:
-        if python3:
-            encoder = AstEncoder()
-        else:
-            encoder = AstEncoder(encoding=enc)
+def dump_json(filename):
+    if python3:
+        encoder = AstEncoder()
+    else:
+        encoder = AstEncoder(encoding=enc)
+
+    tree = parse_file(filename)
+    # the line starts go first, so the reader has them for the nodes it builds
+    return encoder.encode(line_starts) + '\n' + encoder.encode(tree)
 
-        tree = parse_file(filename)
-        encoded = encoder.encode(tree)
-        f = open(output, "w")
-        f.write(encoded)
-        f.close()
-    finally:
-        # write marker file to signal write end
-        f = open(end_mark, "w")
-        f.close()
+
+#-------------------------------------------------------------
+#        framed request/response protocol over stdin/stdout
+#-------------------------------------------------------------
+# Each frame is a 4-byte big-endian length followed by that many bytes.
+# A request carries one or more UTF-8 file names separated by NUL, and
+# gets one response per name, in order, each carrying the JSON AST.
+# An empty response means the file could not be parsed.
+
+def read_exactly(stream, n):
+    data = b''
+    while len(data) < n:
+        chunk = stream.read(n - len(data))
+        if not chunk:
+            return None
+        data += chunk
+    return data
+
+
+def write_frame(stream, data):
+    stream.write(struct.pack('>I', len(data)))
+    stream.write(data)
+    stream.flush()
+
+
+def serve():
+    requests = getattr(sys.stdin, 'buffer', sys.stdin)
+    responses = getattr(sys.stdout, 'buffer', sys.stdout)
+
+    # stray prints must not corrupt the response stream
+    sys.stdout = sys.stderr
+
+    while True:
+        header = read_exactly(requests, 4)
+        if header is None:
+            break
+        names = read_exactly(requests, struct.unpack('>I', header)[0])
+        if names is None:
+            break
+        parse_dump_many(names.decode('utf-8').split('\0'), responses)
+
+
+# answers each file as soon as it is parsed, so the reader can start on it
+def parse_dump_many(filenames, stream):
+    for filename in filenames:
+        try:
+            data = dump_json(filename)
+            if not isinstance(data, bytes):
+                data = data.encode('utf-8')
+        except Exception:
+            traceback.print_exc()
+            data = b''
+
+        write_frame(stream, data)
 
 
 def parse_file(filename):
@@ -80,7 +134,7 @@ def parse_string(string, filename=None):
 
 # short function for experiments
 def p(filename):
-    parse_dump(filename, "json1", "end1")
+    print(dump_json(filename))
 
 
 def detect_encoding(path):
@@ -112,15 +166,14 @@ def improve_ast(node, s):
 line_starts = []
 
 
-# build global table 'idxmap' for lineno <-> index oonversion
+# build global table 'line_starts' for lineno -> index conversion
 def build_index_map(s):
     global line_starts
-    idx = 0
     line_starts = [0]
-    while idx < len(s):
-        if s[idx] == '\n':
-            line_starts.append(idx + 1)
-        idx += 1
+    idx = s.find('\n')
+    while idx >= 0:
+        line_starts.append(idx + 1)
+        idx = s.find('\n', idx + 1)
 
 
 # convert (line, col) to offset index
@@ -128,17 +181,6 @@ def map_idx(line, col):
     return line_starts[line - 1] + col
 
 
-# convert offset index into (line, col)
-def map_line_col(idx):
-    line = 0
-    for start in line_starts:
-        if idx < start:
-            break
-        line += 1
-    col = idx - line_starts[line - 1]
-    return line, col
-
-
 def improve_node(node, s):
     if isinstance(node, list):
         for n in node:
@@ -147,8 +189,6 @@ def improve_node(node, s):
     elif isinstance(node, AST):
         find_start(node, s)
         find_end(node, s)
-        if hasattr(node, 'start'):
-            node.lineno, node.col_offset = map_line_col(node.start)
         add_missing_names(node, s)
 
         for f in node_fields(node):
@@ -629,3 +669,7 @@ def is_alpha(c):
 
 
 # p('/System/Library/Frameworks/Python.framework/Versions/2.5/lib/python2.5/lib-tk/Tix.py')
+
+
+if __name__ == '__main__':
+    serve()
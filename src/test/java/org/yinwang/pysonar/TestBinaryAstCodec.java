@@ -0,0 +1,245 @@
+package org.yinwang.pysonar;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.yinwang.pysonar.ast.Module;
+import org.yinwang.pysonar.ast.Node;
+import org.yinwang.pysonar.parser.PythonParser;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class TestBinaryAstCodec
+{
+    private static final String SOURCE =
+            "# -*- coding: utf-8 -*-\n" +
+            "import os, sys as system\n" +
+            "from collections import OrderedDict as OD\n" +
+            "\n" +
+            "@decorator(1)\n" +
+            "class Point(object):\n" +
+            "    \"\"\"A point, caf\u00e9.\"\"\"\n" +
+            "    count = 0\n" +
+            "\n" +
+            "    def __init__(self, x=0, y=-1.5, *args, **kwargs):\n" +
+            "        self.x, self.y = x, y\n" +
+            "        Point.count += 1\n" +
+            "\n" +
+            "    def norm(self):\n" +
+            "        return (self.x ** 2 + self.y ** 2) ** 0.5\n" +
+            "\n" +
+            "def gen(n):\n" +
+            "    for i in range(n):\n" +
+            "        if i % 2 == 0 and not i > 10:\n" +
+            "            yield i\n" +
+            "        elif i in (3, 5):\n" +
+            "            continue\n" +
+            "        else:\n" +
+            "            break\n" +
+            "    while False:\n" +
+            "        pass\n" +
+            "\n" +
+            "try:\n" +
+            "    squares = [x * x for x in gen(5) if x]\n" +
+            "    table = {k: v for k, v in zip('ab', [1, 2])}\n" +
+            "    unique = {1, 2, 3}\n" +
+            "    f = lambda a, b=2: a[1:b] + a[::-1]\n" +
+            "except (ValueError, KeyError) as e:\n" +
+            "    raise\n" +
+            "finally:\n" +
+            "    del squares\n" +
+            "\n" +
+            "with open(__file__) as fh:\n" +
+            "    assert fh, 'no file'\n" +
+            "    text = fh.read() if fh else None\n" +
+            "print(Point(1, 2).norm(), *[1], **{'sep': ''})\n";
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private final BinaryAstCodec codec = new BinaryAstCodec();
+
+
+    private Module parse(String source) throws Exception
+    {
+        return new PythonParser().parse(source, "/project/pkg/mod.py");
+    }
+
+
+    private Module roundTrip(Module module) throws IOException
+    {
+        File file = tmp.newFile();
+        codec.write(module, file);
+        return codec.read(file);
+    }
+
+
+    // compares the fields of two trees, following children but not parents; nodeCount
+    // only weighs a tree in the memory cache, and reading counts the nodes anew
+    private static void assertSameTree(String path, Object expected, Object actual) throws IllegalAccessException
+    {
+        if (expected == null || actual == null)
+        {
+            assertSame(path, expected, actual);
+            return;
+        }
+        if (expected instanceof List)
+        {
+            List<?> a = (List<?>) expected;
+            List<?> b = (List<?>) actual;
+            assertEquals(path + ".size", a.size(), b.size());
+            for (int i = 0; i < a.size(); i++)
+            {
+                assertSameTree(path + "[" + i + "]", a.get(i), b.get(i));
+            }
+            return;
+        }
+        if (expected instanceof int[])
+        {
+            assertArrayEquals(path, (int[]) expected, (int[]) actual);
+            return;
+        }
+        if (!(expected instanceof Node))
+        {
+            assertEquals(path, expected, actual);
+            return;
+        }
+
+        assertEquals(path, expected.getClass(), actual.getClass());
+        for (Class<?> c = expected.getClass(); c != Object.class; c = c.getSuperclass())
+        {
+            for (Field f : c.getDeclaredFields())
+            {
+                int mods = f.getModifiers();
+                if (Modifier.isStatic(mods) || Modifier.isTransient(mods)
+                    || f.getName().equals("parent") || f.getName().equals("nodeCount"))
+                {
+                    continue;
+                }
+                f.setAccessible(true);
+                assertSameTree(path + "." + f.getName(), f.get(expected), f.get(actual));
+            }
+        }
+    }
+
+
+    @Test
+    public void roundTripKeepsEveryField() throws Exception
+    {
+        Module module = parse(SOURCE);
+        Module read = roundTrip(module);
+        assertSameTree("module", module, read);
+        assertEquals(module.pythonVersion, read.pythonVersion);
+        assertArrayEquals(module.lineStarts, read.lineStarts);
+    }
+
+
+    @Test
+    public void readTreeHasParents() throws Exception
+    {
+        Module read = roundTrip(parse("def f(x):\n    return x\n"));
+        Node def = read.body.seq.get(0);
+        assertSame(read.body, def.parent);
+        assertSame(read, def.getAstRoot());
+    }
+
+
+    @Test
+    public void missingLineStartsStayMissing() throws Exception
+    {
+        Module module = parse("x = 1\n");
+        module.lineStarts = null;
+        assertNull(roundTrip(module).lineStarts);
+    }
+
+
+    @Test
+    public void writesFileNamesOnce() throws Exception
+    {
+        Module module = parse(SOURCE);
+        File file = tmp.newFile();
+        codec.write(module, file);
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        String text = new String(bytes, "ISO-8859-1");
+        assertEquals(text.indexOf("/project/pkg/mod.py"), text.lastIndexOf("/project/pkg/mod.py"));
+    }
+
+
+    @Test
+    public void rejectsOtherFiles() throws Exception
+    {
+        File file = tmp.newFile();
+        Files.write(file.toPath(), "not an ast".getBytes("UTF-8"));
+        try
+        {
+            codec.read(file);
+            fail("read a file that isn't an AST");
+        }
+        catch (IOException e)
+        {
+            // expected
+        }
+    }
+
+
+    @Test
+    public void rejectsTruncatedFiles() throws Exception
+    {
+        File file = tmp.newFile();
+        codec.write(parse(SOURCE), file);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw"))
+        {
+            raf.setLength(raf.length() / 2);
+        }
+        try
+        {
+            codec.read(file);
+            fail("read a truncated AST");
+        }
+        catch (IOException e)
+        {
+            // expected
+        }
+    }
+
+
+    @Test
+    public void rejectsOtherVersions() throws Exception
+    {
+        File file = tmp.newFile();
+        codec.write(parse("x = 1\n"), file);
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        // the version follows the 4-byte magic, as a one-byte zigzag varint
+        bytes[4] = (byte) ((BinaryAstCodec.VERSION + 1) << 1);
+        Files.write(file.toPath(), bytes);
+        try
+        {
+            codec.read(file);
+            fail("read another format version");
+        }
+        catch (IOException e)
+        {
+            // expected
+        }
+    }
+
+
+    @Test
+    public void namesTheVersionInTheExtension()
+    {
+        // entries of an older layout are then never looked up
+        assertEquals("ast" + BinaryAstCodec.VERSION, codec.getName());
+    }
+}
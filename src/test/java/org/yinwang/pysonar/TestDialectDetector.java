@@ -0,0 +1,107 @@
+package org.yinwang.pysonar;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.yinwang.pysonar.DialectDetector.PYTHON2;
+import static org.yinwang.pysonar.DialectDetector.PYTHON3;
+
+public class TestDialectDetector
+{
+    private final DialectDetector detector = new DialectDetector();
+
+    private int guess(String content)
+    {
+        return detector.guess("/project/pkg/mod.py", content);
+    }
+
+    @Test
+    public void defaultsToPython2()
+    {
+        assertEquals(PYTHON2, guess(null));
+        assertEquals(PYTHON2, guess(""));
+        assertEquals(PYTHON2, guess("x = 1\n"));
+    }
+
+    @Test
+    public void shebangDecides()
+    {
+        assertEquals(PYTHON3, guess("#!/usr/bin/env python3\nprint 'x'\n"));
+        assertEquals(PYTHON2, guess("#!/usr/bin/python2.7\nasync def f(): pass\n"));
+        // only on the first line
+        assertEquals(PYTHON2, guess("x = 1\n#!/usr/bin/env python3\n"));
+    }
+
+    @Test
+    public void python3Syntax()
+    {
+        assertEquals(PYTHON3, guess("async def f():\n    pass\n"));
+        assertEquals(PYTHON3, guess("def f():\n    nonlocal x\n"));
+        assertEquals(PYTHON3, guess("s = f'{x}'\n"));
+        assertEquals(PYTHON3, guess("s = rf\"{x}\"\n"));
+        assertEquals(PYTHON3, guess("    y = await g()\n"));
+        assertEquals(PYTHON3, guess("    yield from g()\n"));
+        assertEquals(PYTHON3, guess("def f(x) -> int:\n    pass\n"));
+        assertEquals(PYTHON3, guess("print(x, end='')\n"));
+    }
+
+    @Test
+    public void python2Syntax()
+    {
+        assertEquals(PYTHON2, guess("print 'hello'\n"));
+        assertEquals(PYTHON2, guess("exec code in ns\n"));
+        assertEquals(PYTHON2, guess("try:\n    pass\nexcept ValueError, e:\n    pass\n"));
+        assertEquals(PYTHON2, guess("raise ValueError, 'bad'\n"));
+    }
+
+    @Test
+    public void python3CallsAreNotPython2()
+    {
+        // these look like the statements, but aren't
+        assertEquals(PYTHON2, guess("print('x')\n"));
+        assertEquals(PYTHON2, guess("print = log\n"));
+        assertEquals(PYTHON2, guess("print(x)\n"));
+        detector.remember("/other/a.py", PYTHON3);
+        detector.remember("/other/b.py", PYTHON3);
+        assertEquals(PYTHON3, guess("print('x')\n"));
+    }
+
+    @Test
+    public void mixedSyntaxFallsBackToHistory()
+    {
+        String mixed = "print 'x'\nasync def f():\n    pass\n";
+        assertEquals(PYTHON2, guess(mixed));
+        detector.remember("/project/pkg/other.py", PYTHON3);
+        assertEquals(PYTHON3, guess(mixed));
+    }
+
+    @Test
+    public void sameDirectoryBeatsTheMajority()
+    {
+        detector.remember("/a/x.py", PYTHON3);
+        detector.remember("/a/y.py", PYTHON3);
+        detector.remember("/project/pkg/z.py", PYTHON2);
+        assertEquals(PYTHON2, guess("x = 1\n"));
+        assertEquals(PYTHON3, detector.guess("/b/new.py", "x = 1\n"));
+
+        // the last file parsed in a directory counts
+        detector.remember("/project/pkg/w.py", PYTHON3);
+        assertEquals(PYTHON3, guess("x = 1\n"));
+    }
+
+    @Test
+    public void syntaxBeatsHistory()
+    {
+        detector.remember("/project/pkg/z.py", PYTHON3);
+        assertEquals(PYTHON2, guess("print 'x'\n"));
+        detector.remember("/project/pkg/z.py", PYTHON2);
+        assertEquals(PYTHON3, guess("async def f():\n    pass\n"));
+    }
+
+    @Test
+    public void filesWithoutDirectory()
+    {
+        detector.remember("top.py", PYTHON3);
+        assertEquals(PYTHON3, detector.guess("other.py", "x = 1\n"));
+    }
+}
@@ -0,0 +1,95 @@
+package org.yinwang.pysonar;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class TestLineIndex
+{
+    @Test
+    public void linesAndColumns()
+    {
+        LineIndex index = new LineIndex("ab\ncd\n\nef");
+        assertArrayEquals(new int[]{0, 3, 6, 7}, index.getStarts());
+        assertEquals(4, index.lineCount());
+        assertEquals(1, index.lineOf(0));
+        assertEquals(1, index.lineOf(2));      // the '\n' ends its own line
+        assertEquals(2, index.lineOf(3));
+        assertEquals(3, index.lineOf(6));
+        assertEquals(4, index.lineOf(8));
+        assertEquals(1, index.colOf(4));
+        assertEquals(0, index.colOf(7));
+        for (int offset = 0; offset < 9; offset++)
+        {
+            assertEquals(offset, index.offsetOf(index.lineOf(offset), index.colOf(offset)));
+        }
+    }
+
+    @Test
+    public void emptyText()
+    {
+        LineIndex index = new LineIndex("");
+        assertEquals(1, index.lineCount());
+        assertEquals(1, index.lineOf(0));
+        assertEquals(0, index.colOf(0));
+        assertEquals(0, index.lineStart(1));
+    }
+
+    @Test
+    public void trailingNewlineStartsAnEmptyLine()
+    {
+        LineIndex index = new LineIndex("x\n");
+        assertEquals(2, index.lineCount());
+        assertEquals(2, index.lineOf(2));
+        assertEquals(0, index.colOf(2));
+    }
+
+    @Test
+    public void offsetsOutsideTheText()
+    {
+        LineIndex index = new LineIndex("ab\ncd");
+        assertEquals(1, index.lineOf(-3));
+        assertEquals(-3, index.colOf(-3));
+        assertEquals(2, index.lineOf(100));
+        assertEquals(97, index.colOf(100));
+    }
+
+    @Test
+    public void carriageReturnStaysOnItsLine()
+    {
+        LineIndex index = new LineIndex("a\r\nb\rc\n");
+        assertArrayEquals(new int[]{0, 3, 7}, index.getStarts());
+        assertEquals(1, index.lineOf(1));
+        assertEquals(1, index.lineOf(2));
+        // a lone CR doesn't end a line
+        assertEquals(2, index.lineOf(5));
+        assertEquals(2, index.colOf(5));
+    }
+
+    @Test
+    public void linesPastTheEnd()
+    {
+        LineIndex index = new LineIndex("ab\ncd\n");
+        assertEquals(6, index.lineStart(3));
+        assertEquals(6, index.lineStart(10));
+        assertEquals(0, index.lineStart(0));
+        assertEquals(0, index.lineStart(-1));
+        assertEquals(8, index.offsetOf(10, 2));
+    }
+
+    @Test
+    public void startsGivenDirectly()
+    {
+        LineIndex index = new LineIndex(new int[]{0, 4, 9});
+        assertEquals(3, index.lineOf(9));
+        assertEquals(2, index.colOf(6));
+
+        // an empty array is a text of one line
+        LineIndex empty = new LineIndex(new int[0]);
+        assertEquals(1, empty.lineCount());
+        assertEquals(1, empty.lineOf(5));
+        assertEquals(5, empty.colOf(5));
+        assertEquals(3, empty.offsetOf(2, 3));
+    }
+}
@@ -0,0 +1,244 @@
+package org.yinwang.pysonar;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.yinwang.pysonar.ast.Name;
+import org.yinwang.pysonar.ast.Node;
+import org.yinwang.pysonar.types.Types;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TestReferenceIndex
+{
+    private static final String A = "/project/a.py";
+    private static final String B = "/project/b.py";
+
+    private Analyzer analyzer;
+    private final ReferenceIndex index = new ReferenceIndex();
+
+    @Before
+    public void setUp()
+    {
+        // bindings register themselves with the current analyzer
+        Map<String, Object> options = new HashMap<>();
+        options.put("parser", "java");
+        options.put("quiet", true);
+        analyzer = new Analyzer(options);
+    }
+
+    @After
+    public void tearDown()
+    {
+        analyzer.close();
+    }
+
+    private static Node node(String file, int start, int end)
+    {
+        return new Name("n" + start, file, start, end, 1, start);
+    }
+
+    private static Binding binding(String id)
+    {
+        return new Binding(id, node("/project/defs.py", 0, 1), Types.UNKNOWN, Binding.Kind.VARIABLE);
+    }
+
+    @Test
+    public void addAndGet()
+    {
+        Binding b = binding("b");
+        Binding c = binding("c");
+        Node n = node(A, 10, 15);
+        assertTrue(index.add(n, b));
+        assertFalse(index.add(n, b));
+        // another node at the same position is the same reference
+        assertFalse(index.add(node(A, 10, 15), b));
+        assertTrue(index.add(node(A, 10, 15), c));
+        assertEquals(1, index.size());
+        assertEquals(Arrays.asList(b, c), index.get(node(A, 10, 15)));
+        assertNull(index.get(node(B, 10, 15)));
+        assertNull(index.get(node(A, 10, 16)));
+    }
+
+    @Test
+    public void manyBindingsAreNotDuplicated()
+    {
+        Node n = node(A, 0, 3);
+        List<Binding> bindings = new ArrayList<>();
+        for (int i = 0; i < 20; i++)
+        {
+            bindings.add(binding("b" + i));
+            assertTrue(index.add(n, bindings.get(i)));
+        }
+        for (Binding b : bindings)
+        {
+            assertFalse(index.add(n, b));
+        }
+        assertEquals(bindings, index.get(n));
+
+        // removal must also reach the set kept for large entries
+        index.remove(Collections.<String>emptySet(), new HashSet<>(bindings.subList(0, 10)));
+        assertEquals(bindings.subList(10, 20), index.get(n));
+        assertTrue(index.add(n, bindings.get(0)));
+        assertFalse(index.add(n, bindings.get(15)));
+    }
+
+    @Test
+    public void atFindsTheInnermostNode()
+    {
+        Binding b = binding("b");
+        Node outer = node(A, 0, 100);
+        Node middle = node(A, 20, 40);
+        Node inner = node(A, 25, 30);
+        Node later = node(A, 50, 55);
+        index.add(outer, b);
+        index.add(later, b);
+        index.add(inner, b);
+        index.add(middle, b);
+
+        assertSame(outer, index.at(A, 0));
+        assertSame(outer, index.at(A, 10));
+        assertSame(middle, index.at(A, 20));
+        assertSame(inner, index.at(A, 25));
+        assertSame(inner, index.at(A, 30));
+        assertSame(middle, index.at(A, 35));
+        assertSame(later, index.at(A, 52));
+        // past the long node, found although it starts far back
+        assertSame(outer, index.at(A, 99));
+        assertNull(index.at(A, 101));
+        assertNull(index.at(A, -1));
+        assertNull(index.at(B, 10));
+        assertNull(index.at(null, 10));
+    }
+
+    @Test
+    public void atSeesNodesAddedAfterAQuery()
+    {
+        Binding b = binding("b");
+        index.add(node(A, 0, 5), b);
+        assertNull(index.at(A, 10));
+        Node n = node(A, 8, 12);
+        index.add(n, b);
+        assertSame(n, index.at(A, 10));
+    }
+
+    @Test
+    public void atMatchesALinearScan()
+    {
+        Random random = new Random(3);
+        Binding b = binding("b");
+        List<Node> nodes = new ArrayList<>();
+        for (int i = 0; i < 300; i++)
+        {
+            int start = random.nextInt(2000);
+            Node n = node(A, start, start + random.nextInt(i % 10 == 0 ? 400 : 20));
+            if (index.add(n, b))
+            {
+                nodes.add(n);
+            }
+        }
+        for (int offset = -5; offset < 2500; offset++)
+        {
+            Node best = null;
+            for (Node n : nodes)
+            {
+                if (n.start <= offset && offset <= n.end
+                    && (best == null || n.end - n.start < best.end - best.start))
+                {
+                    best = n;
+                }
+            }
+            Node found = index.at(A, offset);
+            if (best == null)
+            {
+                assertNull(found);
+            }
+            else
+            {
+                // nodes of equal length may tie
+                assertEquals("at " + offset, best.end - best.start, found.end - found.start);
+                assertTrue(found.start <= offset && offset <= found.end);
+            }
+        }
+    }
+
+    @Test
+    public void removeDropsFilesAndBindings()
+    {
+        Binding kept = binding("kept");
+        Binding gone = binding("gone");
+        Node a1 = node(A, 0, 5);
+        Node a2 = node(A, 10, 15);
+        Node b1 = node(B, 0, 5);
+        index.add(a1, kept);
+        index.add(a1, gone);
+        index.add(a2, gone);
+        index.add(b1, kept);
+        assertSame(a2, index.at(A, 12));
+        assertEquals(3, index.size());
+
+        Set<String> removed = new HashSet<>();
+        removed.add(B);
+        Set<Binding> dropped = new HashSet<>();
+        dropped.add(gone);
+        index.remove(removed, dropped);
+
+        assertEquals(1, index.size());
+        assertEquals(Collections.singletonList(kept), index.get(a1));
+        assertNull(index.get(a2));
+        assertNull(index.get(b1));
+        assertNull(index.at(A, 12));
+        assertNull(index.at(B, 2));
+        assertSame(a1, index.at(A, 2));
+
+        // a removed file can be indexed again
+        assertTrue(index.add(b1, kept));
+        assertSame(b1, index.at(B, 2));
+        assertEquals(2, index.size());
+    }
+
+    @Test
+    public void asMapKeepsFirstRecordedOrder()
+    {
+        Binding b = binding("b");
+        Binding c = binding("c");
+        Node[] nodes = {node(B, 5, 6), node(A, 9, 10), node(A, 1, 2), node(B, 0, 1)};
+        for (Node n : nodes)
+        {
+            index.add(n, b);
+        }
+        index.add(nodes[0], c);
+        Map<Node, List<Binding>> map = index.asMap();
+        assertEquals(Arrays.asList(nodes), new ArrayList<>(map.keySet()));
+        assertEquals(Arrays.asList(b, c), map.get(nodes[0]));
+
+        // kept until the references change
+        assertSame(map, index.asMap());
+        Node later = node(A, 20, 21);
+        index.add(later, b);
+        assertEquals(5, index.asMap().size());
+        index.remove(Collections.<String>emptySet(), Collections.singleton(b));
+        assertEquals(Collections.singleton(nodes[0]), index.asMap().keySet());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void asMapIsReadOnly()
+    {
+        index.add(node(A, 0, 1), binding("b"));
+        index.asMap().clear();
+    }
+}
@@ -0,0 +1,117 @@
+package org.yinwang.pysonar;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestSourceFilter
+{
+    private static SourceFilter filter(List<String> includes, List<String> excludes)
+    {
+        return new SourceFilter(includes, excludes);
+    }
+
+    private static SourceFilter excluding(String... globs)
+    {
+        return filter(Collections.<String>emptyList(), Arrays.asList(globs));
+    }
+
+    private static SourceFilter including(String... globs)
+    {
+        return filter(Arrays.asList(globs), Collections.<String>emptyList());
+    }
+
+    @Test
+    public void allAcceptsEverything()
+    {
+        assertTrue(SourceFilter.ALL.accepts("a.py"));
+        assertTrue(SourceFilter.ALL.accepts("pkg/sub/a.py"));
+        assertFalse(SourceFilter.ALL.excludesDirectory("pkg"));
+    }
+
+    @Test
+    public void globsWithoutSlashMatchNames()
+    {
+        SourceFilter f = excluding("*_pb2.py", "build");
+        assertFalse(f.acceptsFile("msg_pb2.py"));
+        assertFalse(f.acceptsFile("pkg/deep/msg_pb2.py"));
+        assertTrue(f.acceptsFile("pkg/msg.py"));
+        assertTrue(f.excludesDirectory("build"));
+        assertTrue(f.excludesDirectory("pkg/build"));
+        assertFalse(f.excludesDirectory("builder"));
+        assertFalse(f.accepts("pkg/build/a.py"));
+        assertTrue(f.accepts("pkg/builder/a.py"));
+    }
+
+    @Test
+    public void globsWithSlashMatchTheRelativePath()
+    {
+        SourceFilter f = excluding("pkg/*.py");
+        assertFalse(f.acceptsFile("pkg/a.py"));
+        // '*' doesn't cross directories
+        assertTrue(f.acceptsFile("pkg/sub/a.py"));
+        assertTrue(f.acceptsFile("other/pkg/a.py"));
+    }
+
+    @Test
+    public void directoryContentsExcludeTheDirectory()
+    {
+        SourceFilter f = excluding("vendor/**");
+        assertTrue(f.excludesDirectory("vendor"));
+        assertTrue(f.excludesDirectory("vendor/lib"));
+        assertFalse(f.excludesDirectory("src"));
+        assertFalse(f.excludesDirectory("src/vendor"));
+        assertFalse(f.accepts("vendor/a.py"));
+        assertFalse(f.accepts("vendor/lib/a.py"));
+        assertTrue(f.accepts("src/vendor/a.py"));
+        assertTrue(f.accepts("vendored.py"));
+    }
+
+    @Test
+    public void includesNarrowTheFiles()
+    {
+        SourceFilter f = including("src/**", "setup.py");
+        assertTrue(f.accepts("src/a.py"));
+        assertTrue(f.accepts("src/pkg/a.py"));
+        assertTrue(f.accepts("setup.py"));
+        assertTrue(f.accepts("other/setup.py"));
+        assertFalse(f.accepts("tests/a.py"));
+        // includes never stop the walk, only excludes do
+        assertFalse(f.excludesDirectory("tests"));
+    }
+
+    @Test
+    public void excludesWinOverIncludes()
+    {
+        SourceFilter f = filter(Arrays.asList("src/**"), Arrays.asList("*_test.py", "src/gen/**"));
+        assertTrue(f.accepts("src/a.py"));
+        assertFalse(f.accepts("src/a_test.py"));
+        assertFalse(f.accepts("src/gen/a.py"));
+        assertTrue(f.excludesDirectory("src/gen"));
+        assertFalse(f.excludesDirectory("src"));
+    }
+
+    @Test
+    public void acceptsChecksEveryParent()
+    {
+        SourceFilter f = excluding("node_modules");
+        // acceptsFile trusts that the directories were checked, accepts doesn't
+        assertTrue(f.acceptsFile("web/node_modules/x/a.py"));
+        assertFalse(f.accepts("web/node_modules/x/a.py"));
+        assertTrue(f.accepts("web/a.py"));
+    }
+
+    @Test
+    public void braceAlternatives()
+    {
+        SourceFilter f = excluding("{docs,examples}");
+        assertFalse(f.accepts("docs/conf.py"));
+        assertFalse(f.accepts("pkg/examples/demo.py"));
+        assertTrue(f.accepts("pkg/demo.py"));
+    }
+}
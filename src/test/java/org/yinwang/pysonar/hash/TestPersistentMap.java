@@ -0,0 +1,218 @@
+package org.yinwang.pysonar.hash;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TestPersistentMap
+{
+    private static <K, V> void assertSameEntries(Map<K, V> expected, PersistentMap<K, V> actual)
+    {
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected, actual);
+        assertEquals(expected.hashCode(), actual.hashCode());
+        int n = 0;
+        for (Map.Entry<K, V> e : actual.entrySet())
+        {
+            assertEquals(expected.get(e.getKey()), e.getValue());
+            n++;
+        }
+        assertEquals(expected.size(), n);
+    }
+
+    @Test
+    public void plusAndMinus()
+    {
+        PersistentMap<Integer, String> map = PersistentMap.empty();
+        Map<Integer, String> expected = new HashMap<>();
+        for (int i = 0; i < 2000; i++)
+        {
+            map = map.plus(i * 7, "v" + i);
+            expected.put(i * 7, "v" + i);
+        }
+        assertSameEntries(expected, map);
+        for (int i = 0; i < 2000; i += 3)
+        {
+            map = map.minus(i * 7);
+            expected.remove(i * 7);
+        }
+        assertSameEntries(expected, map);
+        assertNull(map.get(0));
+        assertEquals("v1", map.get(7));
+    }
+
+    @Test
+    public void unchangedMapIsReturnedAsIs()
+    {
+        PersistentMap<String, String> map = PersistentMap.<String, String>empty().plus("a", "1");
+        assertSame(map, map.plus("a", "1"));
+        assertSame(map, map.minus("b"));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    public void collidingKeys()
+    {
+        PersistentMap<TestProbingHashSet.Key, Integer> map = PersistentMap.empty();
+        Map<TestProbingHashSet.Key, Integer> expected = new HashMap<>();
+        for (int i = 0; i < 10; i++)
+        {
+            // all in one collision node
+            TestProbingHashSet.Key k = new TestProbingHashSet.Key(i, 42);
+            map = map.plus(k, i);
+            expected.put(k, i);
+            assertSameEntries(expected, map);
+        }
+        map = map.plus(new TestProbingHashSet.Key(3, 42), 33);
+        expected.put(new TestProbingHashSet.Key(3, 42), 33);
+        assertSameEntries(expected, map);
+
+        for (int i = 0; i < 10; i++)
+        {
+            TestProbingHashSet.Key k = new TestProbingHashSet.Key(i, 42);
+            map = map.minus(k);
+            expected.remove(k);
+            assertSameEntries(expected, map);
+            assertFalse(map.containsKey(k));
+        }
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    public void nullKeysAndValues()
+    {
+        PersistentMap<String, String> map = PersistentMap.<String, String>empty().plus(null, "n").plus("k", null);
+        assertEquals("n", map.get(null));
+        assertTrue(map.containsKey("k"));
+        assertNull(map.get("k"));
+        assertEquals(2, map.size());
+        assertEquals(1, map.minus(null).size());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void mapMutatorsThrow()
+    {
+        PersistentMap.<String, String>empty().put("a", "b");
+    }
+
+    @Test
+    public void randomOperationsMatchHashMap()
+    {
+        Random random = new Random(17);
+        PersistentMap<TestProbingHashSet.Key, Integer> map = PersistentMap.empty();
+        Map<TestProbingHashSet.Key, Integer> expected = new HashMap<>();
+        // earlier versions must not see later changes
+        List<PersistentMap<TestProbingHashSet.Key, Integer>> versions = new ArrayList<>();
+        List<Map<TestProbingHashSet.Key, Integer>> snapshots = new ArrayList<>();
+
+        for (int step = 0; step < 20000; step++)
+        {
+            int id = random.nextInt(500);
+            // hashes that share their low bits, collide fully, or spread out
+            int hash = id % 3 == 0 ? id & ~0x3ff : id % 3 == 1 ? id % 7 : id * 0x9e3779b9;
+            TestProbingHashSet.Key k = new TestProbingHashSet.Key(id, hash);
+            if (random.nextInt(3) < 2)
+            {
+                map = map.plus(k, step);
+                expected.put(k, step);
+            }
+            else
+            {
+                map = map.minus(k);
+                expected.remove(k);
+            }
+            assertEquals(expected.get(k), map.get(k));
+            assertEquals(expected.containsKey(k), map.containsKey(k));
+            assertEquals(expected.size(), map.size());
+            if (step % 1000 == 0)
+            {
+                assertSameEntries(expected, map);
+                versions.add(map);
+                snapshots.add(new HashMap<>(expected));
+            }
+        }
+        for (int i = 0; i < versions.size(); i++)
+        {
+            assertSameEntries(snapshots.get(i), versions.get(i));
+        }
+    }
+
+    @Test
+    public void forEachChangedVisitsEveryDifference()
+    {
+        Random random = new Random(5);
+        PersistentMap<Integer, Integer> base = PersistentMap.empty();
+        for (int i = 0; i < 3000; i++)
+        {
+            base = base.plus(random.nextInt(10000), i);
+        }
+
+        for (int round = 0; round < 50; round++)
+        {
+            PersistentMap<Integer, Integer> map = base;
+            Set<Integer> changed = new HashSet<>();
+            for (int i = 0; i < round; i++)
+            {
+                int key = random.nextInt(10000);
+                if (random.nextBoolean())
+                {
+                    map = map.plus(key, -i);
+                    if (!Integer.valueOf(-i).equals(base.get(key)))
+                    {
+                        changed.add(key);
+                    }
+                }
+                else
+                {
+                    // removals are not visited, the key is gone from map
+                    map = map.minus(key);
+                    changed.remove(key);
+                }
+            }
+
+            PersistentMap<Integer, Integer> current = map;
+            Set<Integer> visited = new HashSet<>();
+            map.forEachChanged(base, (k, v) -> {
+                assertTrue(visited.add(k));
+                assertEquals(current.get(k), v);
+            });
+            for (int k : changed)
+            {
+                if (map.containsKey(k))
+                {
+                    assertTrue("missed " + k, visited.contains(k));
+                }
+            }
+            // shared subtrees are skipped, so each change visits only its neighbours
+            assertTrue(visited.size() <= 8 * round);
+        }
+    }
+
+    @Test
+    public void forEachChangedAgainstItselfVisitsNothing()
+    {
+        PersistentMap<Integer, Integer> map = PersistentMap.empty();
+        for (int i = 0; i < 100; i++)
+        {
+            map = map.plus(i, i);
+        }
+        List<Integer> visited = new ArrayList<>();
+        map.forEachChanged(map, (k, v) -> visited.add(k));
+        assertTrue(visited.isEmpty());
+
+        map.forEachChanged(PersistentMap.empty(), (k, v) -> visited.add(k));
+        assertEquals(100, visited.size());
+    }
+}
@@ -0,0 +1,241 @@
+package org.yinwang.pysonar.hash;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestProbingHashSet
+{
+    // a key whose hash is chosen, so that collisions can be forced
+    static final class Key
+    {
+        final int id;
+        final int hash;
+
+        Key(int id, int hash)
+        {
+            this.id = id;
+            this.hash = hash;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            return o instanceof Key && ((Key) o).id == id;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "Key(" + id + ")";
+        }
+    }
+
+    private static <E> void assertSameOrder(Set<E> expected, Set<E> actual)
+    {
+        assertEquals(expected.size(), actual.size());
+        assertEquals(new ArrayList<>(expected), new ArrayList<>(actual));
+        for (E e : expected)
+        {
+            assertTrue(actual.contains(e));
+        }
+    }
+
+    @Test
+    public void growsPastScanLimit()
+    {
+        ProbingHashSet<Integer> set = new ProbingHashSet<>();
+        Set<Integer> expected = new LinkedHashSet<>();
+        for (int i = 0; i < 1000; i++)
+        {
+            // descending, so insertion order differs from hash order
+            assertTrue(set.add(1000 - i));
+            expected.add(1000 - i);
+            assertFalse(set.add(1000 - i));
+            assertSameOrder(expected, set);
+        }
+        assertFalse(set.contains(0));
+        assertFalse(set.contains(1001));
+    }
+
+    @Test
+    public void collidingHashes()
+    {
+        ProbingHashSet<Key> set = new ProbingHashSet<>();
+        for (int i = 0; i < 100; i++)
+        {
+            set.add(new Key(i, i % 3));
+        }
+        assertEquals(100, set.size());
+        for (int i = 0; i < 100; i++)
+        {
+            assertTrue(set.contains(new Key(i, i % 3)));
+        }
+        assertFalse(set.contains(new Key(100, 1)));
+    }
+
+    @Test
+    public void removeShiftsProbeChainsBack()
+    {
+        // one long probe chain, removed from the middle, the front and the end
+        ProbingHashSet<Key> set = new ProbingHashSet<>();
+        Set<Key> expected = new LinkedHashSet<>();
+        for (int i = 0; i < 40; i++)
+        {
+            Key k = new Key(i, i < 30 ? 7 : 8);
+            set.add(k);
+            expected.add(k);
+        }
+        for (int i : new int[]{15, 0, 29, 16, 1, 30, 39, 14})
+        {
+            Key k = new Key(i, i < 30 ? 7 : 8);
+            assertTrue(set.remove(k));
+            assertFalse(set.remove(k));
+            expected.remove(k);
+            assertSameOrder(expected, set);
+        }
+        for (int i = 0; i < 40; i++)
+        {
+            Key k = new Key(i, i < 30 ? 7 : 8);
+            assertEquals(expected.contains(k), set.contains(k));
+        }
+    }
+
+    @Test
+    public void compactsRemovedPositions()
+    {
+        ProbingHashSet<Integer> set = new ProbingHashSet<>(16);
+        Set<Integer> expected = new LinkedHashSet<>();
+        for (int i = 0; i < 16; i++)
+        {
+            set.add(i);
+            expected.add(i);
+        }
+        // leave holes at the front, then fill the arrays again, which compacts them
+        for (int i = 0; i < 12; i++)
+        {
+            set.remove(i);
+            expected.remove(i);
+        }
+        for (int i = 100; i < 140; i++)
+        {
+            set.add(i);
+            expected.add(i);
+            assertSameOrder(expected, set);
+        }
+        for (int i = 0; i < 12; i++)
+        {
+            assertFalse(set.contains(i));
+        }
+    }
+
+    @Test
+    public void iteratorRemove()
+    {
+        ProbingHashSet<Integer> set = new ProbingHashSet<>();
+        Set<Integer> expected = new LinkedHashSet<>();
+        for (int i = 0; i < 50; i++)
+        {
+            set.add(i);
+            expected.add(i);
+        }
+        for (Iterator<Integer> it = set.iterator(); it.hasNext(); )
+        {
+            int i = it.next();
+            if (i % 3 != 0)
+            {
+                it.remove();
+                expected.remove(i);
+            }
+        }
+        assertSameOrder(expected, set);
+        set.add(7);
+        expected.add(7);
+        assertSameOrder(expected, set);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void iteratorRemoveTwice()
+    {
+        ProbingHashSet<Integer> set = new ProbingHashSet<>();
+        set.add(1);
+        set.add(2);
+        Iterator<Integer> it = set.iterator();
+        it.next();
+        it.remove();
+        it.remove();
+    }
+
+    @Test
+    public void clear()
+    {
+        ProbingHashSet<Integer> set = new ProbingHashSet<>();
+        for (int i = 0; i < 20; i++)
+        {
+            set.add(i);
+        }
+        set.clear();
+        assertTrue(set.isEmpty());
+        assertFalse(set.iterator().hasNext());
+        set.add(5);
+        assertTrue(set.contains(5));
+        assertEquals(1, set.size());
+    }
+
+    @Test
+    public void randomOperationsMatchLinkedHashSet()
+    {
+        Random random = new Random(42);
+        ProbingHashSet<Key> set = new ProbingHashSet<>();
+        Set<Key> expected = new LinkedHashSet<>();
+        for (int step = 0; step < 20000; step++)
+        {
+            int id = random.nextInt(200);
+            Key k = new Key(id, id % 13);
+            int op = random.nextInt(10);
+            if (op < 6)
+            {
+                assertEquals(expected.add(k), set.add(k));
+            }
+            else if (op < 9)
+            {
+                assertEquals(expected.remove(k), set.remove(k));
+            }
+            else
+            {
+                List<Key> gone = new ArrayList<>();
+                for (Iterator<Key> it = set.iterator(); it.hasNext(); )
+                {
+                    Key key = it.next();
+                    if (key.id % 7 == step % 7)
+                    {
+                        it.remove();
+                        gone.add(key);
+                    }
+                }
+                expected.removeAll(gone);
+            }
+            assertEquals(expected.contains(k), set.contains(k));
+            if (step % 100 == 0)
+            {
+                assertSameOrder(expected, set);
+            }
+        }
+        assertSameOrder(expected, set);
+    }
+}